@@ -0,0 +1,89 @@
+package com.homework3.pagerank;
+
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.StatusReporter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.lib.map.WrappedMapper;
+import org.apache.hadoop.mapreduce.task.MapContextImpl;
+
+/**
+ * Map contexts for calling mappers outside a task. Every record written is serialized into a
+ * buffer like the map output collector does, so the benchmarks pay for the Writable encoding
+ * of what the mapper emits but not for sorting or spilling.
+ */
+public class BenchmarkContexts {
+
+	// Serializes keys and values into one buffer, reset once it holds a megabyte
+	public static class SerializingWriter<K extends Writable, V extends Writable> extends RecordWriter<K, V> {
+		private DataOutputBuffer buffer = new DataOutputBuffer(1 << 20);
+		private long records;
+		private long bytes;
+
+		@Override
+		public void write(K key, V value) throws IOException {
+			key.write(buffer);
+			value.write(buffer);
+			records++;
+			if (buffer.getLength() >= 1 << 20) {
+				bytes += buffer.getLength();
+				buffer.reset();
+			}
+		}
+
+		@Override
+		public void close(TaskAttemptContext context) {
+		}
+
+		public long records() {
+			return records;
+		}
+
+		public long bytes() {
+			return bytes + buffer.getLength();
+		}
+	}
+
+	// Counters of the mapper, kept in memory
+	private static class Reporter extends StatusReporter {
+		private Counters counters = new Counters();
+
+		@Override
+		public Counter getCounter(Enum<?> name) {
+			return counters.findCounter(name);
+		}
+
+		@Override
+		public Counter getCounter(String group, String name) {
+			return counters.findCounter(group, name);
+		}
+
+		@Override
+		public void progress() {
+		}
+
+		@Override
+		public float getProgress() {
+			return 0;
+		}
+
+		@Override
+		public void setStatus(String status) {
+		}
+	}
+
+	// Context of a mapper writing to writer
+	public static <KI, VI, KO extends Writable, VO extends Writable> Mapper<KI, VI, KO, VO>.Context mapContext(
+			Configuration conf, SerializingWriter<KO, VO> writer) {
+		MapContextImpl<KI, VI, KO, VO> context = new MapContextImpl<KI, VI, KO, VO>(conf, new TaskAttemptID(), null, writer, null, new Reporter(), null);
+		return new WrappedMapper<KI, VI, KO, VO>().getMapContext(context);
+	}
+}
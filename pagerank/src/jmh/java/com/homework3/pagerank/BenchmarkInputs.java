@@ -0,0 +1,120 @@
+package com.homework3.pagerank;
+
+import java.util.Random;
+
+/**
+ * Deterministic synthetic inputs for the benchmarks: wiki pages in the bz2 line format of
+ * ParserMapper, adjacency lines of the text iterations and skewed rank distributions.
+ */
+public class BenchmarkInputs {
+	private static final long SEED = 42;
+
+	// Page name in the style of the wiki dump, mixed case with underscores and digits
+	static String pageName(Random random) {
+		StringBuilder name = new StringBuilder();
+		int words = 1 + random.nextInt(3);
+		for (int w = 0; w < words; w++) {
+			if (w > 0) {
+				name.append('_');
+			}
+			name.append((char) ('A' + random.nextInt(26)));
+			int letters = 3 + random.nextInt(8);
+			for (int i = 0; i < letters; i++) {
+				name.append((char) ('a' + random.nextInt(26)));
+			}
+		}
+		if (random.nextInt(4) == 0) {
+			name.append('_').append(1900 + random.nextInt(120));
+		}
+		return name.toString();
+	}
+
+	// Out-degree following a power law with the given mean, at least one
+	static int degree(Random random, int mean) {
+		// Pareto with shape 2 has mean 2 * minimum
+		double u = 1.0 - random.nextDouble();
+		return Math.max(1, (int) (mean / 2.0 / Math.sqrt(u)));
+	}
+
+	/**
+	 * "name:html" lines like the bz2 dump: a page with a header, some prose, links inside the
+	 * bodyContent div (a few of them percent-encoded or to other namespaces) and navigation
+	 * links outside it that the parser skips.
+	 */
+	public static String[] wikiLines(int count, int meanLinks) {
+		Random random = new Random(SEED);
+		String[] lines = new String[count];
+		for (int p = 0; p < count; p++) {
+			StringBuilder html = new StringBuilder();
+			html.append(pageName(random)).append(':');
+			html.append("<!DOCTYPE html PUBLIC \"-//W3C//DTD XHTML 1.0 Strict//EN\" \"http://www.w3.org/TR/xhtml1/DTD/xhtml1-strict.dtd\">");
+			html.append("<html xmlns=\"http://www.w3.org/1999/xhtml\" lang=\"en\"><head><title>Page</title>");
+			html.append("<meta http-equiv=\"Content-Type\" content=\"text/html; charset=utf-8\"/></head><body>");
+			html.append("<div id=\"globalWrapper\"><div id=\"column-content\"><div id=\"content\">");
+			html.append("<div id=\"bodyContent\"><h3 id=\"siteSub\">From Wikipedia, the free encyclopedia</h3>");
+			int links = degree(random, meanLinks);
+			for (int i = 0; i < links; i++) {
+				html.append("<p>Lorem ipsum dolor sit amet &amp; consectetur ");
+				String target = pageName(random);
+				switch (random.nextInt(10)) {
+				case 0:
+					// Percent-encoded name
+					html.append("<a href=\"../../../").append(target.charAt(0)).append("/x/y/").append(target).append("_%28disambiguation%29.html\" title=\"t\">x</a>");
+					break;
+				case 1:
+					// Other namespace, dropped by the name pattern
+					html.append("<a href=\"../../../i/m/a/Image~").append(target).append(".html\">img</a>");
+					break;
+				default:
+					html.append("<a href=\"../../../").append(target.charAt(0)).append("/x/y/").append(target).append(".html\" title=\"").append(target).append("\">").append(target).append("</a>");
+				}
+				html.append(" adipiscing elit.</p>");
+			}
+			html.append("<table class=\"infobox\"><tr><td>1</td><td>2</td></tr></table></div></div></div>");
+			html.append("<div id=\"column-one\"><a href=\"../../../m/a/i/Main_Page.html\">Main page</a></div></div></body></html>");
+			lines[p] = html.toString();
+		}
+		return lines;
+	}
+
+	// "name<TAB>rank adj" lines of the text iterations, adjacency lists joined by "~"
+	public static String[] adjacencyLines(int count, int meanDegree) {
+		Random random = new Random(SEED);
+		String[] lines = new String[count];
+		for (int p = 0; p < count; p++) {
+			StringBuilder line = new StringBuilder();
+			line.append(pageName(random)).append('\t').append(random.nextDouble() / count);
+			int degree = degree(random, meanDegree);
+			for (int i = 0; i < degree; i++) {
+				line.append(i == 0 ? ' ' : '~').append(pageName(random));
+			}
+			lines[p] = line.toString();
+		}
+		return lines;
+	}
+
+	// Adjacency lists of a fixed degree, for the Node encoding
+	public static String adjacencyList(int degree) {
+		Random random = new Random(SEED);
+		StringBuilder adj = new StringBuilder();
+		for (int i = 0; i < degree; i++) {
+			if (i > 0) {
+				adj.append('~');
+			}
+			adj.append(pageName(random));
+		}
+		return adj.toString();
+	}
+
+	// Ranks in arrival order, uniform or following the power law of web page rank
+	public static double[] ranks(int count, boolean skewed) {
+		Random random = new Random(SEED);
+		double[] ranks = new double[count];
+		for (int i = 0; i < count; i++) {
+			double u = 1.0 - random.nextDouble();
+			// Pareto with shape 1.1, roughly the in-degree and page rank tail of the web graph
+			ranks[i] = (skewed ? Math.pow(u, -1.0 / 1.1) : 1.0 + random.nextDouble()) / count;
+		}
+		return ranks;
+	}
+}
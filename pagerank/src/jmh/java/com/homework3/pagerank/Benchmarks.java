@@ -0,0 +1,23 @@
+package com.homework3.pagerank;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the hot path benchmarks with the GC profiler, so next to the throughput every benchmark
+ * reports its allocation rate (gc.alloc.rate.norm, bytes per operation). Takes the usual JMH
+ * command line, for example a benchmark regex or -p degree=1000.
+ */
+public class Benchmarks {
+	public static void main(String[] args) throws Exception {
+		CommandLineOptions cmd = new CommandLineOptions(args);
+		Options options = new OptionsBuilder()
+				.parent(cmd)
+				.addProfiler(GCProfiler.class)
+				.build();
+		new Runner(options).run();
+	}
+}
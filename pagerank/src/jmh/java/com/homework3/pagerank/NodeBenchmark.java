@@ -0,0 +1,86 @@
+package com.homework3.pagerank;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.homework3.pagerank.Pagerank.Node;
+
+// Wire format of the text iterations: pages with their adjacency list and contributions
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class NodeBenchmark {
+
+	// Out-degree of the page
+	@Param({ "10", "1000" })
+	int degree;
+
+	// Number of personalized vectors
+	@Param({ "1", "8" })
+	int width;
+
+	private Node page = new Node();
+	private Node contribution = new Node();
+	private Node read = new Node();
+	private DataOutputBuffer out = new DataOutputBuffer();
+	private DataInputBuffer in = new DataInputBuffer();
+	private byte[] pageBytes;
+	private byte[] contributionBytes;
+
+	@Setup
+	public void setup() throws IOException {
+		double[] ranks = new double[width];
+		for (int k = 0; k < width; k++) {
+			ranks[k] = 1.0 / (k + 3);
+		}
+		page.setPage("Page", ranks, width, BenchmarkInputs.adjacencyList(degree));
+		contribution.setContribution(ranks, width);
+		pageBytes = bytes(page);
+		contributionBytes = bytes(contribution);
+	}
+
+	private byte[] bytes(Node node) throws IOException {
+		out.reset();
+		node.write(out);
+		return java.util.Arrays.copyOf(out.getData(), out.getLength());
+	}
+
+	@Benchmark
+	public int writePage() throws IOException {
+		out.reset();
+		page.write(out);
+		return out.getLength();
+	}
+
+	@Benchmark
+	public Node readPage() throws IOException {
+		in.reset(pageBytes, pageBytes.length);
+		read.readFields(in);
+		return read;
+	}
+
+	@Benchmark
+	public int writeContribution() throws IOException {
+		out.reset();
+		contribution.write(out);
+		return out.getLength();
+	}
+
+	@Benchmark
+	public Node readContribution() throws IOException {
+		in.reset(contributionBytes, contributionBytes.length);
+		read.readFields(in);
+		return read;
+	}
+}
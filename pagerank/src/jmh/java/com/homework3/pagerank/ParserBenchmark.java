@@ -0,0 +1,70 @@
+package com.homework3.pagerank;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.homework3.pagerank.Adjacency.ParserMapper;
+import com.homework3.pagerank.BenchmarkContexts.SerializingWriter;
+
+// Link extraction from wiki pages, alone and as part of the preprocessing mapper
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ParserBenchmark {
+
+	// Mean number of links per page
+	@Param({ "30", "300" })
+	int links;
+
+	private LinkExtractor extractor = new LinkExtractor(true);
+	private List<String> names = new ArrayList<String>();
+	private ParserMapper mapper = new ParserMapper();
+	private ParserMapper.Context context;
+	private Text[] lines;
+	// Offset of the html after "name:" in every line
+	private int[] starts;
+	private LongWritable offset = new LongWritable();
+	private int next;
+
+	@Setup
+	public void setup() {
+		context = BenchmarkContexts.<Object, Text, Text, Text>mapContext(new Configuration(false), new SerializingWriter<Text, Text>());
+		String[] generated = BenchmarkInputs.wikiLines(256, links);
+		lines = new Text[generated.length];
+		starts = new int[generated.length];
+		for (int i = 0; i < generated.length; i++) {
+			lines[i] = new Text(generated[i].getBytes(StandardCharsets.UTF_8));
+			starts[i] = generated[i].indexOf(':') + 1;
+		}
+	}
+
+	@Benchmark
+	public List<String> extract() {
+		Text line = lines[next];
+		names.clear();
+		extractor.extract(line.getBytes(), starts[next], line.getLength(), names);
+		next = (next + 1) & (lines.length - 1);
+		return names;
+	}
+
+	@Benchmark
+	public void map() throws IOException, InterruptedException {
+		mapper.map(offset, lines[next], context);
+		next = (next + 1) & (lines.length - 1);
+	}
+}
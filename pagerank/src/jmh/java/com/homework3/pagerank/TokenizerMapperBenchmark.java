@@ -0,0 +1,59 @@
+package com.homework3.pagerank;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.homework3.pagerank.BenchmarkContexts.SerializingWriter;
+import com.homework3.pagerank.Pagerank.Node;
+import com.homework3.pagerank.Pagerank.TokenizerMapper;
+
+// Map side of a text iteration, one adjacency line per operation
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class TokenizerMapperBenchmark {
+
+	// Mean out-degree of the power-law adjacency lists
+	@Param({ "20", "500" })
+	int degree;
+
+	@Param({ "false", "true" })
+	boolean inmapper;
+
+	private TokenizerMapper mapper = new TokenizerMapper();
+	private TokenizerMapper.Context context;
+	private Text[] lines;
+	private LongWritable offset = new LongWritable();
+	private int next;
+
+	@Setup
+	public void setup() throws IOException, InterruptedException {
+		Configuration conf = new Configuration(false);
+		conf.setBoolean("pagerank.inmapper", inmapper);
+		context = BenchmarkContexts.<Object, Text, Text, Node>mapContext(conf, new SerializingWriter<Text, Node>());
+		mapper.setup(context);
+		String[] generated = BenchmarkInputs.adjacencyLines(4096, degree);
+		lines = new Text[generated.length];
+		for (int i = 0; i < generated.length; i++) {
+			lines[i] = new Text(generated[i]);
+		}
+	}
+
+	@Benchmark
+	public void map() throws IOException, InterruptedException {
+		mapper.map(offset, lines[next], context);
+		next = (next + 1) & (lines.length - 1);
+	}
+}
@@ -0,0 +1,84 @@
+package com.homework3.pagerank;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.homework3.pagerank.BenchmarkContexts.SerializingWriter;
+import com.homework3.pagerank.TopK.Candidates;
+import com.homework3.pagerank.TopK.TopKMapper;
+
+// Map side top K selection over a stream of ranks, one operation per page offered
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class TopKBenchmark {
+	private static final int PAGES = 1 << 16;
+
+	@Param({ "100", "10000" })
+	int k;
+
+	// Power-law ranks like a real run, or uniform ones
+	@Param({ "true", "false" })
+	boolean skewed;
+
+	private String[] names;
+	private double[] ranks;
+	private Text[] lines;
+	private Configuration conf;
+	private LongWritable offset = new LongWritable();
+
+	@Setup
+	public void setup() {
+		conf = new Configuration(false);
+		conf.setInt(TopK.K, k);
+		ranks = BenchmarkInputs.ranks(PAGES, skewed);
+		Random random = new Random(7);
+		names = new String[PAGES];
+		lines = new Text[PAGES];
+		for (int i = 0; i < PAGES; i++) {
+			names[i] = BenchmarkInputs.pageName(random);
+			lines[i] = new Text(names[i] + "\t" + ranks[i]);
+		}
+	}
+
+	// Candidates of a final pass fed with decoded names
+	@Benchmark
+	@OperationsPerInvocation(PAGES)
+	public Candidates candidates() {
+		Candidates candidates = new Candidates(conf);
+		for (int i = 0; i < PAGES; i++) {
+			candidates.add(names[i], ranks[i]);
+		}
+		return candidates;
+	}
+
+	// The standalone job's mapper, parsing "name<TAB>rank" lines and emitting its heap
+	@Benchmark
+	@OperationsPerInvocation(PAGES)
+	public long mapper() throws IOException, InterruptedException {
+		SerializingWriter<DoubleWritable, Text> writer = new SerializingWriter<DoubleWritable, Text>();
+		TopKMapper.Context context = BenchmarkContexts.<Object, Text, DoubleWritable, Text>mapContext(conf, writer);
+		TopKMapper mapper = new TopKMapper();
+		mapper.setup(context);
+		for (int i = 0; i < PAGES; i++) {
+			mapper.map(offset, lines[i], context);
+		}
+		mapper.cleanup(context);
+		return writer.records();
+	}
+}
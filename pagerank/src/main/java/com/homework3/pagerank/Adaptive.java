@@ -0,0 +1,375 @@
+package com.homework3.pagerank;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
+
+import com.homework3.pagerank.TopK.Candidates;
+
+/**
+ * Adaptive text iterations, which stop recomputing pages that have converged. A page whose rank
+ * changes by less than pagerank.adaptive.tolerance of itself for pagerank.adaptive.iterations
+ * iterations in a row is converged and its rank is fixed from then on. Its mapper sends its
+ * contributions once more marked as frozen, every target adds them to a frozen in-link sum it
+ * carries along, and after that the page sends no contributions at all. Mappers write converged
+ * pages straight to the frozen side output of the iteration, which the next one reads along with
+ * the reducer output, so they are not shuffled either and contributions to them are dropped.
+ * The rank field of a page line holds "rank;stable;frozen": the rank, the number of iterations
+ * in a row it was stable and the frozen in-link sum. A page line with a plain rank, like the
+ * initial graph or a warm start, starts with no history. The final pass writes plain ranks.
+ */
+public class Adaptive {
+
+	public static final String ENABLED = "pagerank.adaptive";
+	// Largest rank change, relative to the rank, that counts as stable
+	public static final String TOLERANCE = "pagerank.adaptive.tolerance";
+	// Stable iterations in a row after which a page is converged
+	public static final String ITERATIONS = "pagerank.adaptive.iterations";
+	// Named output of the converged pages
+	public static final String FROZEN = "frozen";
+
+	public enum AdaptiveCounter {
+		// Converged pages written by an iteration
+		Converged,
+		// Contributions of converged pages that were not sent
+		Skipped
+	}
+
+	public static long converged(Counters counters) {
+		return counters.findCounter(AdaptiveCounter.Converged).getValue();
+	}
+
+	public static long skipped(Counters counters) {
+		return counters.findCounter(AdaptiveCounter.Skipped).getValue();
+	}
+
+	// Page lines of an adaptive iteration output, the reducer output and the converged pages
+	public static String pages(String output) {
+		return output + "/{part," + FROZEN + "}-*";
+	}
+
+	// Rank field holding the state of a page
+	static String format(double rank, int stable, double frozen) {
+		return rank + ";" + stable + ";" + frozen;
+	}
+
+	// Page state parsed from a line
+	static class Page {
+		String name;
+		double rank;
+		int stable;
+		double frozen;
+		// Null for a page without out-links
+		String adj;
+
+		Page parse(String line) {
+			String[] tokens = line.split("\\s+");
+			name = tokens[0];
+			adj = tokens.length <= 2 ? null : tokens[2];
+			String field = tokens[1];
+			int first = field.indexOf(';');
+			if (first < 0) {
+				rank = Double.parseDouble(field);
+				stable = 0;
+				frozen = 0.0;
+				return this;
+			}
+			int second = field.indexOf(';', first + 1);
+			rank = Double.parseDouble(field.substring(0, first));
+			stable = Integer.parseInt(field.substring(first + 1, second));
+			frozen = Double.parseDouble(field.substring(second + 1));
+			return this;
+		}
+	}
+
+	// Value of an adaptive iteration: a page with its state and structure, a contribution, or a
+	// frozen contribution of a page that just converged
+	public static class AdaptiveValue implements Writable {
+		private static final byte PAGE = 0;
+		private static final byte PAGE_WITH_LINKS = 1;
+		private static final byte CONTRIBUTION = 2;
+		private static final byte FROZEN = 3;
+		// Added to the type of a page with a frozen in-link sum
+		private static final byte WITH_FROZEN = 4;
+
+		private byte type;
+		private double rank;
+		private int stable;
+		private double frozen;
+		private Text adj = new Text();
+
+		public AdaptiveValue setPage(double r, int s, double f, String a) {
+			type = a == null ? PAGE : PAGE_WITH_LINKS;
+			rank = r;
+			stable = s;
+			frozen = f;
+			if (a != null) {
+				adj.set(a);
+			}
+			return this;
+		}
+
+		public AdaptiveValue setContribution(double c, boolean isFrozen) {
+			type = isFrozen ? FROZEN : CONTRIBUTION;
+			rank = c;
+			return this;
+		}
+
+		public boolean isPage() {
+			return type == PAGE || type == PAGE_WITH_LINKS;
+		}
+
+		public boolean isFrozen() {
+			return type == FROZEN;
+		}
+
+		// Rank of a page, or the contribution
+		public double getRank() {
+			return rank;
+		}
+
+		public int getStable() {
+			return stable;
+		}
+
+		public double getFrozen() {
+			return frozen;
+		}
+
+		// Adjacency list, null for a page without out-links
+		public Text getAdjList() {
+			return type == PAGE_WITH_LINKS ? adj : null;
+		}
+
+		@Override
+		public void write(DataOutput out) throws IOException {
+			if (!isPage()) {
+				out.writeByte(type);
+				out.writeDouble(rank);
+				return;
+			}
+			// Most pages have no frozen in-links until the first of them converge
+			out.writeByte(frozen == 0.0 ? type : type + WITH_FROZEN);
+			out.writeDouble(rank);
+			WritableUtils.writeVInt(out, stable);
+			if (frozen != 0.0) {
+				out.writeDouble(frozen);
+			}
+			if (type == PAGE_WITH_LINKS) {
+				adj.write(out);
+			}
+		}
+
+		@Override
+		public void readFields(DataInput in) throws IOException {
+			type = in.readByte();
+			rank = in.readDouble();
+			boolean withFrozen = type >= WITH_FROZEN;
+			if (withFrozen) {
+				type -= WITH_FROZEN;
+			}
+			if (!isPage()) {
+				return;
+			}
+			stable = WritableUtils.readVInt(in);
+			frozen = withFrozen ? in.readDouble() : 0.0;
+			if (type == PAGE_WITH_LINKS) {
+				adj.readFields(in);
+			}
+		}
+	}
+
+	// Mapper that sends the pages that have not converged with their contributions, writes the
+	// converged pages to the frozen output and sends the frozen contributions of a page that
+	// converged in the previous iteration
+	public static class AdaptiveMapper extends Mapper<Object, Text, Text, AdaptiveValue> {
+		private int iterations;
+		private MultipleOutputs<Text, AdaptiveValue> out;
+		private DanglingMass dangling = new DanglingMass();
+		private Page page = new Page();
+		private Text name = new Text();
+		private Text target = new Text();
+		private Text line = new Text();
+		private AdaptiveValue value = new AdaptiveValue();
+		private AdaptiveValue contribution = new AdaptiveValue();
+
+		protected void setup(Context context) throws IOException,InterruptedException  {
+			iterations = context.getConfiguration().getInt(ITERATIONS, 2);
+			out = new MultipleOutputs<Text, AdaptiveValue>(context);
+		}
+
+		public void map(Object key, Text text, Context context) throws IOException, InterruptedException {
+			page.parse(text.toString());
+			name.set(page.name);
+			boolean converged = page.stable >= iterations;
+			if (converged) {
+				String state = format(page.rank, iterations + 1, page.frozen);
+				line.set(page.adj == null ? state : state + " " + page.adj);
+				out.write(FROZEN, name, line, FROZEN);
+				context.getCounter(AdaptiveCounter.Converged).increment(1);
+			}
+			else {
+				context.write(name, value.setPage(page.rank, page.stable, page.frozen, page.adj));
+			}
+			if (page.adj == null) {
+				// Converged or not, the rank of a dangling page is spread over all pages
+				dangling.add(page.rank);
+				return;
+			}
+			String[] list = page.adj.split("~");
+			if (page.stable > iterations) {
+				// Already frozen into the in-link sums of the targets
+				context.getCounter(AdaptiveCounter.Skipped).increment(list.length);
+				return;
+			}
+			contribution.setContribution(page.rank / (double) list.length, converged);
+			for (String each : list) {
+				target.set(each);
+				context.write(target, contribution);
+			}
+		}
+
+		protected void cleanup(Context context) throws IOException, InterruptedException {
+			dangling.emitText(context, contribution.setContribution(dangling.get(), false));
+			out.close();
+		}
+	}
+
+	// Combiner that sums the contributions and the frozen contributions to a page separately
+	public static class AdaptiveCombiner extends Reducer<Text, AdaptiveValue, Text, AdaptiveValue> {
+		private AdaptiveValue contribution = new AdaptiveValue();
+
+		public void reduce(Text key, Iterable<AdaptiveValue> values, Context context) throws IOException, InterruptedException {
+			double S = 0.0;
+			double frozen = 0.0;
+			boolean any = false;
+			boolean anyFrozen = false;
+			for (AdaptiveValue value : values) {
+				if (value.isPage()) {
+					context.write(key, value);
+				}
+				else if (value.isFrozen()) {
+					frozen += value.getRank();
+					anyFrozen = true;
+				}
+				else {
+					S += value.getRank();
+					any = true;
+				}
+			}
+			if (any) {
+				context.write(key, contribution.setContribution(S, false));
+			}
+			if (anyFrozen) {
+				context.write(key, contribution.setContribution(frozen, true));
+			}
+		}
+	}
+
+	// Reducer that recomputes the pages that have not converged from their contributions and
+	// frozen in-link sum, contributions to converged pages have no page and are dropped
+	public static class AdaptiveReducer extends Reducer<Text, AdaptiveValue, Text, Text> {
+		private RankChange change = new RankChange();
+		private Text adjList = new Text();
+		private Text line = new Text();
+		private double alpha;
+		private double numPages;
+		private double tolerance;
+		private int iterations;
+		// Dangling mass of this iteration, received before the first page
+		private double dangling;
+
+		protected void setup(Context context) throws IOException,InterruptedException  {
+			Configuration conf = context.getConfiguration();
+			alpha = conf.getDouble("alpha", 0.0);
+			numPages = conf.getDouble("Pages", 0.0);
+			tolerance = conf.getDouble(TOLERANCE, 1e-6);
+			iterations = conf.getInt(ITERATIONS, 2);
+		}
+
+		public void reduce(Text key, Iterable<AdaptiveValue> values, Context context) throws IOException, InterruptedException {
+			double S = 0.0;
+			double frozen = 0.0;
+			double rank = 0.0;
+			int stable = 0;
+			double frozenSum = 0.0;
+			boolean found = false;
+			adjList.clear();
+			for (AdaptiveValue value : values) {
+				if (value.isPage()) {
+					found = true;
+					// Values are reused by the framework, keep the state and adjacency list of the page
+					rank = value.getRank();
+					stable = value.getStable();
+					frozenSum = value.getFrozen();
+					if (value.getAdjList() != null) {
+						adjList.set(value.getAdjList());
+					}
+				}
+				else {
+					// A frozen contribution is also this iteration's contribution
+					S += value.getRank();
+					if (value.isFrozen()) {
+						frozen += value.getRank();
+					}
+				}
+			}
+			if (DanglingMass.isMarker(key)) {
+				dangling += S;
+				return;
+			}
+			if (!found) {
+				return;
+			}
+			double newPagerank = (alpha/numPages) + ((1-alpha)*(S + frozenSum + dangling/numPages));
+			stable = Math.abs(newPagerank - rank) <= tolerance * rank ? stable + 1 : 0;
+			if (stable >= iterations) {
+				context.getCounter(AdaptiveCounter.Converged).increment(1);
+			}
+			change.add(rank, newPagerank);
+			String state = format(newPagerank, stable, frozenSum + frozen);
+			line.set(adjList.getLength() == 0 ? state : state + " " + adjList);
+			context.write(key, line);
+		}
+
+		protected void cleanup(Context context) throws IOException, InterruptedException {
+			change.report(context);
+		}
+	}
+
+	// Mapper that writes the last adaptive iteration as the text result with plain ranks, with its local top K pages
+	public static class AdaptiveTextMapper extends Mapper<Object, Text, Text, Text> {
+		private MultipleOutputs<Text, Text> out;
+		private Candidates candidates;
+		private Page page = new Page();
+		private Text name = new Text();
+		private Text rank = new Text();
+
+		protected void setup(Context context) throws IOException,InterruptedException  {
+			out = new MultipleOutputs<Text, Text>(context);
+			candidates = new Candidates(context.getConfiguration());
+		}
+
+		public void map(Object key, Text line, Context context) throws IOException, InterruptedException {
+			page.parse(line.toString());
+			name.set(page.name);
+			candidates.add(name, page.rank);
+			rank.set(page.adj == null ? Double.toString(page.rank) : page.rank + " " + page.adj);
+			context.write(name, rank);
+		}
+
+		protected void cleanup(Context context) throws IOException, InterruptedException {
+			candidates.write(out);
+			out.close();
+		}
+	}
+}
@@ -1,8 +1,6 @@
 package com.homework3.pagerank;
 
 import java.io.IOException;
-import java.io.StringReader;
-import java.net.URLDecoder;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
@@ -11,71 +9,54 @@ import java.util.List;
 import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import javax.xml.parsers.SAXParser;
-import javax.xml.parsers.SAXParserFactory;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Mapper;
 import org.apache.hadoop.mapreduce.Reducer;
-import org.xml.sax.Attributes;
-import org.xml.sax.InputSource;
-import org.xml.sax.SAXException;
-import org.xml.sax.XMLReader;
-import org.xml.sax.helpers.DefaultHandler;
 
 import com.homework3.pagerank.PageRankDriver.PageCount;
 
 public class Adjacency {
 	private static Pattern namePattern;
-	private static Pattern linkPattern;
 	static {
 		// Keep only html pages not containing tilde (~).
 		namePattern = Pattern.compile("^([^~]+)$");
-		// Keep only html filenames ending relative paths and not containing tilde (~).
-		linkPattern = Pattern.compile("^\\..*/([^~]+)\\.html$");
 	}
 
 	public static class ParserMapper extends Mapper<Object, Text, Text, Text>{
-		List<String> linkPageNames;
-		XMLReader xmlReader;
-		
-		@Override
-		protected void setup(Context context) throws IOException,InterruptedException  {
-			try {
-				// Configure parser.
-				SAXParserFactory spf = SAXParserFactory.newInstance();
-				spf.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
-				SAXParser saxParser = spf.newSAXParser();
-				xmlReader = saxParser.getXMLReader();
-				// Parser fills this list with linked page names.
-				linkPageNames = new LinkedList<>();
-			}
-			catch(Exception e) {
-				e.printStackTrace();
-			}
-		}
-		
+		// Parser fills this list with linked page names, & is plain text like after replaceAll("&", "&amp;")
+		List<String> linkPageNames = new ArrayList<String>();
+		LinkExtractor extractor = new LinkExtractor(true);
 		
 		// Map task which emit nodes and adjacency list
 		public void map(Object key, Text value, Context context) throws IOException, InterruptedException {
-			xmlReader.setContentHandler(new WikiParser(linkPageNames));
-			String line = value.toString();
-			int delimLoc = line.indexOf(':');
-			//String pageName = line.substring(0, delimLoc);
-			String pageName = new String(Arrays.copyOf(value.getBytes(), delimLoc), "latin1");
-			String html = line.substring(delimLoc + 1);
-			html = html.replaceAll("&", "&amp;");
+			byte[] bytes = value.getBytes();
+			int length = value.getLength();
+			int colon = 0;
+			while (colon < length && bytes[colon] != ':') {
+				colon++;
+			}
+			if (colon == length) {
+				return;
+			}
+			// The name keeps as many bytes as the decoded line has characters before the colon
+			int delimLoc = colon;
+			for (int i = 0; i < colon; i++) {
+				if (bytes[i] < 0) {
+					delimLoc = Text.decode(bytes, 0, colon).length();
+					break;
+				}
+			}
+			String pageName = new String(bytes, 0, delimLoc, "latin1");
 			Matcher matcher = namePattern.matcher(pageName);
 			if (!matcher.find()) {
 				// Skip this html file, name contains (~).
 				return;
 			}
-			// Parse page and fill list of linked pages.
+			// Scan the page bytes and fill list of linked pages.
 			linkPageNames.clear();
-			try {
-				xmlReader.parse(new InputSource(new StringReader(html)));	
-			} catch (Exception e) {
+			if (!extractor.extract(bytes, colon + 1, length, linkPageNames)) {
 				// Discard ill-formatted pages.
 				return;
 			}
@@ -111,6 +92,30 @@ public class Adjacency {
 		}
 	}
 	
+	// Reduce task that handles dangling nodes and writes one binary Vertex record per page
+	public static class BinaryParserReducer extends Reducer<Text, Text, Text, Vertex> {
+		private Vertex vertex = new Vertex();
+		private long pages;
+		
+		public void reduce(Text key, Iterable<Text> values, Context context) throws IOException, InterruptedException {
+			vertex.setAdjList("");
+			for (Text each: values) {
+				if (each.getLength()>0) {
+					vertex.setAdjList(each.toString());
+				}
+			}
+			context.write(key, vertex);
+			context.getCounter(PageCount.Counter).increment(1);
+			pages++;
+		}
+		
+		// Page count of this partition, used to hand out dense page IDs
+		protected void cleanup(Context context) throws IOException, InterruptedException {
+			String partition = Integer.toString(context.getTaskAttemptID().getTaskID().getId());
+			context.getCounter(Renumber.PARTITION_PAGES, partition).increment(pages);
+		}
+	}
+	
 	// Mapper to initialize page rank values for all nodes
 	public static class ParserInitialPgMapper extends Mapper<Object, Text, Text, Text>{
 		double initialPg;
@@ -131,56 +136,18 @@ public class Adjacency {
 		}
 	}
 	
-	/** Parses a Wikipage, finding links inside bodyContent div element. */
-	private static class WikiParser extends DefaultHandler {
-		/** List of linked pages; filled by parser. */
-		private List<String> linkPageNames;
-		/** Nesting depth inside bodyContent div element. */
-		private int count = 0;
-
-		public WikiParser(List<String> linkPageNames) {
-			super();
-			this.linkPageNames = linkPageNames;
-		}
-
-		@Override
-		public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException {
-			super.startElement(uri, localName, qName, attributes);
-			if ("div".equalsIgnoreCase(qName) && "bodyContent".equalsIgnoreCase(attributes.getValue("id")) && count == 0) {
-				// Beginning of bodyContent div element.
-				count = 1;
-			} else if (count > 0 && "a".equalsIgnoreCase(qName)) {
-				// Anchor tag inside bodyContent div element.
-				count++;
-				String link = attributes.getValue("href");
-				if (link == null) {
-					return;
-				}
-				try {
-					// Decode escaped characters in URL.
-					link = URLDecoder.decode(link, "UTF-8");
-				} catch (Exception e) {
-					// Wiki-weirdness; use link as is.
-				}
-				// Keep only html filenames ending relative paths and not containing tilde (~).
-				Matcher matcher = linkPattern.matcher(link);
-				if (matcher.find()) {
-					linkPageNames.add(matcher.group(1));
-				}
-			} else if (count > 0) {
-				// Other element inside bodyContent div.
-				count++;
-			}
+	// Mapper to initialize page rank values for all binary Vertex records
+	public static class BinaryInitialPgMapper extends Mapper<Text, Vertex, Text, Vertex>{
+		double initialPg;
+		
+		protected void setup(Context context) throws IOException,InterruptedException  {
+			Configuration conf = context.getConfiguration();
+			initialPg =conf.getDouble("Pages", 0.0);
 		}
-
-		@Override
-		public void endElement(String uri, String localName, String qName) throws SAXException {
-			super.endElement(uri, localName, qName);
-			if (count > 0) {
-				// End of element inside bodyContent div.
-				count--;
-			}
+		
+		public void map(Text key, Vertex value, Context context) throws IOException, InterruptedException {
+			value.setRank(1.0/initialPg);
+			context.write(key, value);
 		}
 	}
-	
 }
@@ -0,0 +1,372 @@
+package com.homework3.pagerank;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Reducer;
+
+/**
+ * Block-partitioned iterations over the ID graph. Pages are grouped into blocks of consecutive
+ * IDs, which Renumber hands out in name order within every Graph partition. Each block goes to
+ * one reducer together with the contributions crossing into it from other blocks, only those are
+ * shuffled. The reducer then runs Gauss-Seidel sweeps over the block's internal edges until the
+ * block settles, so a single map-reduce round propagates rank along many links inside a block.
+ * The contributions from other blocks and their dangling mass stay at the values of the previous
+ * round, so the ranks reach the same fixed point as the other modes.
+ */
+public class Blocked {
+
+	// Number of consecutive page IDs in a block
+	public static final String SIZE = "pagerank.blocked.size";
+	// Most Gauss-Seidel sweeps of a block per round
+	public static final String SWEEPS = "pagerank.blocked.sweeps";
+	// A block stops sweeping once the L1 change of a sweep drops below this value
+	public static final String TOLERANCE = "pagerank.blocked.tolerance";
+	// Factor the mappers apply to the ranks of the previous round, set by the driver
+	public static final String SCALE = "pagerank.blocked.scale";
+
+	public enum SweepCounter {
+		Blocks, Sweeps, Mass
+	}
+
+	// Sum of all ranks written by a finished round. Sweeping a block mixes ranks of this round with
+	// contributions of the previous one, so the sum drifts from one and would only decay by 1 - alpha
+	// per round, the next round scales it back instead.
+	public static double mass(Counters counters) {
+		return counters.findCounter(SweepCounter.Mass).getValue() / RankChange.SCALE;
+	}
+
+	// Value of a blocked round: a page of the block with its ID and structure, or a contribution
+	// to a page of the block. On the wire contributions carry -(ID + 1).
+	public static class BlockValue implements Writable {
+		private int id;
+		private boolean page;
+		private IdVertex vertex = new IdVertex();
+		private double contribution;
+
+		public BlockValue setPage(int id, IdVertex v) {
+			this.id = id;
+			page = true;
+			vertex.set(v);
+			return this;
+		}
+
+		public BlockValue setContribution(int target, double c) {
+			id = target;
+			page = false;
+			contribution = c;
+			return this;
+		}
+
+		public boolean isPage() {
+			return page;
+		}
+
+		// ID of the page, or of the page the contribution goes to
+		public int getId() {
+			return id;
+		}
+
+		public IdVertex getVertex() {
+			return vertex;
+		}
+
+		public double getContribution() {
+			return contribution;
+		}
+
+		@Override
+		public void write(DataOutput out) throws IOException {
+			WritableUtils.writeVInt(out, page ? id : -id - 1);
+			if (page) {
+				vertex.write(out);
+			}
+			else {
+				out.writeDouble(contribution);
+			}
+		}
+
+		@Override
+		public void readFields(DataInput in) throws IOException {
+			id = WritableUtils.readVInt(in);
+			page = id >= 0;
+			if (page) {
+				vertex.readFields(in);
+			}
+			else {
+				id = -id - 1;
+				contribution = in.readDouble();
+			}
+		}
+	}
+
+	// Mapper that sends every page to its block and shuffles only the contributions leaving the block
+	public static class BlockMapper extends Mapper<IntWritable, IdVertex, IntWritable, BlockValue> {
+		private IntWritable block = new IntWritable();
+		private BlockValue value = new BlockValue();
+		// Contributions summed per target page when in-mapper combining is on
+		private ContributionBuffer buffer;
+		private DanglingMass dangling = new DanglingMass();
+		private int size;
+		private double scale;
+
+		protected void setup(Context context) throws IOException,InterruptedException  {
+			Configuration conf = context.getConfiguration();
+			size = conf.getInt(SIZE, 4096);
+			scale = conf.getDouble(SCALE, 1.0);
+			if (conf.getBoolean("pagerank.inmapper", false)) {
+				buffer = new ContributionBuffer(conf.getInt("pagerank.inmapper.capacity", 100000));
+			}
+		}
+
+		public void map(IntWritable key, IdVertex vertex, Context context) throws IOException, InterruptedException {
+			int own = key.get() / size;
+			double rank = vertex.getRank() * scale;
+			block.set(own);
+			value.setPage(key.get(), vertex).getVertex().setRank(rank);
+			context.write(block, value);
+
+			int count = vertex.getDegree();
+			if (count > 0) {
+				double c = rank/(double) count;
+				IdVertex.Neighbours neighbours = vertex.neighbours();
+				while (neighbours.hasNext()) {
+					int target = neighbours.next();
+					if (target / size == own) {
+						// Edges inside the block are swept by the reducer
+						continue;
+					}
+					if (buffer != null) {
+						if (buffer.add(target, c)) {
+							flush(context);
+						}
+						continue;
+					}
+					block.set(target / size);
+					context.write(block, value.setContribution(target, c));
+				}
+			}
+			else {
+				dangling.add(rank);
+			}
+		}
+
+		protected void cleanup(Context context) throws IOException, InterruptedException {
+			if (buffer != null) {
+				flush(context);
+			}
+			dangling.emitId(context, value.setContribution(0, dangling.get()));
+		}
+
+		// Emit one summed contribution per buffered target page
+		private void flush(Context context) throws IOException, InterruptedException {
+			for (int i = 0; i < buffer.slots(); i++) {
+				if (buffer.keyAt(i) >= 0) {
+					block.set(buffer.keyAt(i) / size);
+					context.write(block, value.setContribution(buffer.keyAt(i), buffer.sumAt(i)));
+				}
+			}
+			buffer.clear();
+		}
+	}
+
+	// Combiner that sums the contributions to every page of a block and passes the pages through
+	public static class BlockCombiner extends Reducer<IntWritable, BlockValue, IntWritable, BlockValue> {
+		private BlockValue contribution = new BlockValue();
+		private ContributionBuffer sums;
+
+		protected void setup(Context context) throws IOException,InterruptedException  {
+			// A block never holds more pages than this, so the buffer never needs an early flush
+			sums = new ContributionBuffer(context.getConfiguration().getInt(SIZE, 4096));
+		}
+
+		public void reduce(IntWritable key, Iterable<BlockValue> values, Context context) throws IOException, InterruptedException {
+			double marker = 0.0;
+			for (BlockValue value : values) {
+				if (value.isPage()) {
+					context.write(key, value);
+				}
+				else if (DanglingMass.isMarker(key)) {
+					marker += value.getContribution();
+				}
+				else {
+					sums.add(value.getId(), value.getContribution());
+				}
+			}
+			if (DanglingMass.isMarker(key)) {
+				context.write(key, contribution.setContribution(0, marker));
+				return;
+			}
+			for (int i = 0; i < sums.slots(); i++) {
+				if (sums.keyAt(i) >= 0) {
+					context.write(key, contribution.setContribution(sums.keyAt(i), sums.sumAt(i)));
+				}
+			}
+			sums.clear();
+		}
+	}
+
+	// Reducer that sweeps a block until it settles and writes its pages for the next round
+	public static class BlockReducer extends Reducer<IntWritable, BlockValue, IntWritable, IdVertex> {
+		private RankChange change = new RankChange();
+		private IntWritable id = new IntWritable();
+		private int size;
+		private int maxSweeps;
+		private double tolerance;
+		private double alpha;
+		private double numPages;
+		// Dangling mass of this round, received before the first block
+		private double dangling;
+		// Sum of the ranks written by this reducer
+		private double mass;
+		// Pages of the block by their offset from the first ID of the block
+		private IdVertex[] vertices;
+		private boolean[] present;
+		private double[] rank;
+		private double[] previous;
+		private double[] boundary;
+		// In-links from inside the block of offset v are inSources[inOffsets[v]] .. inSources[inOffsets[v + 1] - 1]
+		private int[] inOffsets;
+		private int[] inSources = new int[16];
+		private int[] fill;
+
+		protected void setup(Context context) throws IOException,InterruptedException  {
+			Configuration conf = context.getConfiguration();
+			size = conf.getInt(SIZE, 4096);
+			maxSweeps = conf.getInt(SWEEPS, 10);
+			tolerance = conf.getDouble(TOLERANCE, 1e-9);
+			alpha = conf.getDouble("alpha",0.0);
+			numPages = conf.getDouble("Pages", 0.0);
+			vertices = new IdVertex[size];
+			present = new boolean[size];
+			rank = new double[size];
+			previous = new double[size];
+			boundary = new double[size];
+			inOffsets = new int[size + 1];
+			fill = new int[size];
+		}
+
+		public void reduce(IntWritable key, Iterable<BlockValue> values, Context context) throws IOException, InterruptedException {
+			if (DanglingMass.isMarker(key)) {
+				for (BlockValue value : values) {
+					dangling += value.getContribution();
+				}
+				return;
+			}
+			int first = key.get() * size;
+			Arrays.fill(present, false);
+			Arrays.fill(boundary, 0.0);
+			for (BlockValue value : values) {
+				int v = value.getId() - first;
+				if (value.isPage()) {
+					// Values are reused by the framework, keep a copy of the structure
+					if (vertices[v] == null) {
+						vertices[v] = new IdVertex();
+					}
+					vertices[v].set(value.getVertex());
+					present[v] = true;
+					rank[v] = value.getVertex().getRank();
+					previous[v] = rank[v];
+				}
+				else {
+					boundary[v] += value.getContribution();
+				}
+			}
+			buildInLinks(first);
+
+			// The share of the dangling mass from this block's own pages follows the sweeps
+			double own = 0.0;
+			for (int v = 0; v < size; v++) {
+				if (present[v] && vertices[v].getDegree() == 0) {
+					own += rank[v];
+				}
+			}
+			double others = dangling - own;
+			int sweeps = 0;
+			while (sweeps < maxSweeps) {
+				sweeps++;
+				double l1 = 0.0;
+				for (int v = 0; v < size; v++) {
+					if (!present[v]) {
+						continue;
+					}
+					double S = boundary[v];
+					for (int e = inOffsets[v]; e < inOffsets[v + 1]; e++) {
+						int u = inSources[e];
+						S += rank[u] / vertices[u].getDegree();
+					}
+					double newPagerank = (alpha/numPages) + ((1-alpha)*(S + (others + own)/numPages));
+					l1 += Math.abs(newPagerank - rank[v]);
+					if (vertices[v].getDegree() == 0) {
+						own += newPagerank - rank[v];
+					}
+					rank[v] = newPagerank;
+				}
+				if (l1 < tolerance) {
+					break;
+				}
+			}
+			context.getCounter(SweepCounter.Blocks).increment(1);
+			context.getCounter(SweepCounter.Sweeps).increment(sweeps);
+
+			for (int v = 0; v < size; v++) {
+				if (present[v]) {
+					change.add(previous[v], rank[v]);
+					mass += rank[v];
+					vertices[v].setRank(rank[v]);
+					id.set(first + v);
+					context.write(id, vertices[v]);
+				}
+			}
+		}
+
+		protected void cleanup(Context context) throws IOException, InterruptedException {
+			change.report(context);
+			context.getCounter(SweepCounter.Mass).increment(Math.round(mass * RankChange.SCALE));
+		}
+
+		// Transpose the edges between pages of the block into in-link rows
+		private void buildInLinks(int first) {
+			Arrays.fill(inOffsets, 0);
+			for (int u = 0; u < size; u++) {
+				if (!present[u]) {
+					continue;
+				}
+				IdVertex.Neighbours neighbours = vertices[u].neighbours();
+				while (neighbours.hasNext()) {
+					int v = neighbours.next() - first;
+					if (v >= 0 && v < size) {
+						inOffsets[v + 1]++;
+					}
+				}
+			}
+			for (int v = 0; v < size; v++) {
+				inOffsets[v + 1] += inOffsets[v];
+			}
+			if (inSources.length < inOffsets[size]) {
+				inSources = new int[Math.max(inOffsets[size], inSources.length * 2)];
+			}
+			System.arraycopy(inOffsets, 0, fill, 0, size);
+			for (int u = 0; u < size; u++) {
+				if (!present[u]) {
+					continue;
+				}
+				IdVertex.Neighbours neighbours = vertices[u].neighbours();
+				while (neighbours.hasNext()) {
+					int v = neighbours.next() - first;
+					if (v >= 0 && v < size) {
+						inSources[fill[v]++] = u;
+					}
+				}
+			}
+		}
+	}
+}
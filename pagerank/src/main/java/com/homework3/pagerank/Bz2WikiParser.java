@@ -4,40 +4,34 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.StringReader;
-import java.net.URLDecoder;
-import java.util.LinkedList;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import javax.xml.parsers.SAXParser;
-import javax.xml.parsers.SAXParserFactory;
-
 import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
-import org.xml.sax.Attributes;
-import org.xml.sax.InputSource;
-import org.xml.sax.SAXException;
-import org.xml.sax.XMLReader;
-import org.xml.sax.helpers.DefaultHandler;
 
 /** Decompresses bz2 file and parses Wikipages on each line. */
 public class Bz2WikiParser {
 	private static Pattern namePattern;
-	private static Pattern linkPattern;
 	static {
 		// Keep only html pages not containing tilde (~).
 		namePattern = Pattern.compile("^([^~]+)$");
-		// Keep only html filenames ending relative paths and not containing tilde (~).
-		linkPattern = Pattern.compile("^\\..*/([^~]+)\\.html$");
 	}
 
+	// Link extractor of each parsing thread
+	private static final ThreadLocal<LinkExtractor> EXTRACTORS = ThreadLocal.withInitial(() -> new LinkExtractor(false));
+
+	// Arguments: the bz2 file, then optionally the number of decompress and parse threads
 	public static void main(String[] args) {
-		if (args.length != 1) {
+		if (args.length != 1 && args.length != 2) {
 			System.out.println("Input bz2 file required on command line.");
 			System.exit(1);
 		}
+		int threads = args.length == 2 ? Integer.parseInt(args[1]) : 1;
 
 		BufferedReader reader = null;
 		try {
@@ -47,42 +41,41 @@ public class Bz2WikiParser {
 				System.exit(1);
 			}
 
-			// Configure parser.
-			SAXParserFactory spf = SAXParserFactory.newInstance();
-			spf.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
-			SAXParser saxParser = spf.newSAXParser();
-			XMLReader xmlReader = saxParser.getXMLReader();
-			// Parser fills this list with linked page names.
-			List<String> linkPageNames = new LinkedList<>();
-			xmlReader.setContentHandler(new WikiParser(linkPageNames));
-
-			BZip2CompressorInputStream inputStream = new BZip2CompressorInputStream(new FileInputStream(inputFile));
+			// With more than one thread decompress blocks and parse pages in parallel, results stay in file order
+			InputStream inputStream = threads > 1
+					? new ParallelBZip2InputStream(new FileInputStream(inputFile), threads)
+					: new BZip2CompressorInputStream(new FileInputStream(inputFile));
 			reader = new BufferedReader(new InputStreamReader(inputStream));
 			String line;
-			while ((line = reader.readLine()) != null) {
-				// Each line formatted as (Wiki-page-name:Wiki-page-html).
-				int delimLoc = line.indexOf(':');
-				String pageName = line.substring(0, delimLoc);
-				String html = line.substring(delimLoc + 1);
-				Matcher matcher = namePattern.matcher(pageName);
-				if (!matcher.find()) {
-					// Skip this html file, name contains (~).
-					continue;
-				}
-
-				// Parse page and fill list of linked pages.
-				linkPageNames.clear();
-				try {
-					xmlReader.parse(new InputSource(new StringReader(html)));
-				} catch (Exception e) {
-					// Discard ill-formatted pages.
-					continue;
+			try (OrderedPipeline<String> pipeline = new OrderedPipeline<String>(threads, threads * 64, page -> {
+				// Occasionally print the page and its links.
+				if (page != null && Math.random() < .01f) {
+					System.out.println(page);
 				}
+			})) {
+				while ((line = reader.readLine()) != null) {
+					// Each line formatted as (Wiki-page-name:Wiki-page-html).
+					int delimLoc = line.indexOf(':');
+					String pageName = line.substring(0, delimLoc);
+					String html = line.substring(delimLoc + 1);
+					Matcher matcher = namePattern.matcher(pageName);
+					if (!matcher.find()) {
+						// Skip this html file, name contains (~).
+						continue;
+					}
 
-				// Occasionally print the page and its links.
-				if (Math.random() < .01f) {
-					System.out.println(pageName + " - " + linkPageNames);
+					// Parse page and fill list of linked pages.
+					pipeline.submit(() -> {
+						List<String> linkPageNames = new ArrayList<String>();
+						byte[] bytes = html.getBytes(StandardCharsets.UTF_8);
+						if (!EXTRACTORS.get().extract(bytes, 0, bytes.length, linkPageNames)) {
+							// Discard ill-formatted pages.
+							return null;
+						}
+						return pageName + " - " + linkPageNames;
+					});
 				}
+				pipeline.finish();
 			}
 		} catch (Exception e) {
 			e.printStackTrace();
@@ -90,56 +83,4 @@ public class Bz2WikiParser {
 			try { reader.close(); } catch (IOException e) {}
 		}
 	}
-
-	/** Parses a Wikipage, finding links inside bodyContent div element. */
-	private static class WikiParser extends DefaultHandler {
-		/** List of linked pages; filled by parser. */
-		private List<String> linkPageNames;
-		/** Nesting depth inside bodyContent div element. */
-		private int count = 0;
-
-		public WikiParser(List<String> linkPageNames) {
-			super();
-			this.linkPageNames = linkPageNames;
-		}
-
-		@Override
-		public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException {
-			super.startElement(uri, localName, qName, attributes);
-			if ("div".equalsIgnoreCase(qName) && "bodyContent".equalsIgnoreCase(attributes.getValue("id")) && count == 0) {
-				// Beginning of bodyContent div element.
-				count = 1;
-			} else if (count > 0 && "a".equalsIgnoreCase(qName)) {
-				// Anchor tag inside bodyContent div element.
-				count++;
-				String link = attributes.getValue("href");
-				if (link == null) {
-					return;
-				}
-				try {
-					// Decode escaped characters in URL.
-					link = URLDecoder.decode(link, "UTF-8");
-				} catch (Exception e) {
-					// Wiki-weirdness; use link as is.
-				}
-				// Keep only html filenames ending relative paths and not containing tilde (~).
-				Matcher matcher = linkPattern.matcher(link);
-				if (matcher.find()) {
-					linkPageNames.add(matcher.group(1));
-				}
-			} else if (count > 0) {
-				// Other element inside bodyContent div.
-				count++;
-			}
-		}
-
-		@Override
-		public void endElement(String uri, String localName, String qName) throws SAXException {
-			super.endElement(uri, localName, qName);
-			if (count > 0) {
-				// End of element inside bodyContent div.
-				count--;
-			}
-		}
-	}
 }
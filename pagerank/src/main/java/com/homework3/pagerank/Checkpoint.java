@@ -0,0 +1,242 @@
+package com.homework3.pagerank;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+/**
+ * Progress of a driver run, kept in the _manifest file of the output directory. The driver
+ * saves it after every completed stage: the page counts of preprocessing, the graph the
+ * iterations start from and, after every iteration, its output, L1 change and the rank mass a
+ * blocked round carries into the next. A run with pagerank.resume picks up after the last
+ * saved stage and deletes the outputs of later stages, which may be incomplete.
+ */
+public class Checkpoint {
+	// Resume from the manifest of the output directory if there is one
+	public static final String RESUME = "pagerank.resume";
+	// Number of iteration outputs to keep, older ones are deleted, 0 keeps all
+	public static final String KEEP = "pagerank.keep";
+	// Delete all intermediate outputs once the run is complete
+	public static final String CLEANUP = "pagerank.cleanup";
+	public static final String MANIFEST = "_manifest";
+
+	// Completed stages in pipeline order
+	public enum Stage {
+		NONE, PREPROCESS, INITIAL, ITERATION, FINAL
+	}
+
+	private final FileSystem fs;
+	private final Path dir;
+	private final Properties properties = new Properties();
+
+	private Checkpoint(Configuration conf, Path dir) throws IOException {
+		this.dir = dir;
+		fs = dir.getFileSystem(conf);
+	}
+
+	/**
+	 * Checkpoint of the run writing to dir, loaded from its manifest when resuming. Fails if the
+	 * manifest was written by a run in another mode, its outputs cannot be reused.
+	 */
+	public static Checkpoint open(Configuration conf, Path dir, String mode) throws IOException {
+		Checkpoint checkpoint = new Checkpoint(conf, dir);
+		if (conf.getBoolean(RESUME, false)) {
+			Path manifest = checkpoint.latest();
+			if (manifest != null) {
+				try (InputStream in = checkpoint.fs.open(manifest)) {
+					checkpoint.properties.load(in);
+				}
+				String saved = checkpoint.properties.getProperty("mode");
+				if (!mode.equals(saved)) {
+					throw new IOException("Cannot resume a " + saved + " run in " + dir + " in " + mode + " mode");
+				}
+			}
+			// Without a manifest not even preprocessing completed
+			checkpoint.clearAfter();
+		}
+		checkpoint.properties.setProperty("mode", mode);
+		return checkpoint;
+	}
+
+	public Stage stage() {
+		return Stage.valueOf(properties.getProperty("stage", Stage.NONE.name()));
+	}
+
+	public long pages() {
+		return Long.parseLong(properties.getProperty("pages"));
+	}
+
+	// Pages in every Graph partition
+	public long[] partitionPages() {
+		String[] counts = properties.getProperty("partition.pages").split(",");
+		long[] pages = new long[counts.length];
+		for (int p = 0; p < counts.length; p++) {
+			pages[p] = Long.parseLong(counts[p]);
+		}
+		return pages;
+	}
+
+	public String initial() {
+		return properties.getProperty("initial");
+	}
+
+	// Locality assignment of the iterations, null if there is none
+	public String assignment() {
+		return properties.getProperty("assignment");
+	}
+
+	public int iteration() {
+		return Integer.parseInt(properties.getProperty("iteration", "0"));
+	}
+
+	public String output() {
+		return properties.getProperty("output");
+	}
+
+	public double l1() {
+		return Double.parseDouble(properties.getProperty("l1"));
+	}
+
+	public double mass() {
+		return Double.parseDouble(properties.getProperty("mass", "1.0"));
+	}
+
+	// Other state a mode carries from one iteration to the next, saved with the next stage
+	public void put(String key, String value) {
+		properties.setProperty("state." + key, value);
+	}
+
+	public String get(String key) {
+		return properties.getProperty("state." + key);
+	}
+
+	public void preprocessed(long pages, long[] partitionPages) throws IOException {
+		StringBuilder counts = new StringBuilder();
+		for (int p = 0; p < partitionPages.length; p++) {
+			counts.append(p == 0 ? "" : ",").append(partitionPages[p]);
+		}
+		properties.setProperty("pages", Long.toString(pages));
+		properties.setProperty("partition.pages", counts.toString());
+		save(Stage.PREPROCESS);
+	}
+
+	public void initialized(String initial, String assignment) throws IOException {
+		properties.setProperty("initial", initial);
+		if (assignment != null) {
+			properties.setProperty("assignment", assignment);
+		}
+		save(Stage.INITIAL);
+	}
+
+	public void iterated(int i, String output, double l1, double mass) throws IOException {
+		properties.setProperty("iteration", Integer.toString(i));
+		properties.setProperty("output", output);
+		properties.setProperty("l1", Double.toString(l1));
+		properties.setProperty("mass", Double.toString(mass));
+		save(Stage.ITERATION);
+	}
+
+	public void finished(String output) throws IOException {
+		properties.setProperty("output", output);
+		save(Stage.FINAL);
+	}
+
+	// Write the new manifest to _manifest.tmp, then move the old one to _manifest.prev and the new one in its
+	// place, renames do not replace files everywhere. A stop in between leaves one that latest() finds
+	private void save(Stage stage) throws IOException {
+		properties.setProperty("stage", stage.name());
+		Path manifest = new Path(dir, MANIFEST);
+		Path tmp = new Path(dir, MANIFEST + ".tmp");
+		Path prev = new Path(dir, MANIFEST + ".prev");
+		try (OutputStream out = fs.create(tmp, true)) {
+			properties.store(out, "PageRankDriver progress");
+		}
+		fs.delete(prev, false);
+		if (fs.exists(manifest) && !fs.rename(manifest, prev)) {
+			throw new IOException("Cannot move " + manifest + " to " + prev);
+		}
+		if (!fs.rename(tmp, manifest)) {
+			throw new IOException("Cannot move " + tmp + " to " + manifest);
+		}
+	}
+
+	// Most recent complete manifest, null if no stage was saved
+	private Path latest() throws IOException {
+		Path manifest = new Path(dir, MANIFEST);
+		if (fs.exists(manifest)) {
+			return manifest;
+		}
+		Path prev = new Path(dir, MANIFEST + ".prev");
+		if (!fs.exists(prev)) {
+			// A _manifest.tmp may be cut short by the first save
+			return null;
+		}
+		// The old manifest was moved aside after the new one was written in full
+		Path tmp = new Path(dir, MANIFEST + ".tmp");
+		return fs.exists(tmp) ? tmp : prev;
+	}
+
+	// Delete whatever the stages after the checkpoint wrote before the run stopped
+	private void clearAfter() throws IOException {
+		Stage stage = stage();
+		if (stage == Stage.FINAL) {
+			return;
+		}
+		if (stage.compareTo(Stage.INITIAL) < 0) {
+			for (String name : new String[] { "Locality", "Renumber", "InitialGraph", "WarmStart", "WarmGraph" }) {
+				fs.delete(new Path(dir, name), true);
+			}
+		}
+		if (stage == Stage.NONE) {
+			fs.delete(new Path(dir, "Graph"), true);
+		}
+		int last = stage == Stage.ITERATION ? iteration() : 0;
+		Path output = new Path(dir, "Output" + last);
+		Path result = new Path(dir, "OutputFinal");
+		if (last > 0 && !fs.exists(output) && fs.exists(result)) {
+			// The text pipeline stopped between renaming the last iteration and saving the manifest
+			fs.rename(result, output);
+		}
+		for (FileStatus status : list("Output*")) {
+			String name = status.getPath().getName();
+			if (name.equals("OutputFinal") || Integer.parseInt(name.substring("Output".length())) > last) {
+				fs.delete(status.getPath(), true);
+			}
+		}
+	}
+
+	// Delete the iteration outputs before the last keep ones after iteration i completed
+	public void prune(int i, int keep) throws IOException {
+		if (keep <= 0) {
+			return;
+		}
+		for (FileStatus status : list("Output*")) {
+			String name = status.getPath().getName();
+			if (!name.equals("OutputFinal") && Integer.parseInt(name.substring("Output".length())) <= i - keep) {
+				fs.delete(status.getPath(), true);
+			}
+		}
+	}
+
+	// Delete every intermediate output of a complete run, the result, top K and metrics stay
+	public void cleanup() throws IOException {
+		for (String name : new String[] { "Graph", "Seeds", "Locality", "Renumber", "InitialGraph", "WarmStart", "WarmGraph" }) {
+			fs.delete(new Path(dir, name), true);
+		}
+		prune(Integer.MAX_VALUE, 1);
+		for (String name : new String[] { MANIFEST, MANIFEST + ".prev", MANIFEST + ".tmp" }) {
+			fs.delete(new Path(dir, name), false);
+		}
+	}
+
+	private FileStatus[] list(String pattern) throws IOException {
+		FileStatus[] files = fs.globStatus(new Path(dir, pattern));
+		return files == null ? new FileStatus[0] : files;
+	}
+}
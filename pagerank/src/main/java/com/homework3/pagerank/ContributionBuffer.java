@@ -0,0 +1,62 @@
+package com.homework3.pagerank;
+
+import java.util.Arrays;
+
+/**
+ * Bounded open-addressing map from page ID to the sum of its rank contributions, used by the
+ * mappers for in-mapper combining. Page IDs are never negative, so -1 marks a free slot.
+ */
+public class ContributionBuffer {
+	private final int capacity;
+	private final int mask;
+	private final int[] keys;
+	private final double[] sums;
+	private int size;
+
+	public ContributionBuffer(int capacity) {
+		this.capacity = capacity;
+		// Keep the table at most half full
+		int slots = Integer.highestOneBit(Math.max(capacity, 1) * 2 - 1) << 1;
+		mask = slots - 1;
+		keys = new int[slots];
+		sums = new double[slots];
+		Arrays.fill(keys, -1);
+	}
+
+	// Add a contribution, returns true once the buffer is full and should be flushed
+	public boolean add(int id, double contribution) {
+		int slot = (id * 0x9E3779B9) >>> 1 & mask;
+		while (keys[slot] >= 0 && keys[slot] != id) {
+			slot = (slot + 1) & mask;
+		}
+		if (keys[slot] < 0) {
+			keys[slot] = id;
+			sums[slot] = 0.0;
+			size++;
+		}
+		sums[slot] += contribution;
+		return size >= capacity;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	// Number of slots to walk when flushing, free ones have keyAt(i) < 0
+	public int slots() {
+		return keys.length;
+	}
+
+	public int keyAt(int slot) {
+		return keys[slot];
+	}
+
+	public double sumAt(int slot) {
+		return sums[slot];
+	}
+
+	public void clear() {
+		Arrays.fill(keys, -1);
+		size = 0;
+	}
+}
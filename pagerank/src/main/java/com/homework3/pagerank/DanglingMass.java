@@ -0,0 +1,94 @@
+package com.homework3.pagerank;
+
+import java.io.IOException;
+
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Partitioner;
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
+import org.apache.hadoop.mapreduce.lib.partition.HashPartitioner;
+
+import com.homework3.pagerank.PageRankDriver.DeltaCounter;
+
+/**
+ * Order inversion for the dangling mass. Each mapper sums the rank of the pages without
+ * out-links it sees and sends the sum to every reducer under a marker key that sorts before
+ * all pages of that reducer's partition. A reducer therefore knows the total dangling mass of
+ * the iteration before its first page and writes fully corrected ranks, so no separate pass is
+ * needed to distribute delta after the last iteration.
+ */
+public class DanglingMass {
+	private double mass;
+
+	// Add the rank of a page without out-links
+	public void add(double rank) {
+		mass += rank;
+	}
+
+	// Send the mass of this mapper to every reducer, call from cleanup()
+	public <V> void emitText(TaskInputOutputContext<?, ?, Text, V> context, V value) throws IOException, InterruptedException {
+		for (int p = 0; p < context.getNumReduceTasks(); p++) {
+			context.write(textKey(p), value);
+		}
+		report(context);
+	}
+
+	// Send the mass of this mapper to every reducer of an ID graph job, call from cleanup()
+	public <V> void emitId(TaskInputOutputContext<?, ?, IntWritable, V> context, V value) throws IOException, InterruptedException {
+		for (int p = 0; p < context.getNumReduceTasks(); p++) {
+			context.write(new IntWritable(-p - 1), value);
+		}
+		report(context);
+	}
+
+	public double get() {
+		return mass;
+	}
+
+	private void report(TaskInputOutputContext<?, ?, ?, ?> context) {
+		context.getCounter(DeltaCounter.Counter).increment((long) (Math.pow(10, 10) * mass));
+	}
+
+	// Marker key for a partition, a NUL byte sorts before every page name
+	public static Text textKey(int partition) {
+		return new Text("\u0000" + partition);
+	}
+
+	public static boolean isMarker(Text key) {
+		return key.getLength() > 0 && key.getBytes()[0] == 0;
+	}
+
+	public static boolean isMarker(IntWritable key) {
+		return key.get() < 0;
+	}
+
+	// Sends marker keys to the partition they name and pages to their hash partition
+	public static class TextPartitioner<V> extends Partitioner<Text, V> {
+		private HashPartitioner<Text, V> pages = new HashPartitioner<Text, V>();
+
+		@Override
+		public int getPartition(Text key, V value, int numPartitions) {
+			if (isMarker(key)) {
+				int partition = 0;
+				for (int i = 1; i < key.getLength(); i++) {
+					partition = partition * 10 + (key.getBytes()[i] - '0');
+				}
+				return partition;
+			}
+			return pages.getPartition(key, value, numPartitions);
+		}
+	}
+
+	// Sends negative marker keys to the partition they name and pages to their hash partition
+	public static class IdPartitioner<V> extends Partitioner<IntWritable, V> {
+		private HashPartitioner<IntWritable, V> pages = new HashPartitioner<IntWritable, V>();
+
+		@Override
+		public int getPartition(IntWritable key, V value, int numPartitions) {
+			if (isMarker(key)) {
+				return -key.get() - 1;
+			}
+			return pages.getPartition(key, value, numPartitions);
+		}
+	}
+}
@@ -0,0 +1,149 @@
+package com.homework3.pagerank;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
+
+/**
+ * Quadratic extrapolation of the ID iterations (Kamvar et al., "Extrapolation Methods for
+ * Accelerating PageRank Computations"). Every pagerank.extrapolation iterations the rank
+ * vector is assumed to be a combination of the page rank and the next two eigenvectors, so
+ * the last four iterates x(k-3) .. x(k) fix a polynomial that removes both. Its coefficients
+ * come from a least-squares fit over all pages: the reducers of iteration k sum the products of
+ * the rank differences of their pages into a side output and the driver solves the 2x2 normal
+ * equations. The mappers of iteration k + 1 then start from the normalized combination of
+ * x(k-2), x(k-1) and x(k) instead of x(k), so extrapolating costs no extra round. Pages carry
+ * their previous ranks in the IdVertex record only in the iterations leading up to it.
+ */
+public class Extrapolation {
+
+	// Iterations between extrapolations, 0 turns it off
+	public static final String PERIOD = "pagerank.extrapolation";
+	// Set by the driver: the reducers keep the previous rank of every page
+	public static final String HISTORY = "pagerank.extrapolation.history";
+	// Set by the driver: the reducers write the sums of the least-squares fit
+	public static final String SUMS = "pagerank.extrapolation.sums";
+	// Set by the driver: coefficients of x(k-2), x(k-1) and x(k) the mappers apply
+	public static final String COEFFICIENTS = "pagerank.extrapolation.coefficients";
+	// Named output of the sums
+	public static final String OUTPUT = "extrapolation";
+
+	// Configure iteration i of a run extrapolating every period iterations, coefficients from
+	// the previous iteration or null
+	public static void configure(Configuration conf, int i, int period, double[] coefficients) {
+		// The reducers of iterations k - 2, k - 1 and k keep x(k-3), x(k-2) and x(k-1)
+		int phase = i % period;
+		conf.setBoolean(HISTORY, phase == 0 || phase >= period - 2);
+		conf.setBoolean(SUMS, phase == 0 && i >= 3);
+		if (coefficients != null) {
+			conf.set(COEFFICIENTS, coefficients[0] + "," + coefficients[1] + "," + coefficients[2]);
+		}
+		else {
+			conf.unset(COEFFICIENTS);
+		}
+	}
+
+	// Coefficients the mappers apply, null when there are none
+	public static double[] coefficients(Configuration conf) {
+		String[] c = conf.getStrings(COEFFICIENTS);
+		if (c == null) {
+			return null;
+		}
+		return new double[] { Double.parseDouble(c[0]), Double.parseDouble(c[1]), Double.parseDouble(c[2]) };
+	}
+
+	// Extrapolated rank of a page, its own rank unless it kept two previous ones
+	public static double apply(double[] coefficients, IdVertex vertex) {
+		if (vertex.getHistoryLength() < 2) {
+			return vertex.getRank();
+		}
+		return coefficients[0] * vertex.getHistory(1) + coefficients[1] * vertex.getHistory(0) + coefficients[2] * vertex.getRank();
+	}
+
+	// Sums of the least-squares fit over the pages of one reducer, with a = x(k-2) - x(k-3),
+	// b = x(k-1) - x(k-3) and c = x(k) - x(k-3)
+	public static class Sums {
+		private double aa, ab, bb, ac, bc;
+		private long pages;
+
+		// Add a page from its rank of iteration k and the record it had before
+		public void add(double rank, IdVertex previous) {
+			if (previous.getHistoryLength() < 2) {
+				return;
+			}
+			double x3 = previous.getHistory(1);
+			double a = previous.getHistory(0) - x3;
+			double b = previous.getRank() - x3;
+			double c = rank - x3;
+			aa += a * a;
+			ab += a * b;
+			bb += b * b;
+			ac += a * c;
+			bc += b * c;
+			pages++;
+		}
+
+		// Write the sums as one line, call from cleanup()
+		public void write(MultipleOutputs<?, ?> out) throws IOException, InterruptedException {
+			out.write(OUTPUT, NullWritable.get(), new Text(toString()));
+		}
+
+		// The line solve() reads
+		@Override
+		public String toString() {
+			return aa + " " + ab + " " + bb + " " + ac + " " + bc + " " + pages;
+		}
+	}
+
+	// Coefficients from the sums all reducers of an iteration wrote to dir, null if the iteration
+	// wrote none, not every page had its history or the fit is degenerate
+	public static double[] solve(Configuration conf, Path dir, long numPages) throws IOException {
+		FileSystem fs = dir.getFileSystem(conf);
+		FileStatus[] files = fs.globStatus(new Path(dir, OUTPUT + "-*"));
+		if (files == null || files.length == 0) {
+			return null;
+		}
+		double[] sums = new double[5];
+		long pages = 0;
+		for (FileStatus file : files) {
+			try (BufferedReader reader = new BufferedReader(new InputStreamReader(fs.open(file.getPath()), "UTF-8"))) {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					String[] fields = line.trim().split(" ");
+					for (int s = 0; s < 5; s++) {
+						sums[s] += Double.parseDouble(fields[s]);
+					}
+					pages += Long.parseLong(fields[5]);
+				}
+			}
+		}
+		if (pages != numPages) {
+			return null;
+		}
+		// Least-squares gamma1, gamma2 of gamma1 a + gamma2 b = -c with gamma3 = 1
+		double det = sums[0] * sums[2] - sums[1] * sums[1];
+		if (!(Math.abs(det) > 0)) {
+			return null;
+		}
+		double g1 = (sums[1] * sums[4] - sums[2] * sums[3]) / det;
+		double g2 = (sums[1] * sums[3] - sums[0] * sums[4]) / det;
+		double[] beta = { g1 + g2 + 1, g2 + 1, 1 };
+		// Every iterate sums to one, so the combination sums to the sum of its coefficients
+		double total = beta[0] + beta[1] + beta[2];
+		if (!(Math.abs(total) > 1e-12)) {
+			return null;
+		}
+		for (int i = 0; i < 3; i++) {
+			beta[i] /= total;
+		}
+		return beta;
+	}
+}
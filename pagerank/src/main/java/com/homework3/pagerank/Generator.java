@@ -0,0 +1,244 @@
+package com.homework3.pagerank;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.BZip2Codec;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.NLineInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+/**
+ * Synthetic web graphs with the power-law degrees of real link graphs, generated with R-MAT:
+ * every edge picks one quadrant of the adjacency matrix per bit of the page IDs, with
+ * probabilities a, b, c and 1 - a - b - c. Page IDs are scrambled afterwards so the high
+ * degree pages are not all small IDs. The graph is written either like the Graph output of
+ * preprocessing ("name<TAB>link~link", dangling pages with an empty list) or as "name:html"
+ * wiki page lines for the whole pipeline, optionally bz2 compressed like the real dump.
+ */
+public class Generator {
+
+	// Log2 of the number of page IDs
+	public static final String SCALE = "pagerank.generator.scale";
+	// Edges per page ID
+	public static final String EDGE_FACTOR = "pagerank.generator.edgefactor";
+	// Quadrant probabilities a,b,c, Graph500 values by default
+	public static final String PROBABILITIES = "pagerank.generator.probabilities";
+	// "graph" or "wiki"
+	public static final String FORMAT = "pagerank.generator.format";
+	// Number of mappers generating edges
+	public static final String MAPS = "pagerank.generator.maps";
+	public static final String SEED = "pagerank.generator.seed";
+	// Write bz2 compressed output
+	public static final String COMPRESS = "pagerank.generator.compress";
+
+	public enum GeneratorCounter {
+		Pages, Edges, Dangling
+	}
+
+	public static void main(String[] args) throws Exception {
+		Configuration conf = new Configuration();
+		String[] otherArgs = new GenericOptionsParser(conf, args).getRemainingArgs();
+		if (otherArgs.length != 1) {
+			System.err.println("Usage: generator <out>");
+			System.exit(2);
+		}
+		System.exit(generate(conf, new Path(otherArgs[0])) != null ? 0 : 1);
+	}
+
+	// Run the generator job into out, returns the finished job or null if it failed
+	public static Job generate(Configuration conf, Path out) throws Exception {
+		int maps = conf.getInt(MAPS, 4);
+		// One line per mapper, each names the slice of edges it generates
+		FileSystem fs = out.getFileSystem(conf);
+		Path slices = new Path(out.getParent() == null ? new Path(".") : out.getParent(), out.getName() + "-slices");
+		try (PrintWriter writer = new PrintWriter(new OutputStreamWriter(fs.create(slices, true), "UTF-8"))) {
+			for (int i = 0; i < maps; i++) {
+				writer.print(i + "\n");
+			}
+		}
+
+		Job job = Job.getInstance(conf, "generator");
+		job.setJarByClass(Generator.class);
+		job.setInputFormatClass(NLineInputFormat.class);
+		NLineInputFormat.setNumLinesPerSplit(job, 1);
+		job.setMapperClass(EdgeMapper.class);
+		job.setCombinerClass(LinkCombiner.class);
+		job.setReducerClass(PageReducer.class);
+		job.setMapOutputKeyClass(IntWritable.class);
+		job.setMapOutputValueClass(IntWritable.class);
+		if ("wiki".equals(conf.get(FORMAT, "graph"))) {
+			job.setOutputKeyClass(NullWritable.class);
+		}
+		else {
+			job.setOutputKeyClass(Text.class);
+		}
+		job.setOutputValueClass(Text.class);
+		if (conf.getBoolean(COMPRESS, false)) {
+			FileOutputFormat.setCompressOutput(job, true);
+			FileOutputFormat.setOutputCompressorClass(job, BZip2Codec.class);
+		}
+		FileInputFormat.addInputPath(job, slices);
+		FileOutputFormat.setOutputPath(job, out);
+		boolean success = job.waitForCompletion(true);
+		fs.delete(slices, false);
+		return success ? job : null;
+	}
+
+	// Name of a page ID
+	static String name(int id) {
+		return "Page" + id;
+	}
+
+	// Mapper that generates its slice of the edges, a target alone is sent with -1 so every linked page exists
+	public static class EdgeMapper extends Mapper<LongWritable, Text, IntWritable, IntWritable> {
+		private IntWritable source = new IntWritable();
+		private IntWritable target = new IntWritable();
+		private IntWritable none = new IntWritable(-1);
+
+		public void map(LongWritable key, Text value, Context context) throws IOException, InterruptedException {
+			Configuration conf = context.getConfiguration();
+			int scale = conf.getInt(SCALE, 16);
+			int maps = conf.getInt(MAPS, 4);
+			int slice = Integer.parseInt(value.toString().trim());
+			long edges = ((long) conf.getInt(EDGE_FACTOR, 16)) << scale;
+			// The first slices take one edge more when the edges do not divide evenly
+			long count = edges / maps + (slice < edges % maps ? 1 : 0);
+			double[] p = probabilities(conf);
+			Random random = new Random(conf.getLong(SEED, 1) * 1000003L + slice);
+			int mask = (1 << scale) - 1;
+			for (long e = 0; e < count; e++) {
+				int u = 0;
+				int v = 0;
+				for (int bit = 0; bit < scale; bit++) {
+					double r = random.nextDouble();
+					if (r < p[0]) {
+						// Top left quadrant, both bits stay 0
+					}
+					else if (r < p[0] + p[1]) {
+						v |= 1 << bit;
+					}
+					else if (r < p[0] + p[1] + p[2]) {
+						u |= 1 << bit;
+					}
+					else {
+						u |= 1 << bit;
+						v |= 1 << bit;
+					}
+				}
+				source.set(scramble(u, scale) & mask);
+				target.set(scramble(v, scale) & mask);
+				context.write(source, target);
+				context.write(target, none);
+			}
+		}
+	}
+
+	// Combiner that keeps one -1 per page, the links pass through
+	public static class LinkCombiner extends Reducer<IntWritable, IntWritable, IntWritable, IntWritable> {
+		public void reduce(IntWritable key, Iterable<IntWritable> values, Context context) throws IOException, InterruptedException {
+			boolean linked = false;
+			for (IntWritable v : values) {
+				if (v.get() >= 0) {
+					context.write(key, v);
+				}
+				else if (!linked) {
+					linked = true;
+					context.write(key, v);
+				}
+			}
+		}
+	}
+
+	// Reducer that writes every page with its distinct out-links, self links dropped
+	public static class PageReducer extends Reducer<IntWritable, IntWritable, Object, Text> {
+		private int[] links = new int[16];
+		private Text name = new Text();
+		private Text value = new Text();
+		private boolean wiki;
+
+		protected void setup(Context context) throws IOException,InterruptedException  {
+			wiki = "wiki".equals(context.getConfiguration().get(FORMAT, "graph"));
+		}
+
+		public void reduce(IntWritable key, Iterable<IntWritable> values, Context context) throws IOException, InterruptedException {
+			int count = 0;
+			for (IntWritable v : values) {
+				if (v.get() < 0 || v.get() == key.get()) {
+					continue;
+				}
+				if (count == links.length) {
+					links = Arrays.copyOf(links, count * 2);
+				}
+				links[count++] = v.get();
+			}
+			Arrays.sort(links, 0, count);
+			int distinct = 0;
+			for (int i = 0; i < count; i++) {
+				if (i == 0 || links[i] != links[i - 1]) {
+					links[distinct++] = links[i];
+				}
+			}
+			context.getCounter(GeneratorCounter.Pages).increment(1);
+			context.getCounter(GeneratorCounter.Edges).increment(distinct);
+			if (distinct == 0) {
+				context.getCounter(GeneratorCounter.Dangling).increment(1);
+			}
+
+			StringBuilder str = new StringBuilder();
+			if (wiki) {
+				// A page like the dump: links inside the bodyContent div, one navigation link outside it
+				str.append(name(key.get())).append(":<html><head></head><body><div id=\"bodyContent\"><p>");
+				for (int i = 0; i < distinct; i++) {
+					str.append("<a href=\"../x/").append(name(links[i])).append(".html\">l</a>");
+				}
+				str.append("</p></div><a href=\"../x/Main_Page.html\">m</a></body></html>");
+				value.set(str.toString());
+				context.write(NullWritable.get(), value);
+				return;
+			}
+			for (int i = 0; i < distinct; i++) {
+				if (i > 0) {
+					str.append('~');
+				}
+				str.append(name(links[i]));
+			}
+			name.set(name(key.get()));
+			value.set(str.toString());
+			context.write(name, value);
+		}
+	}
+
+	private static double[] probabilities(Configuration conf) {
+		String[] abc = conf.getStrings(PROBABILITIES, "0.57", "0.19", "0.19");
+		double[] p = new double[3];
+		for (int i = 0; i < 3; i++) {
+			p[i] = Double.parseDouble(abc[i].trim());
+		}
+		return p;
+	}
+
+	// Bijection on the IDs below 2^scale that spreads neighbouring IDs apart
+	private static int scramble(int id, int scale) {
+		int mask = (1 << scale) - 1;
+		long x = id;
+		x = (x * 0x9E3779B1L + 0x7F4A7C15L) & mask;
+		x ^= x >>> Math.max(1, scale / 2);
+		x = (x * 0x85EBCA6BL) & mask;
+		return (int) x;
+	}
+}
@@ -0,0 +1,205 @@
+package com.homework3.pagerank;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * Binary vertex record keyed by a dense integer page ID: the rank as a double followed by
+ * the number of neighbours and the neighbour list. A negative number marks a bare rank, either
+ * a contribution or a rank-only record of the Schimmy iterations.
+ * The neighbour IDs are kept sorted and encoded as the first ID and the gaps to the next one,
+ * each a base-128 varint, behind their byte length. Records pass the encoded bytes through
+ * without decoding them, and readers walk the list with a Neighbours cursor.
+ * A page record ends with the ranks of its last iterations, most recent first, which
+ * extrapolation keeps for the iterations leading up to it and which are empty otherwise.
+ */
+public class IdVertex implements Writable {
+	private static final byte[] EMPTY = new byte[0];
+	// Most previous ranks a record keeps
+	public static final int HISTORY = 2;
+
+	private double rank;
+	private int size;
+	// Encoded neighbour list, the first length bytes are used
+	private byte[] adj = EMPTY;
+	private int length;
+	private double[] history = new double[HISTORY];
+	private int historyLength;
+	private Neighbours neighbours = new Neighbours();
+	private int[] sorted = new int[0];
+
+	public IdVertex() {
+	}
+
+	public double getRank() {
+		return rank;
+	}
+
+	public void setRank(double r) {
+		rank = r;
+	}
+
+	public boolean isContribution() {
+		return size < 0;
+	}
+
+	public int getDegree() {
+		return Math.max(size, 0);
+	}
+
+	// Cursor over the neighbour IDs in ascending order, reused by every call
+	public Neighbours neighbours() {
+		neighbours.position = 0;
+		neighbours.remaining = getDegree();
+		neighbours.previous = 0;
+		return neighbours;
+	}
+
+	// Turn this record into a bare contribution
+	public IdVertex setContribution(double r) {
+		rank = r;
+		size = -1;
+		length = 0;
+		historyLength = 0;
+		return this;
+	}
+
+	// Number of previous ranks kept
+	public int getHistoryLength() {
+		return historyLength;
+	}
+
+	// Rank i iterations before the previous one, 0 is the rank before the current one
+	public double getHistory(int i) {
+		return history[i];
+	}
+
+	// Keep the current rank as the most recent previous one, dropping the oldest beyond HISTORY
+	public void pushHistory() {
+		System.arraycopy(history, 0, history, 1, HISTORY - 1);
+		history[0] = rank;
+		historyLength = Math.min(historyLength + 1, HISTORY);
+	}
+
+	public void clearHistory() {
+		historyLength = 0;
+	}
+
+	// Take the first n IDs of the given array as the adjacency list, the array is left as it is
+	public void setAdjList(int[] ids, int n) {
+		size = n;
+		length = 0;
+		if (n == 0) {
+			return;
+		}
+		// Sort a copy in the buffer this vertex keeps for it
+		if (sorted.length < n) {
+			sorted = new int[Math.max(n, sorted.length * 2)];
+		}
+		System.arraycopy(ids, 0, sorted, 0, n);
+		Arrays.sort(sorted, 0, n);
+		// At most five bytes per ID
+		ensureCapacity(5 * n);
+		int previous = 0;
+		for (int i = 0; i < n; i++) {
+			length = writeVarint(adj, length, sorted[i] - previous);
+			previous = sorted[i];
+		}
+	}
+
+	// Copy another vertex into this one, reusing the array already held
+	public void set(IdVertex other) {
+		rank = other.rank;
+		size = other.size;
+		length = other.length;
+		ensureCapacity(length);
+		System.arraycopy(other.adj, 0, adj, 0, length);
+		historyLength = other.historyLength;
+		System.arraycopy(other.history, 0, history, 0, historyLength);
+	}
+
+	// Bytes the encoded neighbour list takes
+	public int getEncodedLength() {
+		return length;
+	}
+
+	private void ensureCapacity(int n) {
+		if (adj.length < n) {
+			adj = Arrays.copyOf(adj, Math.max(n, adj.length * 2));
+		}
+	}
+
+	private static int writeVarint(byte[] bytes, int pos, int value) {
+		while ((value & ~0x7f) != 0) {
+			bytes[pos++] = (byte) ((value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		bytes[pos++] = (byte) value;
+		return pos;
+	}
+
+	@Override
+	public void write(DataOutput out) throws IOException {
+		out.writeDouble(rank);
+		WritableUtils.writeVInt(out, size);
+		if (size > 0) {
+			WritableUtils.writeVInt(out, length);
+			out.write(adj, 0, length);
+		}
+		if (size >= 0) {
+			out.writeByte(historyLength);
+			for (int i = 0; i < historyLength; i++) {
+				out.writeDouble(history[i]);
+			}
+		}
+	}
+
+	@Override
+	public void readFields(DataInput in) throws IOException {
+		rank = in.readDouble();
+		size = WritableUtils.readVInt(in);
+		length = 0;
+		historyLength = 0;
+		if (size > 0) {
+			length = WritableUtils.readVInt(in);
+			ensureCapacity(length);
+			in.readFully(adj, 0, length);
+		}
+		if (size >= 0) {
+			historyLength = in.readByte();
+			for (int i = 0; i < historyLength; i++) {
+				history[i] = in.readDouble();
+			}
+		}
+	}
+
+	// Decodes the neighbour IDs one at a time
+	public class Neighbours {
+		private int position;
+		private int remaining;
+		private int previous;
+
+		public boolean hasNext() {
+			return remaining > 0;
+		}
+
+		public int next() {
+			int value = 0;
+			int shift = 0;
+			byte b;
+			do {
+				b = adj[position++];
+				value |= (b & 0x7f) << shift;
+				shift += 7;
+			} while (b < 0);
+			remaining--;
+			previous += value;
+			return previous;
+		}
+	}
+}
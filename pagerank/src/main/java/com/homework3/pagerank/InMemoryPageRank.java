@@ -0,0 +1,347 @@
+package com.homework3.pagerank;
+
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+import com.homework3.pagerank.TopK.Candidates;
+
+/**
+ * Page rank of a graph that fits in memory, computed in a single JVM. The graph is held as
+ * compressed sparse rows of in-links over dense page IDs, and every iteration pulls the
+ * contributions of each page's in-links in parallel over all cores with fork-join. Uses the
+ * same alpha, dangling mass and stopping rule as the map-reduce iterations and writes the
+ * same OutputFinal and top K layout as the ID modes.
+ */
+public class InMemoryPageRank {
+	// Ranges of at most this many pages are computed by a single task
+	private static final int CHUNK = 4096;
+
+	private Configuration conf;
+	private String[] names;
+	// Number of out-links of every page, zero for dangling pages
+	private int[] degree;
+	// In-links of page v are inSources[inOffsets[v]] .. inSources[inOffsets[v + 1] - 1]
+	private int[] inOffsets;
+	private int[] inSources;
+	private double[] rank;
+	// Rank / degree of every page for the iteration being computed, and for the next one
+	private double[] contribution;
+	private double[] next;
+	private double alpha;
+
+	public InMemoryPageRank(Configuration conf) {
+		this.conf = conf;
+		alpha = conf.getDouble("alpha", 0.15);
+	}
+
+	// Standalone entry point, reads a Graph directory or the input.txt written by Parser.makeGraph
+	public static void main(String[] args) throws Exception {
+		Configuration conf = new Configuration();
+		conf.setDouble("alpha", 0.15);
+		String[] otherArgs = new GenericOptionsParser(conf, args).getRemainingArgs();
+		if (otherArgs.length != 2) {
+			System.err.println("Usage: inmemorypagerank <graph> <out>");
+			System.exit(2);
+		}
+		String out = otherArgs[1];
+		new InMemoryPageRank(conf).load(new Path(otherArgs[0])).run(out);
+		TopK.merge(conf, new Path(out+"/OutputFinal/"+Candidates.OUTPUT+"-*"), TopK.output(conf, out));
+	}
+
+	// Load every page and its out-links. Accepts the part files of the text or binary Graph output,
+	// or a single file of "name rank link~link~" lines.
+	public InMemoryPageRank load(Path input) throws IOException {
+		FileSystem fs = input.getFileSystem(conf);
+		Map<String, Integer> ids = new HashMap<String, Integer>();
+		List<String> pages = new ArrayList<String>();
+		// Raw "~" joined adjacency list of every page, resolved to IDs once all pages are known
+		List<String> links = new ArrayList<String>();
+
+		FileStatus[] files = fs.isDirectory(input) ? fs.globStatus(new Path(input, "part-*")) : fs.globStatus(input);
+		for (FileStatus file : files == null ? new FileStatus[0] : files) {
+			if (isSequenceFile(fs, file.getPath())) {
+				try (SequenceFile.Reader reader = new SequenceFile.Reader(conf, SequenceFile.Reader.file(file.getPath()))) {
+					Text key = new Text();
+					Vertex value = new Vertex();
+					while (reader.next(key, value)) {
+						addPage(ids, pages, links, key.toString(), value.adjToString());
+					}
+				}
+				continue;
+			}
+			try (BufferedReader reader = new BufferedReader(new InputStreamReader(fs.open(file.getPath()), "UTF-8"))) {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					int tab = line.indexOf('\t');
+					if (tab >= 0) {
+						// Text Graph output, "name<TAB>links"
+						addPage(ids, pages, links, line.substring(0, tab), line.substring(tab + 1));
+						continue;
+					}
+					String[] tokens = line.trim().split("\\s+");
+					if (tokens[0].isEmpty()) {
+						continue;
+					}
+					addPage(ids, pages, links, tokens[0], tokens.length > 2 ? tokens[2] : "");
+				}
+			}
+		}
+		build(ids, pages, links);
+		return this;
+	}
+
+	// A page may show up more than once, keep its last non-empty adjacency list like BinaryParserReducer
+	private static void addPage(Map<String, Integer> ids, List<String> pages, List<String> links, String name, String adj) {
+		Integer id = ids.get(name);
+		if (id == null) {
+			ids.put(name, pages.size());
+			pages.add(name);
+			links.add(adj);
+		}
+		else if (!adj.isEmpty()) {
+			links.set(id, adj);
+		}
+	}
+
+	private static boolean isSequenceFile(FileSystem fs, Path file) throws IOException {
+		byte[] magic = new byte[3];
+		try (DataInputStream in = fs.open(file)) {
+			in.readFully(magic);
+		}
+		catch (EOFException e) {
+			return false;
+		}
+		return magic[0] == 'S' && magic[1] == 'E' && magic[2] == 'Q';
+	}
+
+	// Resolve the out-links to IDs and transpose them into the in-link rows
+	private void build(Map<String, Integer> ids, List<String> pages, List<String> links) {
+		int n = pages.size();
+		names = pages.toArray(new String[n]);
+		degree = new int[n];
+		int[] outOffsets = new int[n + 1];
+		int[] outTargets = new int[16];
+		int edges = 0;
+		for (int v = 0; v < n; v++) {
+			String adj = links.get(v);
+			if (!adj.isEmpty()) {
+				for (String each : adj.split("~")) {
+					Integer target = ids.get(each);
+					if (each.isEmpty() || target == null) {
+						// Link to a page missing from the graph
+						continue;
+					}
+					if (edges == outTargets.length) {
+						outTargets = Arrays.copyOf(outTargets, edges * 2);
+					}
+					outTargets[edges++] = target;
+				}
+			}
+			outOffsets[v + 1] = edges;
+			degree[v] = edges - outOffsets[v];
+		}
+
+		inOffsets = new int[n + 1];
+		for (int e = 0; e < edges; e++) {
+			inOffsets[outTargets[e] + 1]++;
+		}
+		for (int v = 0; v < n; v++) {
+			inOffsets[v + 1] += inOffsets[v];
+		}
+		inSources = new int[edges];
+		int[] fill = Arrays.copyOf(inOffsets, n);
+		for (int v = 0; v < n; v++) {
+			for (int e = outOffsets[v]; e < outOffsets[v + 1]; e++) {
+				inSources[fill[outTargets[e]]++] = v;
+			}
+		}
+
+		rank = new double[n];
+		contribution = new double[n];
+		next = new double[n];
+	}
+
+	public int getPageCount() {
+		return names.length;
+	}
+
+	// Iterate until the L1 rank change drops below the tolerance, then write OutputFinal
+	public void run(String out) throws IOException {
+		int minIterations = conf.getInt("pagerank.iterations.min", 1);
+		int maxIterations = conf.getInt("pagerank.iterations.max", 10);
+		double tolerance = conf.getDouble("pagerank.tolerance", 0.0);
+		int n = names.length;
+		ForkJoinPool pool = new ForkJoinPool(conf.getInt("pagerank.inmemory.threads", Runtime.getRuntime().availableProcessors()));
+		try {
+			// Initial rank 1/N or the ranks of a previous run, and the contributions and dangling mass
+			// of the first iteration
+			String previous = conf.get(WarmStart.PREVIOUS);
+			if (previous != null) {
+				warmStart(new Path(previous));
+			}
+			else {
+				Arrays.fill(rank, 1.0 / n);
+			}
+			double dangling = 0.0;
+			for (int v = 0; v < n; v++) {
+				if (degree[v] > 0) {
+					contribution[v] = rank[v] / degree[v];
+				}
+				else {
+					dangling += rank[v];
+				}
+			}
+			for (int i = 1; i <= maxIterations; i++) {
+				double[] result = pool.invoke(new Step(0, n, dangling));
+				double[] swap = contribution;
+				contribution = next;
+				next = swap;
+				System.out.println("Iteration " + i + ": dangling mass " + dangling + ", L1 change " + result[1] + ", max change " + result[2]);
+				dangling = result[0];
+				if (i >= minIterations && result[1] < tolerance) {
+					break;
+				}
+			}
+		}
+		finally {
+			pool.shutdown();
+		}
+		write(new Path(out+"/OutputFinal"));
+	}
+
+	// Start from the ranks of a previous OutputFinal like WarmStart: new pages get 1/N, pages gone
+	// from the graph are dropped and the ranks are scaled to sum to one
+	private void warmStart(Path previous) throws IOException {
+		FileSystem fs = previous.getFileSystem(conf);
+		Map<String, Integer> ids = new HashMap<String, Integer>();
+		for (int v = 0; v < names.length; v++) {
+			ids.put(names[v], v);
+		}
+		int n = names.length;
+		Arrays.fill(rank, -1);
+		long removed = 0;
+		FileStatus[] files = fs.globStatus(new Path(previous, "part-*"));
+		for (FileStatus file : files == null ? new FileStatus[0] : files) {
+			try (BufferedReader reader = new BufferedReader(new InputStreamReader(fs.open(file.getPath()), "UTF-8"))) {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					int tab = line.indexOf('\t');
+					if (tab < 0) {
+						continue;
+					}
+					int end = line.indexOf(' ', tab + 1);
+					Integer id = ids.get(line.substring(0, tab));
+					if (id == null) {
+						removed++;
+						continue;
+					}
+					rank[id] = Double.parseDouble(line.substring(tab + 1, end < 0 ? line.length() : end));
+				}
+			}
+		}
+		long retained = 0;
+		double mass = 0.0;
+		for (int v = 0; v < n; v++) {
+			if (rank[v] < 0) {
+				rank[v] = 1.0 / n;
+			}
+			else {
+				retained++;
+			}
+			mass += rank[v];
+		}
+		for (int v = 0; v < n; v++) {
+			rank[v] /= mass;
+		}
+		System.out.println("Warm start: " + retained + " pages kept, " + (n - retained) + " new, " + removed + " removed, rank mass " + mass);
+	}
+
+	// Write "name rank" lines and the local top K candidates, like the final pass of the ID modes
+	private void write(Path output) throws IOException {
+		FileSystem fs = output.getFileSystem(conf);
+		Candidates candidates = new Candidates(conf);
+		try (PrintWriter writer = new PrintWriter(new OutputStreamWriter(fs.create(new Path(output, "part-r-00000")), "UTF-8"))) {
+			for (int v = 0; v < names.length; v++) {
+				writer.print(names[v] + "\t" + rank[v] + "\n");
+				candidates.add(names[v], rank[v]);
+			}
+		}
+		try (PrintWriter writer = new PrintWriter(new OutputStreamWriter(fs.create(new Path(output, Candidates.OUTPUT+"-r-00000")), "UTF-8"))) {
+			candidates.write(writer);
+		}
+	}
+
+	// One iteration over a range of pages. Each page pulls the contributions of its in-links and
+	// prepares its own contribution for the next iteration. Returns the dangling mass of the next
+	// iteration, the L1 change and the largest change of the range.
+	private class Step extends RecursiveTask<double[]> {
+		private static final long serialVersionUID = 1L;
+		private final int lo;
+		private final int hi;
+		private final double dangling;
+
+		Step(int lo, int hi, double dangling) {
+			this.lo = lo;
+			this.hi = hi;
+			this.dangling = dangling;
+		}
+
+		@Override
+		protected double[] compute() {
+			if (hi - lo > CHUNK) {
+				int mid = (lo + hi) >>> 1;
+				Step left = new Step(lo, mid, dangling);
+				left.fork();
+				double[] right = new Step(mid, hi, dangling).compute();
+				double[] result = left.join();
+				result[0] += right[0];
+				result[1] += right[1];
+				result[2] = Math.max(result[2], right[2]);
+				return result;
+			}
+			double numPages = names.length;
+			double base = (alpha/numPages) + ((1-alpha)*dangling/numPages);
+			double nextDangling = 0.0;
+			double l1 = 0.0;
+			double max = 0.0;
+			for (int v = lo; v < hi; v++) {
+				double S = 0.0;
+				for (int e = inOffsets[v]; e < inOffsets[v + 1]; e++) {
+					S += contribution[inSources[e]];
+				}
+				double newPgr = base + (1-alpha)*S;
+				double change = Math.abs(newPgr - rank[v]);
+				l1 += change;
+				max = Math.max(max, change);
+				rank[v] = newPgr;
+				if (degree[v] > 0) {
+					next[v] = newPgr / degree[v];
+				}
+				else {
+					nextDangling += newPgr;
+				}
+			}
+			return new double[] { nextDangling, l1, max };
+		}
+	}
+}
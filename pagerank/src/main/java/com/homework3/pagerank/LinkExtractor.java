@@ -0,0 +1,510 @@
+package com.homework3.pagerank;
+
+import java.io.StringReader;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.parsers.SAXParserFactory;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Collects the pages linked from the bodyContent div of a Wikipage. The page is scanned directly
+ * as UTF-8 bytes: the scanner tracks the element nesting and checks well-formedness for the
+ * XML it models (elements, attributes, comments, CDATA sections and a DOCTYPE without internal
+ * subset). Anything else, or anything that is not well-formed, is handed to the SAX WikiParser,
+ * so the links and the pages discarded as ill-formatted are the same as with a full SAX parse.
+ * Not thread-safe, use one instance per thread.
+ */
+public class LinkExtractor {
+	// Keep only html filenames ending relative paths and not containing tilde (~).
+	private static final Pattern linkPattern = Pattern.compile("^\\..*/([^~]+)\\.html$");
+	private static final byte[] DIV = { 'd', 'i', 'v' };
+	private static final byte[] ID = { 'i', 'd' };
+	private static final byte[] HREF = { 'h', 'r', 'e', 'f' };
+	private static final byte[] BODY_CONTENT = { 'b', 'o', 'd', 'y', 'c', 'o', 'n', 't', 'e', 'n', 't' };
+
+	// True when every & is plain text, as if the page had been through replaceAll("&", "&amp;")
+	private final boolean literalAmpersands;
+	private XMLReader xmlReader;
+	// Names of the open elements, offsets into the page
+	private int[] names = new int[64];
+	private int[] lengths = new int[64];
+	// Attributes of the current start tag: name start, name end, value start, value end
+	private int[] attributes = new int[32];
+
+	public LinkExtractor(boolean literalAmpersands) {
+		this.literalAmpersands = literalAmpersands;
+	}
+
+	// Add the pages linked from bytes [start, end) to links, returns false for an ill-formatted page
+	public boolean extract(byte[] bytes, int start, int end, List<String> links) {
+		int mark = links.size();
+		if (scan(bytes, start, end, links)) {
+			return true;
+		}
+		// Let SAX decide about anything the scanner does not model
+		while (links.size() > mark) {
+			links.remove(links.size() - 1);
+		}
+		return parse(bytes, start, end, links);
+	}
+
+	// Add the pages linked from bytes [start, end) as a full SAX parse with WikiParser finds them,
+	// returns false for an ill-formatted page
+	boolean parse(byte[] bytes, int start, int end, List<String> links) {
+		int mark = links.size();
+		String html = new String(bytes, start, end - start, StandardCharsets.UTF_8);
+		if (literalAmpersands) {
+			html = html.replaceAll("&", "&amp;");
+		}
+		try {
+			if (xmlReader == null) {
+				// Configure parser.
+				SAXParserFactory spf = SAXParserFactory.newInstance();
+				spf.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+				xmlReader = spf.newSAXParser().getXMLReader();
+			}
+			xmlReader.setContentHandler(new WikiParser(links));
+			xmlReader.parse(new InputSource(new StringReader(html)));
+		} catch (Exception e) {
+			// Discard ill-formatted pages.
+			while (links.size() > mark) {
+				links.remove(links.size() - 1);
+			}
+			return false;
+		}
+		return true;
+	}
+
+	// Page name of a link, null unless it is a relative html link without a tilde (~)
+	public static String pageName(String link) {
+		try {
+			// Decode escaped characters in URL.
+			link = URLDecoder.decode(link, "UTF-8");
+		} catch (Exception e) {
+			// Wiki-weirdness; use link as is.
+		}
+		Matcher matcher = linkPattern.matcher(link);
+		return matcher.find() ? matcher.group(1) : null;
+	}
+
+	// Returns false when the page is not well-formed or uses XML the scanner does not model
+	boolean scan(byte[] b, int start, int end, List<String> links) {
+		int depth = 0;
+		// Nesting depth inside bodyContent div element, as in WikiParser
+		int count = 0;
+		boolean root = false;
+		boolean doctype = false;
+		int i = start;
+		while (i < end) {
+			byte c = b[i];
+			if (c != '<') {
+				if (depth == 0 ? !isSpace(c) : !isText(b, i, end)) {
+					return false;
+				}
+				i++;
+				continue;
+			}
+			if (i + 1 >= end) {
+				return false;
+			}
+			byte d = b[i + 1];
+			if (d == '/') {
+				// End tag, must close the innermost open element
+				if (depth == 0) {
+					return false;
+				}
+				int nameEnd = nameEnd(b, i + 2, end);
+				depth--;
+				if (nameEnd - i - 2 != lengths[depth] || !regionMatches(b, i + 2, b, names[depth], lengths[depth], false)) {
+					return false;
+				}
+				int j = skipSpace(b, nameEnd, end);
+				if (j >= end || b[j] != '>') {
+					return false;
+				}
+				if (count > 0) {
+					count--;
+				}
+				i = j + 1;
+			}
+			else if (d == '!') {
+				if (startsWith(b, i, end, "<!--")) {
+					i = comment(b, i + 4, end);
+				}
+				else if (startsWith(b, i, end, "<![CDATA[") && depth > 0) {
+					i = cdata(b, i + 9, end);
+				}
+				else if (startsWith(b, i, end, "<!DOCTYPE") && !root && !doctype) {
+					doctype = true;
+					i = doctype(b, i + 9, end);
+				}
+				else {
+					return false;
+				}
+				if (i < 0) {
+					return false;
+				}
+			}
+			else {
+				// Start tag, processing instructions and a second root element are left to SAX
+				if (d == '?' || (root && depth == 0)) {
+					return false;
+				}
+				int nameStart = i + 1;
+				int nameEnd = nameEnd(b, nameStart, end);
+				if (nameEnd == nameStart) {
+					return false;
+				}
+				int attributeCount = 0;
+				int j = nameEnd;
+				boolean empty;
+				while (true) {
+					int s = skipSpace(b, j, end);
+					if (s >= end) {
+						return false;
+					}
+					if (b[s] == '>') {
+						j = s + 1;
+						empty = false;
+						break;
+					}
+					if (b[s] == '/') {
+						if (s + 1 >= end || b[s + 1] != '>') {
+							return false;
+						}
+						j = s + 2;
+						empty = true;
+						break;
+					}
+					// Attributes are separated by white space
+					if (s == j) {
+						return false;
+					}
+					int an = s;
+					int ae = nameEnd(b, an, end);
+					if (ae == an) {
+						return false;
+					}
+					int k = skipSpace(b, ae, end);
+					if (k >= end || b[k] != '=') {
+						return false;
+					}
+					k = skipSpace(b, k + 1, end);
+					if (k >= end || (b[k] != '"' && b[k] != '\'')) {
+						return false;
+					}
+					byte quote = b[k];
+					int vs = k + 1;
+					int ve = vs;
+					while (ve < end && b[ve] != quote) {
+						if (b[ve] == '<' || !isText(b, ve, end)) {
+							return false;
+						}
+						ve++;
+					}
+					if (ve >= end) {
+						return false;
+					}
+					// Duplicate attributes make the page ill-formatted
+					for (int a = 0; a < attributeCount; a += 4) {
+						if (attributes[a + 1] - attributes[a] == ae - an && regionMatches(b, attributes[a], b, an, ae - an, false)) {
+							return false;
+						}
+					}
+					if (attributeCount + 4 > attributes.length) {
+						attributes = Arrays.copyOf(attributes, attributes.length * 2);
+					}
+					attributes[attributeCount++] = an;
+					attributes[attributeCount++] = ae;
+					attributes[attributeCount++] = vs;
+					attributes[attributeCount++] = ve;
+					j = ve + 1;
+				}
+				root = true;
+
+				int nameLength = nameEnd - nameStart;
+				boolean div = nameLength == 3 && regionMatches(b, nameStart, DIV, 0, 3, true);
+				boolean anchor = nameLength == 1 && (b[nameStart] == 'a' || b[nameStart] == 'A');
+				int id = find(b, attributeCount, ID);
+				if (div && count == 0 && id >= 0 && attributes[id + 3] - attributes[id + 2] == BODY_CONTENT.length
+						&& regionMatches(b, attributes[id + 2], BODY_CONTENT, 0, BODY_CONTENT.length, true)) {
+					// Beginning of bodyContent div element.
+					count = 1;
+				}
+				else if (count > 0 && anchor) {
+					// Anchor tag inside bodyContent div element.
+					count++;
+					int href = find(b, attributeCount, HREF);
+					if (href >= 0) {
+						link(b, attributes[href + 2], attributes[href + 3], links);
+					}
+				}
+				else if (count > 0) {
+					// Other element inside bodyContent div.
+					count++;
+				}
+
+				if (empty) {
+					if (count > 0) {
+						count--;
+					}
+				}
+				else {
+					if (depth == names.length) {
+						names = Arrays.copyOf(names, depth * 2);
+						lengths = Arrays.copyOf(lengths, depth * 2);
+					}
+					names[depth] = nameStart;
+					lengths[depth] = nameLength;
+					depth++;
+				}
+				i = j;
+			}
+		}
+		return root && depth == 0;
+	}
+
+	// Add the page name of an href value, plain ASCII values are matched without decoding
+	private static void link(byte[] b, int start, int end, List<String> links) {
+		int slash = -1;
+		for (int i = start; i < end; i++) {
+			byte c = b[i];
+			if (c < 0x20 || c > 0x7e || c == '%' || c == '+') {
+				// Escaped or non-ASCII, decode the value like WikiParser
+				String link = new String(b, start, end - start, StandardCharsets.UTF_8).replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+				String name = pageName(link);
+				if (name != null) {
+					links.add(name);
+				}
+				return;
+			}
+			if (c == '/') {
+				slash = i;
+			}
+		}
+		if (end - start < 7 || b[start] != '.' || !endsWithHtml(b, end)) {
+			return;
+		}
+		// The name runs from the last slash to .html and must not contain a tilde
+		if (slash > start && slash < end - 6) {
+			for (int i = slash + 1; i < end - 5; i++) {
+				if (b[i] == '~') {
+					return;
+				}
+			}
+			links.add(new String(b, slash + 1, end - 5 - slash - 1, StandardCharsets.US_ASCII));
+			return;
+		}
+		// Odd shapes such as "../a/.html", leave them to the pattern
+		String name = pageName(new String(b, start, end - start, StandardCharsets.US_ASCII));
+		if (name != null) {
+			links.add(name);
+		}
+	}
+
+	private static boolean endsWithHtml(byte[] b, int end) {
+		return b[end - 5] == '.' && b[end - 4] == 'h' && b[end - 3] == 't' && b[end - 2] == 'm' && b[end - 1] == 'l';
+	}
+
+	// Offset in attributes of the attribute with the given name, -1 if the tag has none
+	private int find(byte[] b, int attributeCount, byte[] name) {
+		for (int a = 0; a < attributeCount; a += 4) {
+			if (attributes[a + 1] - attributes[a] == name.length && regionMatches(b, attributes[a], name, 0, name.length, false)) {
+				return a;
+			}
+		}
+		return -1;
+	}
+
+	// End of the comment body starting at i, -1 if the comment is not well-formed
+	private int comment(byte[] b, int i, int end) {
+		for (; i + 1 < end; i++) {
+			if (b[i] == '-' && b[i + 1] == '-') {
+				return i + 2 < end && b[i + 2] == '>' ? i + 3 : -1;
+			}
+			if (!isText(b, i, end)) {
+				return -1;
+			}
+		}
+		return -1;
+	}
+
+	private int cdata(byte[] b, int i, int end) {
+		for (; i + 2 < end; i++) {
+			if (b[i] == ']' && b[i + 1] == ']' && b[i + 2] == '>') {
+				return i + 3;
+			}
+			if (b[i] != '&' && !isText(b, i, end)) {
+				return -1;
+			}
+		}
+		return -1;
+	}
+
+	// <!DOCTYPE Name (SYSTEM "system" | PUBLIC "public" "system")? >, an internal subset is left to SAX
+	private int doctype(byte[] b, int i, int end) {
+		int s = skipSpace(b, i, end);
+		if (s == i) {
+			return -1;
+		}
+		int nameEnd = nameEnd(b, s, end);
+		if (nameEnd == s) {
+			return -1;
+		}
+		i = skipSpace(b, nameEnd, end);
+		int literals = 0;
+		if (i > nameEnd && startsWith(b, i, end, "SYSTEM")) {
+			literals = 1;
+			i += 6;
+		}
+		else if (i > nameEnd && startsWith(b, i, end, "PUBLIC")) {
+			literals = 2;
+			i += 6;
+		}
+		for (int l = 0; l < literals; l++) {
+			int s2 = skipSpace(b, i, end);
+			if (s2 == i || s2 >= end || (b[s2] != '"' && b[s2] != '\'')) {
+				return -1;
+			}
+			byte quote = b[s2];
+			i = s2 + 1;
+			while (i < end && b[i] != quote) {
+				// Public identifiers only allow a small set of characters
+				if (literals == 2 && l == 0 ? !isPubidChar(b[i]) : !isText(b, i, end)) {
+					return -1;
+				}
+				i++;
+			}
+			if (i >= end) {
+				return -1;
+			}
+			i++;
+		}
+		i = skipSpace(b, i, end);
+		return i < end && b[i] == '>' ? i + 1 : -1;
+	}
+
+	private static boolean isPubidChar(byte c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == ' '
+				|| "-'()+,./:=?;!*#@$_%".indexOf(c) >= 0;
+	}
+
+	// Character data byte: no markup, and no character XML rejects. & only when it is plain text.
+	private boolean isText(byte[] b, int i, int end) {
+		byte c = b[i];
+		if (c == '&') {
+			return literalAmpersands;
+		}
+		if (c == ']') {
+			return !(i + 2 < end && b[i + 1] == ']' && b[i + 2] == '>');
+		}
+		if (c < 0) {
+			// U+FFFE and U+FFFF are not XML characters
+			return !((c & 0xff) == 0xef && i + 2 < end && (b[i + 1] & 0xff) == 0xbf && ((b[i + 2] & 0xff) == 0xbe || (b[i + 2] & 0xff) == 0xbf));
+		}
+		return c >= 0x20 || c == '\t' || c == '\n' || c == '\r';
+	}
+
+	private static boolean isSpace(byte c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == '\r';
+	}
+
+	private static int skipSpace(byte[] b, int i, int end) {
+		while (i < end && isSpace(b[i])) {
+			i++;
+		}
+		return i;
+	}
+
+	// End of an ASCII XML name starting at i, i itself if there is none
+	private static int nameEnd(byte[] b, int i, int end) {
+		if (i >= end || !((b[i] >= 'a' && b[i] <= 'z') || (b[i] >= 'A' && b[i] <= 'Z') || b[i] == '_' || b[i] == ':')) {
+			return i;
+		}
+		int j = i + 1;
+		while (j < end && ((b[j] >= 'a' && b[j] <= 'z') || (b[j] >= 'A' && b[j] <= 'Z') || (b[j] >= '0' && b[j] <= '9')
+				|| b[j] == '_' || b[j] == ':' || b[j] == '-' || b[j] == '.')) {
+			j++;
+		}
+		// A name going on with a non-ASCII character is left to SAX
+		return j < end && b[j] < 0 ? i : j;
+	}
+
+	private static boolean startsWith(byte[] b, int i, int end, String prefix) {
+		if (end - i < prefix.length()) {
+			return false;
+		}
+		for (int k = 0; k < prefix.length(); k++) {
+			if (b[i + k] != prefix.charAt(k)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean regionMatches(byte[] a, int i, byte[] b, int j, int length, boolean ignoreCase) {
+		for (int k = 0; k < length; k++) {
+			byte x = a[i + k];
+			byte y = b[j + k];
+			if (x != y && !(ignoreCase && (x | 0x20) == (y | 0x20) && (x | 0x20) >= 'a' && (x | 0x20) <= 'z')) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/** Parses a Wikipage, finding links inside bodyContent div element. */
+	private static class WikiParser extends DefaultHandler {
+		/** List of linked pages; filled by parser. */
+		private List<String> linkPageNames;
+		/** Nesting depth inside bodyContent div element. */
+		private int count = 0;
+
+		public WikiParser(List<String> linkPageNames) {
+			super();
+			this.linkPageNames = linkPageNames;
+		}
+
+		@Override
+		public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException {
+			super.startElement(uri, localName, qName, attributes);
+			if ("div".equalsIgnoreCase(qName) && "bodyContent".equalsIgnoreCase(attributes.getValue("id")) && count == 0) {
+				// Beginning of bodyContent div element.
+				count = 1;
+			} else if (count > 0 && "a".equalsIgnoreCase(qName)) {
+				// Anchor tag inside bodyContent div element.
+				count++;
+				String link = attributes.getValue("href");
+				if (link == null) {
+					return;
+				}
+				String name = pageName(link);
+				if (name != null) {
+					linkPageNames.add(name);
+				}
+			} else if (count > 0) {
+				// Other element inside bodyContent div.
+				count++;
+			}
+		}
+
+		@Override
+		public void endElement(String uri, String localName, String qName) throws SAXException {
+			super.endElement(uri, localName, qName);
+			if (count > 0) {
+				// End of element inside bodyContent div.
+				count--;
+			}
+		}
+	}
+}
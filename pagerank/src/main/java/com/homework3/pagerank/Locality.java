@@ -0,0 +1,416 @@
+package com.homework3.pagerank;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.util.LineReader;
+
+/**
+ * Locality-preserving assignment of pages to the reducers of the name keyed iteration jobs.
+ * The driver streams the Graph output with linear deterministic greedy partitioning: every
+ * page goes to the partition holding most of its out-links, penalized by how full that
+ * partition already is, and later passes re-stream the graph with the assignment of the
+ * previous pass. Pages are identified by a 64-bit hash of their name bytes. The table the
+ * partitioner loads in every map task holds a (long, int) pair in each slot, with at most three
+ * quarters of the power of two slots in use, so it takes 16 to 32 bytes per page. The driver
+ * prints its size and warns when it takes more than a quarter of the map task heap.
+ */
+public class Locality {
+	// Compute an assignment after preprocessing
+	public static final String ENABLED = "pagerank.locality";
+	// Number of streaming passes over the graph
+	public static final String PASSES = "pagerank.locality.passes";
+	// Assignment file, set by the driver for the iteration jobs
+	public static final String ASSIGNMENT = "pagerank.locality.assignment";
+
+	// Open-addressing map from the hash of a page name to its partition
+	public static class Table {
+		private long[] keys;
+		private int[] partitions;
+		private int mask;
+		private int size;
+
+		public Table(long expected) {
+			int slots = slots(expected);
+			keys = new long[slots];
+			partitions = new int[slots];
+			mask = slots - 1;
+		}
+
+		// Partition of a page, -1 if it has none
+		public int get(long hash) {
+			int slot = slot(hash);
+			while (keys[slot] != 0) {
+				if (keys[slot] == hash) {
+					return partitions[slot];
+				}
+				slot = (slot + 1) & mask;
+			}
+			return -1;
+		}
+
+		public void put(long hash, int partition) {
+			int slot = slot(hash);
+			while (keys[slot] != 0 && keys[slot] != hash) {
+				slot = (slot + 1) & mask;
+			}
+			if (keys[slot] == 0) {
+				if (++size > keys.length / 4 * 3) {
+					grow();
+					put(hash, partition);
+					return;
+				}
+				keys[slot] = hash;
+			}
+			partitions[slot] = partition;
+		}
+
+		public int size() {
+			return size;
+		}
+
+		// Smallest power of two with expected pages filling at most three quarters of it
+		private static int slots(long expected) {
+			long needed = Math.max((Math.max(expected, 1) * 4 + 2) / 3, 2);
+			return Integer.highestOneBit((int) Math.min(needed, 1 << 30) - 1) << 1;
+		}
+
+		// Heap a table loaded with the given number of pages takes
+		public static long bytes(long pages) {
+			return 12L * slots(pages);
+		}
+
+		private int slot(long hash) {
+			return (int) (hash ^ (hash >>> 32)) * 0x9E3779B9 >>> 1 & mask;
+		}
+
+		private void grow() {
+			long[] oldKeys = keys;
+			int[] oldPartitions = partitions;
+			keys = new long[oldKeys.length * 2];
+			partitions = new int[oldKeys.length * 2];
+			mask = keys.length - 1;
+			size = 0;
+			for (int i = 0; i < oldKeys.length; i++) {
+				if (oldKeys[i] != 0) {
+					put(oldKeys[i], oldPartitions[i]);
+				}
+			}
+		}
+
+		// Raw file of (hash, partition) pairs
+		void write(DataOutputStream out) throws IOException {
+			out.writeInt(size);
+			for (int i = 0; i < keys.length; i++) {
+				if (keys[i] != 0) {
+					out.writeLong(keys[i]);
+					out.writeInt(partitions[i]);
+				}
+			}
+		}
+
+		static Table read(DataInputStream in) throws IOException {
+			int n = in.readInt();
+			Table table = new Table(n);
+			for (int i = 0; i < n; i++) {
+				long hash = in.readLong();
+				table.put(hash, in.readInt());
+			}
+			return table;
+		}
+	}
+
+	// 64-bit FNV-1a hash of a page name, never 0 which marks a free slot
+	public static long hash(byte[] bytes, int start, int end) {
+		long h = 0xcbf29ce484222325L;
+		for (int i = start; i < end; i++) {
+			h ^= bytes[i] & 0xff;
+			h *= 0x100000001b3L;
+		}
+		return h == 0 ? 1 : h;
+	}
+
+	// Partition of the default hash partitioner, for the edge-cut baseline
+	private static int hashPartition(Text name, int partitions) {
+		return (name.hashCode() & Integer.MAX_VALUE) % partitions;
+	}
+
+	/**
+	 * Compute the assignment of the pages of a Graph directory to the given number of partitions,
+	 * write it to output and print the edge cut next to the one of hash partitioning.
+	 */
+	public static void assign(Configuration conf, Path graph, Path output, int partitions, long pages) throws IOException {
+		Table table = new Table(pages);
+		long[] sizes = new long[partitions];
+		// Out-links of the current page per partition
+		long[] links = new long[partitions];
+		double capacity = Math.max(1.0, (double) pages / partitions);
+		int passes = conf.getInt(PASSES, 2);
+		for (int pass = 0; pass < passes; pass++) {
+			new GraphReader(conf, graph) {
+				@Override
+				void page(Text name, long hash, long[] adj, int degree) {
+					int current = table.get(hash);
+					if (current >= 0) {
+						// Re-streaming, take the page out of its partition first
+						sizes[current]--;
+					}
+					Arrays.fill(links, 0);
+					for (int i = 0; i < degree; i++) {
+						int p = table.get(adj[i]);
+						if (p >= 0) {
+							links[p]++;
+						}
+					}
+					int best = 0;
+					double bestScore = -1;
+					for (int p = 0; p < partitions; p++) {
+						double score = links[p] * (1.0 - sizes[p] / capacity);
+						if (score > bestScore || (score == bestScore && sizes[p] < sizes[best])) {
+							best = p;
+							bestScore = score;
+						}
+					}
+					table.put(hash, best);
+					sizes[best]++;
+				}
+			}.run();
+		}
+
+		// Edges to pages of the graph, and those crossing partitions under either assignment
+		long[] cut = new long[3];
+		Text target = new Text();
+		new GraphReader(conf, graph) {
+			@Override
+			void page(Text name, long hash, long[] adj, int degree) {
+				int own = table.get(hash);
+				int ownHash = hashPartition(name, partitions);
+				for (int i = 0; i < degree; i++) {
+					int p = table.get(adj[i]);
+					if (p < 0) {
+						continue;
+					}
+					cut[0]++;
+					if (p != own) {
+						cut[1]++;
+					}
+					target.set(bytes, starts[i], ends[i] - starts[i]);
+					if (hashPartition(target, partitions) != ownHash) {
+						cut[2]++;
+					}
+				}
+			}
+		}.run();
+		System.out.println("Locality: " + table.size() + " pages in " + partitions + " partitions, edge cut " + ratio(cut[1], cut[0])
+				+ " (" + cut[1] + " of " + cut[0] + " edges), hash partitioning " + ratio(cut[2], cut[0]) + ", partition sizes " + Arrays.toString(sizes));
+
+		FileSystem fs = output.getFileSystem(conf);
+		try (DataOutputStream out = fs.create(output)) {
+			table.write(out);
+		}
+
+		long bytes = Table.bytes(table.size());
+		long heap = mapTaskHeap(conf);
+		System.out.println("Locality: the assignment table takes " + (bytes >> 10) + " KB in every map task");
+		if (heap > 0 && bytes > heap / 4) {
+			System.err.println("Locality: the assignment table takes " + (bytes >> 20) + " MB, more than a quarter of the " + (heap >> 20)
+					+ " MB map task heap, raise mapreduce.map.java.opts or leave " + ENABLED + " off");
+		}
+	}
+
+	// Heap of a map task, where the partitioner loads the table, -1 if the options do not set it
+	static long mapTaskHeap(Configuration conf) {
+		if ("local".equals(conf.get("mapreduce.framework.name", "local"))) {
+			// The local job runner runs the tasks in this JVM
+			return Runtime.getRuntime().maxMemory();
+		}
+		Matcher m = Pattern.compile("-Xmx(\\d+)([kKmMgG]?)").matcher(conf.get("mapreduce.map.java.opts", conf.get("mapred.child.java.opts", "")));
+		long heap = -1;
+		// The last -Xmx wins like on the java command line
+		while (m.find()) {
+			heap = Long.parseLong(m.group(1));
+			switch (m.group(2).toLowerCase()) {
+			case "k": heap <<= 10; break;
+			case "m": heap <<= 20; break;
+			case "g": heap <<= 30; break;
+			default: break;
+			}
+		}
+		return heap;
+	}
+
+	private static double ratio(long part, long total) {
+		return total == 0 ? 0.0 : (double) part / total;
+	}
+
+	// Streams the pages of a text or binary Graph directory with the hashes of their out-links
+	private static abstract class GraphReader {
+		private final Configuration conf;
+		private final Path graph;
+		private long[] adj = new long[16];
+		// Name bytes of the out-links of the current page, for pages read from text lines
+		byte[] bytes;
+		int[] starts = new int[16];
+		int[] ends = new int[16];
+
+		GraphReader(Configuration conf, Path graph) {
+			this.conf = conf;
+			this.graph = graph;
+		}
+
+		abstract void page(Text name, long hash, long[] adj, int degree) throws IOException;
+
+		void run() throws IOException {
+			FileSystem fs = graph.getFileSystem(conf);
+			FileStatus[] files = fs.globStatus(new Path(graph, "part-*"));
+			for (FileStatus file : files == null ? new FileStatus[0] : files) {
+				if (isSequenceFile(fs, file.getPath())) {
+					readBinary(file.getPath());
+				}
+				else {
+					readText(fs, file.getPath());
+				}
+			}
+		}
+
+		// "name<TAB>link~link" lines
+		private void readText(FileSystem fs, Path file) throws IOException {
+			Text line = new Text();
+			Text name = new Text();
+			try (InputStream in = fs.open(file)) {
+				LineReader reader = new LineReader(in, conf);
+				while (reader.readLine(line) > 0) {
+					bytes = line.getBytes();
+					int length = line.getLength();
+					int tab = 0;
+					while (tab < length && bytes[tab] != '\t') {
+						tab++;
+					}
+					name.set(bytes, 0, tab);
+					int degree = 0;
+					int start = tab + 1;
+					for (int i = start; i <= length; i++) {
+						if (i == length || bytes[i] == '~') {
+							if (i > start) {
+								ensureCapacity(degree + 1);
+								starts[degree] = start;
+								ends[degree] = i;
+								adj[degree++] = hash(bytes, start, i);
+							}
+							start = i + 1;
+						}
+					}
+					page(name, hash(name.getBytes(), 0, name.getLength()), adj, degree);
+				}
+			}
+		}
+
+		// Vertex records, the out-links are copied into one buffer so both formats look alike
+		private void readBinary(Path file) throws IOException {
+			Text name = new Text();
+			Vertex vertex = new Vertex();
+			byte[] buffer = new byte[256];
+			try (SequenceFile.Reader reader = new SequenceFile.Reader(conf, SequenceFile.Reader.file(file))) {
+				while (reader.next(name, vertex)) {
+					int degree = vertex.getDegree();
+					ensureCapacity(degree);
+					int length = 0;
+					for (int i = 0; i < degree; i++) {
+						Text link = vertex.getNeighbour(i);
+						if (buffer.length < length + link.getLength()) {
+							buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + link.getLength()));
+						}
+						System.arraycopy(link.getBytes(), 0, buffer, length, link.getLength());
+						starts[i] = length;
+						length += link.getLength();
+						ends[i] = length;
+						adj[i] = hash(buffer, starts[i], ends[i]);
+					}
+					bytes = buffer;
+					page(name, hash(name.getBytes(), 0, name.getLength()), adj, degree);
+				}
+			}
+		}
+
+		private void ensureCapacity(int n) {
+			if (adj.length < n) {
+				int capacity = Math.max(n, adj.length * 2);
+				adj = Arrays.copyOf(adj, capacity);
+				starts = Arrays.copyOf(starts, capacity);
+				ends = Arrays.copyOf(ends, capacity);
+			}
+		}
+
+		private static boolean isSequenceFile(FileSystem fs, Path file) throws IOException {
+			byte[] magic = new byte[3];
+			try (DataInputStream in = fs.open(file)) {
+				in.readFully(magic);
+			}
+			catch (java.io.EOFException e) {
+				return false;
+			}
+			return magic[0] == 'S' && magic[1] == 'E' && magic[2] == 'Q';
+		}
+	}
+
+	// Sends marker keys to the partition they name and pages to their assigned partition. Pages
+	// missing from the assignment fall back to their hash partition.
+	public static class LocalityPartitioner<V> extends DanglingMass.TextPartitioner<V> implements Configurable {
+		// Tasks of one JVM share the table of an assignment file
+		private static Path loadedPath;
+		private static Table loaded;
+
+		private Configuration conf;
+		private Table table;
+
+		@Override
+		public void setConf(Configuration conf) {
+			this.conf = conf;
+			try {
+				table = load(conf, new Path(conf.get(ASSIGNMENT)));
+			} catch (IOException e) {
+				throw new RuntimeException("Cannot read the locality assignment", e);
+			}
+		}
+
+		@Override
+		public Configuration getConf() {
+			return conf;
+		}
+
+		@Override
+		public int getPartition(Text key, V value, int numPartitions) {
+			if (!DanglingMass.isMarker(key)) {
+				int partition = table.get(hash(key.getBytes(), 0, key.getLength()));
+				if (partition >= 0) {
+					return partition % numPartitions;
+				}
+			}
+			return super.getPartition(key, value, numPartitions);
+		}
+
+		private static synchronized Table load(Configuration conf, Path path) throws IOException {
+			if (!path.equals(loadedPath)) {
+				FileSystem fs = path.getFileSystem(conf);
+				try (DataInputStream in = new DataInputStream(new BufferedInputStream(fs.open(path), 1 << 16))) {
+					loaded = Table.read(in);
+				}
+				loadedPath = path;
+			}
+			return loaded;
+		}
+	}
+}
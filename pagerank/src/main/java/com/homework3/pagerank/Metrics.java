@@ -0,0 +1,173 @@
+package com.homework3.pagerank;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.JobCounter;
+import org.apache.hadoop.mapreduce.TaskCounter;
+
+import com.homework3.pagerank.PageRankDriver.DeltaCounter;
+
+/**
+ * Stages of one pipeline run in the order they ran: every job the driver submits with its
+ * wall time and counters, and the steps that run inside the driver with their wall time.
+ * The driver writes them as metrics.json and metrics.csv next to its output, one entry per
+ * stage with the task time, record and byte counts of a job, and the dangling mass and rank
+ * change of an iteration.
+ */
+public class Metrics {
+	// Columns of the report, counters of every job
+	private static final String[] COLUMNS = { "map_millis", "reduce_millis", "cpu_millis", "gc_millis", "map_input_records",
+			"map_output_records", "map_output_bytes", "map_output_materialized_bytes", "spilled_records", "reduce_output_records" };
+	private static final Enum<?>[] COUNTERS = { JobCounter.MILLIS_MAPS, JobCounter.MILLIS_REDUCES, TaskCounter.CPU_MILLISECONDS,
+			TaskCounter.GC_TIME_MILLIS, TaskCounter.MAP_INPUT_RECORDS, TaskCounter.MAP_OUTPUT_RECORDS, TaskCounter.MAP_OUTPUT_BYTES,
+			TaskCounter.MAP_OUTPUT_MATERIALIZED_BYTES, TaskCounter.SPILLED_RECORDS, TaskCounter.REDUCE_OUTPUT_RECORDS };
+
+	public static class Stage {
+		private final String name;
+		// Number of the iteration, 0 for any other stage
+		private final int iteration;
+		private final long millis;
+		// Null for a stage that ran in the driver
+		private final Counters counters;
+
+		Stage(String name, int iteration, long millis, Counters counters) {
+			this.name = name;
+			this.iteration = iteration;
+			this.millis = millis;
+			this.counters = counters;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public int getIteration() {
+			return iteration;
+		}
+
+		public long getMillis() {
+			return millis;
+		}
+
+		public Counters getCounters() {
+			return counters;
+		}
+
+		// Value of a counter of the job, 0 for a stage without counters
+		public long get(Enum<?> counter) {
+			return counters == null ? 0 : counters.findCounter(counter).getValue();
+		}
+	}
+
+	private final List<Stage> stages = new ArrayList<Stage>();
+	private final long started = System.currentTimeMillis();
+
+	// Run a job to completion and record it as a stage
+	public boolean run(String name, Job job) throws IOException, InterruptedException, ClassNotFoundException {
+		return run(name, 0, job);
+	}
+
+	// Run a page rank iteration to completion and record it with its number
+	public boolean iteration(int i, Job job) throws IOException, InterruptedException, ClassNotFoundException {
+		return run("iteration " + i, i, job);
+	}
+
+	private boolean run(String name, int iteration, Job job) throws IOException, InterruptedException, ClassNotFoundException {
+		long start = System.currentTimeMillis();
+		boolean success = job.waitForCompletion(true);
+		stages.add(new Stage(name, iteration, System.currentTimeMillis() - start, job.getCounters()));
+		return success;
+	}
+
+	// Record a stage that ran in the driver since start
+	public void record(String name, long start) {
+		stages.add(new Stage(name, 0, System.currentTimeMillis() - start, null));
+	}
+
+	public List<Stage> getStages() {
+		return stages;
+	}
+
+	// Total of a counter over all stages
+	public long total(Enum<?> counter) {
+		long total = 0;
+		for (Stage stage : stages) {
+			total += stage.get(counter);
+		}
+		return total;
+	}
+
+	// Bytes the map outputs of all jobs took on local disk, what the reducers fetch
+	public long shuffledBytes() {
+		return total(TaskCounter.MAP_OUTPUT_MATERIALIZED_BYTES);
+	}
+
+	public int iterations() {
+		int iterations = 0;
+		for (Stage stage : stages) {
+			if (stage.getIteration() > 0) {
+				iterations++;
+			}
+		}
+		return iterations;
+	}
+
+	// Write metrics.json and metrics.csv into dir
+	public void write(Configuration conf, Path dir) throws IOException {
+		FileSystem fs = dir.getFileSystem(conf);
+		long total = System.currentTimeMillis() - started;
+		try (PrintWriter json = new PrintWriter(new OutputStreamWriter(fs.create(new Path(dir, "metrics.json"), true), "UTF-8"))) {
+			json.print("{\n  \"started\": " + started + ",\n  \"total_millis\": " + total + ",\n  \"iterations\": " + iterations()
+					+ ",\n  \"stages\": [");
+			for (int s = 0; s < stages.size(); s++) {
+				Stage stage = stages.get(s);
+				json.print(s == 0 ? "\n" : ",\n");
+				json.print("    {\"name\": \"" + stage.getName() + "\", \"wall_millis\": " + stage.getMillis());
+				if (stage.getCounters() != null) {
+					for (int c = 0; c < COLUMNS.length; c++) {
+						json.print(", \"" + COLUMNS[c] + "\": " + stage.get(COUNTERS[c]));
+					}
+				}
+				if (stage.getIteration() > 0) {
+					json.print(", \"iteration\": " + stage.getIteration() + ", \"dangling_mass\": " + dangling(stage)
+							+ ", \"l1_change\": " + RankChange.l1(stage.getCounters()) + ", \"max_change\": " + RankChange.max(stage.getCounters()));
+				}
+				json.print("}");
+			}
+			json.print("\n  ]\n}\n");
+		}
+		try (PrintWriter csv = new PrintWriter(new OutputStreamWriter(fs.create(new Path(dir, "metrics.csv"), true), "UTF-8"))) {
+			csv.print("stage,iteration,wall_millis");
+			for (String column : COLUMNS) {
+				csv.print("," + column);
+			}
+			csv.print(",dangling_mass,l1_change,max_change\n");
+			for (Stage stage : stages) {
+				csv.print(stage.getName() + "," + stage.getIteration() + "," + stage.getMillis());
+				for (Enum<?> counter : COUNTERS) {
+					csv.print("," + (stage.getCounters() == null ? "" : Long.toString(stage.get(counter))));
+				}
+				if (stage.getIteration() > 0) {
+					csv.print("," + dangling(stage) + "," + RankChange.l1(stage.getCounters()) + "," + RankChange.max(stage.getCounters()) + "\n");
+				}
+				else {
+					csv.print(",,,\n");
+				}
+			}
+		}
+	}
+
+	// Dangling mass of an iteration, as the driver prints it
+	private static double dangling(Stage stage) {
+		return stage.get(DeltaCounter.Counter) / Math.pow(10, 10);
+	}
+}
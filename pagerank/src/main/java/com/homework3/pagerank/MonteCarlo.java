@@ -0,0 +1,319 @@
+package com.homework3.pagerank;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
+
+import com.homework3.pagerank.TopK.Candidates;
+
+/**
+ * Monte Carlo page rank over the text graph: pagerank.montecarlo.walks random walks start at
+ * every page and stop with probability alpha at every step, and the rank of a page is its share
+ * of all visits. Walks that reach a page without out-links stop there too, which leaves the
+ * visit shares unchanged because the surfer jumps to a uniformly random page, where every walk
+ * starts anyway. Each round moves every walk one step: a page holds the number of walks on it,
+ * its mapper sends the walks that go on to randomly chosen out-links and the reducer adds the
+ * arriving walks to the visits of the page. Only walk counts are shuffled, and fewer each round.
+ * Page lines hold "visits;walks" in the rank field, the first round reads the Graph output.
+ */
+public class MonteCarlo {
+
+	public static final String ENABLED = "pagerank.montecarlo";
+	// Walks started at every page
+	public static final String WALKS = "pagerank.montecarlo.walks";
+	public static final String SEED = "pagerank.montecarlo.seed";
+	// Most rounds, in place of pagerank.iterations.max, the walks still going after the last one are estimated
+	public static final String ROUNDS = "pagerank.montecarlo.rounds";
+	// Set by the driver: number of the round, the first one reads the Graph output
+	public static final String ROUND = "pagerank.montecarlo.round";
+	// Set by the driver: visits of all walks with the estimated ones of the walks still going, for the final pass
+	public static final String VISITS = "pagerank.montecarlo.visits";
+	// Set by the driver: visits every walk still going after the last round is expected to add
+	public static final String TAIL = "pagerank.montecarlo.tail";
+
+	public enum MonteCarloCounter {
+		// Walks still going after a round
+		Walks,
+		// Walks of those on pages with out-links
+		Linked,
+		// Visits of all pages after a round
+		Visits,
+		// Expected L1 error of the final ranks, scaled like the rank change
+		Error
+	}
+
+	public static long walks(Counters counters) {
+		return counters.findCounter(MonteCarloCounter.Walks).getValue();
+	}
+
+	public static long linked(Counters counters) {
+		return counters.findCounter(MonteCarloCounter.Linked).getValue();
+	}
+
+	public static long visits(Counters counters) {
+		return counters.findCounter(MonteCarloCounter.Visits).getValue();
+	}
+
+	public static double error(Counters counters) {
+		return counters.findCounter(MonteCarloCounter.Error).getValue() / RankChange.SCALE;
+	}
+
+	/**
+	 * Visits a walk on a page with out-links after the last round is expected to add, a walk on a
+	 * page without them stops. With a share g of the walks of the last round on pages with
+	 * out-links, such a walk adds V = (1 - alpha)(1 + g V) visits, V = (1 - alpha) / (1 - (1 - alpha) g).
+	 * Once the walks have mixed, where they end up is close to where they are, and the final pass
+	 * adds V to the visits of a page for every walk on it.
+	 */
+	public static double tail(long walks, long linked, double alpha) {
+		if (walks == 0) {
+			return 0.0;
+		}
+		double g = (double) linked / walks;
+		return (1 - alpha) / (1 - (1 - alpha) * g);
+	}
+
+	// Page state parsed from a line
+	static class Page {
+		String name;
+		long visits;
+		long walks;
+		// Null for a page without out-links
+		String adj;
+
+		// Parse a page line, or a Graph line with every walk starting on its page
+		Page parse(String line, boolean graph, long start) {
+			String[] tokens = line.split("\\s+");
+			name = tokens[0];
+			if (graph) {
+				adj = tokens.length < 2 || tokens[1].isEmpty() ? null : tokens[1];
+				visits = start;
+				walks = start;
+				return this;
+			}
+			adj = tokens.length <= 2 ? null : tokens[2];
+			int semicolon = tokens[1].indexOf(';');
+			visits = Long.parseLong(tokens[1].substring(0, semicolon));
+			walks = Long.parseLong(tokens[1].substring(semicolon + 1));
+			return this;
+		}
+	}
+
+	// Value of a round: a page with its visits and structure, or a number of walks arriving at a page
+	public static class WalkValue implements Writable {
+		private static final byte PAGE = 0;
+		private static final byte PAGE_WITH_LINKS = 1;
+		private static final byte WALKS = 2;
+
+		private byte type;
+		private long count;
+		private Text adj = new Text();
+
+		public WalkValue setPage(long visits, String a) {
+			type = a == null ? PAGE : PAGE_WITH_LINKS;
+			count = visits;
+			if (a != null) {
+				adj.set(a);
+			}
+			return this;
+		}
+
+		public WalkValue setWalks(long walks) {
+			type = WALKS;
+			count = walks;
+			return this;
+		}
+
+		public boolean isPage() {
+			return type != WALKS;
+		}
+
+		// Visits of a page, or the number of walks
+		public long getCount() {
+			return count;
+		}
+
+		// Adjacency list, null for a page without out-links
+		public Text getAdjList() {
+			return type == PAGE_WITH_LINKS ? adj : null;
+		}
+
+		@Override
+		public void write(DataOutput out) throws IOException {
+			out.writeByte(type);
+			WritableUtils.writeVLong(out, count);
+			if (type == PAGE_WITH_LINKS) {
+				adj.write(out);
+			}
+		}
+
+		@Override
+		public void readFields(DataInput in) throws IOException {
+			type = in.readByte();
+			count = WritableUtils.readVLong(in);
+			if (type == PAGE_WITH_LINKS) {
+				adj.readFields(in);
+			}
+		}
+	}
+
+	// Mapper that moves the walks on every page one step, each goes on with probability 1 - alpha
+	// to a random out-link
+	public static class WalkMapper extends Mapper<Object, Text, Text, WalkValue> {
+		private Random random;
+		private double alpha;
+		private boolean graph;
+		private long start;
+		private Page page = new Page();
+		private Text name = new Text();
+		private Text target = new Text();
+		private WalkValue value = new WalkValue();
+		private WalkValue walks = new WalkValue();
+		// Walks sent to every out-link of the current page
+		private long[] counts = new long[16];
+
+		protected void setup(Context context) throws IOException,InterruptedException  {
+			Configuration conf = context.getConfiguration();
+			alpha = conf.getDouble("alpha", 0.15);
+			int round = conf.getInt(ROUND, 1);
+			graph = round == 1;
+			start = conf.getLong(WALKS, 10);
+			// Reproducible for the same input splits
+			random = new Random(conf.getLong(SEED, 1) * 1000003L + round * 8191L + context.getTaskAttemptID().getTaskID().getId());
+		}
+
+		public void map(Object key, Text line, Context context) throws IOException, InterruptedException {
+			page.parse(line.toString(), graph, start);
+			name.set(page.name);
+			context.write(name, value.setPage(page.visits, page.adj));
+			if (page.adj == null || page.walks == 0) {
+				// Walks on a page without out-links stop
+				return;
+			}
+			String[] list = page.adj.split("~");
+			if (counts.length < list.length) {
+				counts = new long[Math.max(list.length, counts.length * 2)];
+			}
+			Arrays.fill(counts, 0, list.length, 0L);
+			for (long w = 0; w < page.walks; w++) {
+				if (random.nextDouble() >= alpha) {
+					counts[random.nextInt(list.length)]++;
+				}
+			}
+			for (int i = 0; i < list.length; i++) {
+				if (counts[i] > 0) {
+					target.set(list[i]);
+					context.write(target, walks.setWalks(counts[i]));
+				}
+			}
+		}
+	}
+
+	// Combiner that sums the walks arriving at a page and passes its structure through
+	public static class WalkCombiner extends Reducer<Text, WalkValue, Text, WalkValue> {
+		private WalkValue walks = new WalkValue();
+
+		public void reduce(Text key, Iterable<WalkValue> values, Context context) throws IOException, InterruptedException {
+			long sum = 0;
+			for (WalkValue value : values) {
+				if (value.isPage()) {
+					context.write(key, value);
+				}
+				else {
+					sum += value.getCount();
+				}
+			}
+			if (sum > 0) {
+				context.write(key, walks.setWalks(sum));
+			}
+		}
+	}
+
+	// Reducer that counts the arriving walks as visits of the page and keeps them on it for the next round
+	public static class WalkReducer extends Reducer<Text, WalkValue, Text, Text> {
+		private Text adjList = new Text();
+		private Text line = new Text();
+
+		public void reduce(Text key, Iterable<WalkValue> values, Context context) throws IOException, InterruptedException {
+			long visits = 0;
+			long arrived = 0;
+			boolean found = false;
+			adjList.clear();
+			for (WalkValue value : values) {
+				if (value.isPage()) {
+					// Values are reused by the framework, keep the visits and adjacency list of the page
+					found = true;
+					visits = value.getCount();
+					if (value.getAdjList() != null) {
+						adjList.set(value.getAdjList());
+					}
+				}
+				else {
+					arrived += value.getCount();
+				}
+			}
+			if (!found) {
+				return;
+			}
+			visits += arrived;
+			context.getCounter(MonteCarloCounter.Walks).increment(arrived);
+			if (adjList.getLength() > 0) {
+				context.getCounter(MonteCarloCounter.Linked).increment(arrived);
+			}
+			context.getCounter(MonteCarloCounter.Visits).increment(visits);
+			String state = visits + ";" + arrived;
+			line.set(adjList.getLength() == 0 ? state : state + " " + adjList);
+			context.write(key, line);
+		}
+	}
+
+	// Mapper that writes the visit shares of the last round as the text result, with its local
+	// top K pages and the expected error
+	public static class EstimateMapper extends Mapper<Object, Text, Text, Text> {
+		private MultipleOutputs<Text, Text> out;
+		private Candidates candidates;
+		private double visits;
+		private double tail;
+		// Sum of the standard errors of the visit counts
+		private double error;
+		private Page page = new Page();
+		private Text name = new Text();
+		private Text rank = new Text();
+
+		protected void setup(Context context) throws IOException,InterruptedException  {
+			out = new MultipleOutputs<Text, Text>(context);
+			candidates = new Candidates(context.getConfiguration());
+			visits = context.getConfiguration().getDouble(VISITS, 1);
+			tail = context.getConfiguration().getDouble(TAIL, 0.0);
+		}
+
+		public void map(Object key, Text line, Context context) throws IOException, InterruptedException {
+			page.parse(line.toString(), false, 0);
+			double estimate = (page.adj == null ? page.visits : page.visits + page.walks * tail) / visits;
+			// Visit counts are about Poisson, so the standard error of a count is its square root
+			error += Math.sqrt(page.visits);
+			name.set(page.name);
+			candidates.add(name, estimate);
+			rank.set(page.adj == null ? Double.toString(estimate) : estimate + " " + page.adj);
+			context.write(name, rank);
+		}
+
+		protected void cleanup(Context context) throws IOException, InterruptedException {
+			// Expected absolute error of a normal estimate is sqrt(2/pi) times its standard error
+			context.getCounter(MonteCarloCounter.Error).increment(Math.round(Math.sqrt(2 / Math.PI) * error / visits * RankChange.SCALE));
+			candidates.write(out);
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,460 @@
+package com.homework3.pagerank;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+import com.homework3.pagerank.TopK.Candidates;
+
+/**
+ * Page ranks kept up to date under a stream of link insertions and deletions, in a single JVM,
+ * by residual pushes around the changed pages instead of a new run. It holds unnormalized scores
+ * y with y = alpha + (1 - alpha) P^T y, where a dangling page spreads nothing, and the residual
+ * r = alpha + (1 - alpha) P^T y - y of every page. The page rank is y / sum(y): spreading the
+ * dangling mass evenly only adds the same amount to every page, which the normalization takes
+ * out. A push moves the residual of a page into its score and passes (1 - alpha) of it on to its
+ * out-links, so the ranks are exact once no residual is left. A link change u -> v rescales y(u)
+ * so that the share every other out-link of u receives stays the same. Only the residuals of u
+ * and v change, and pushes start from them. They continue while some residual exceeds
+ * pagerank.online.tolerance. Every push takes at least alpha times the tolerance off the L1 norm
+ * of the residuals, and a change adds at most 2 y(u) / degree to it. The cost of a change is
+ * therefore bounded whatever the size of the graph.
+ */
+public class OnlineRank {
+
+	// Largest residual left after the pushes, on the scale of the scores that average about one
+	public static final String TOLERANCE = "pagerank.online.tolerance";
+	// Changes applied before the ranks are published
+	public static final String BATCH = "pagerank.online.batch";
+	// Relative change of the score sum after which a full snapshot is published instead of the changed pages
+	public static final String DRIFT = "pagerank.online.drift";
+
+	private Configuration conf;
+	private double alpha;
+	private double tolerance;
+	private Map<String, Integer> ids = new HashMap<String, Integer>();
+	private List<String> names = new ArrayList<String>();
+	// Out-links of page u are links[u][0] .. links[u][degree[u] - 1]
+	private int[][] links = new int[0][];
+	private int[] degree = new int[0];
+	private double[] score = new double[0];
+	private double[] residual = new double[0];
+	// Sum of the scores, and L1 norm of the residuals
+	private double total;
+	private double norm;
+	// Pages waiting to push, as a ring buffer
+	private int[] queue = new int[16];
+	private int head;
+	private int tail;
+	private boolean[] queued = new boolean[0];
+	// Pages whose score changed since the last publish
+	private int[] changed = new int[16];
+	private int numChanged;
+	private boolean[] isChanged = new boolean[0];
+	private long pushes;
+
+	public OnlineRank(Configuration conf) {
+		this.conf = conf;
+		alpha = conf.getDouble("alpha", 0.15);
+		tolerance = conf.getDouble(TOLERANCE, 1e-4);
+	}
+
+	// Replay a file of changes, or standard input for "-", in batches and publish the ranks after each
+	public static void main(String[] args) throws Exception {
+		Configuration conf = new Configuration();
+		conf.setDouble("alpha", 0.15);
+		String[] otherArgs = new GenericOptionsParser(conf, args).getRemainingArgs();
+		if (otherArgs.length != 4) {
+			System.err.println("Usage: onlinerank <Graph> <OutputFinal> <changes|-> <out>");
+			System.exit(2);
+		}
+		OnlineRank online = new OnlineRank(conf).load(new Path(otherArgs[0]), new Path(otherArgs[1]));
+		String changes = otherArgs[2];
+		BufferedReader reader;
+		if (changes.equals("-")) {
+			reader = new BufferedReader(new InputStreamReader(System.in, "UTF-8"));
+		}
+		else {
+			Path path = new Path(changes);
+			reader = new BufferedReader(new InputStreamReader(path.getFileSystem(conf).open(path), "UTF-8"));
+		}
+		try {
+			online.stream(reader, otherArgs[3]);
+		}
+		finally {
+			reader.close();
+		}
+	}
+
+	// Load the pages and out-links of a text Graph output and the ranks of an OutputFinal, and
+	// push until the scores match the graph. Pages missing from the ranks start at 1/N.
+	public OnlineRank load(Path graph, Path ranks) throws IOException {
+		List<String> adj = new ArrayList<String>();
+		FileSystem fs = graph.getFileSystem(conf);
+		FileStatus[] files = fs.isDirectory(graph) ? fs.globStatus(new Path(graph, "part-*")) : fs.globStatus(graph);
+		for (FileStatus file : files == null ? new FileStatus[0] : files) {
+			try (BufferedReader reader = new BufferedReader(new InputStreamReader(fs.open(file.getPath()), "UTF-8"))) {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					int tab = line.indexOf('\t');
+					if (tab < 0) {
+						continue;
+					}
+					// A page may show up more than once, keep its last non-empty adjacency list
+					int u = page(line.substring(0, tab));
+					if (u == adj.size()) {
+						adj.add("");
+					}
+					if (tab + 1 < line.length()) {
+						adj.set(u, line.substring(tab + 1));
+					}
+				}
+			}
+		}
+		int n = names.size();
+		for (int u = 0; u < n; u++) {
+			String[] each = adj.get(u).split("~");
+			int[] targets = new int[each.length];
+			int d = 0;
+			for (String name : each) {
+				Integer v = ids.get(name);
+				// Links to pages missing from the graph are dropped like the in-memory iterations do
+				if (v != null && !name.isEmpty()) {
+					targets[d++] = v;
+				}
+			}
+			// Sort the out-links once to drop repeated ones, instead of a search per link
+			Arrays.sort(targets, 0, d);
+			int kept = 0;
+			for (int e = 0; e < d; e++) {
+				if (kept == 0 || targets[e] != targets[kept - 1]) {
+					targets[kept++] = targets[e];
+				}
+			}
+			links[u] = targets;
+			degree[u] = kept;
+		}
+
+		double[] rank = new double[n];
+		Arrays.fill(rank, -1);
+		fs = ranks.getFileSystem(conf);
+		files = fs.globStatus(new Path(ranks, "part-*"));
+		for (FileStatus file : files == null ? new FileStatus[0] : files) {
+			try (BufferedReader reader = new BufferedReader(new InputStreamReader(fs.open(file.getPath()), "UTF-8"))) {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					int tab = line.indexOf('\t');
+					if (tab < 0) {
+						continue;
+					}
+					int end = line.indexOf(' ', tab + 1);
+					Integer id = ids.get(line.substring(0, tab));
+					if (id != null) {
+						rank[id] = Double.parseDouble(line.substring(tab + 1, end < 0 ? line.length() : end));
+					}
+				}
+			}
+		}
+		double mass = 0.0;
+		for (int u = 0; u < n; u++) {
+			if (rank[u] < 0) {
+				rank[u] = 1.0 / n;
+			}
+			mass += rank[u];
+		}
+		// Scores of converged ranks are the ranks times alpha N / (alpha + (1 - alpha) dangling mass)
+		double dangling = 0.0;
+		for (int u = 0; u < n; u++) {
+			rank[u] /= mass;
+			if (degree[u] == 0) {
+				dangling += rank[u];
+			}
+		}
+		double scale = alpha * n / (alpha + (1 - alpha) * dangling);
+		for (int u = 0; u < n; u++) {
+			// The residual already holds the teleport share of the page
+			score[u] = rank[u] * scale;
+			total += score[u];
+			residual[u] -= score[u];
+			for (int e = 0; e < degree[u]; e++) {
+				residual[links[u][e]] += (1 - alpha) * score[u] / degree[u];
+			}
+		}
+		norm = 0.0;
+		for (int u = 0; u < n; u++) {
+			norm += Math.abs(residual[u]);
+			enqueue(u);
+		}
+		double before = norm;
+		push();
+		System.out.println("Loaded " + n + " pages, initial residual " + before + ", " + pushes + " pushes to reach " + norm);
+		numChanged = 0;
+		Arrays.fill(isChanged, false);
+		pushes = 0;
+		return this;
+	}
+
+	// ID of a page, added without links and with no score if it is new
+	private int page(String name) {
+		Integer id = ids.get(name);
+		if (id != null) {
+			return id;
+		}
+		int u = names.size();
+		ids.put(name, u);
+		names.add(name);
+		if (u == score.length) {
+			int capacity = Math.max(16, u * 2);
+			links = Arrays.copyOf(links, capacity);
+			degree = Arrays.copyOf(degree, capacity);
+			score = Arrays.copyOf(score, capacity);
+			residual = Arrays.copyOf(residual, capacity);
+			queued = Arrays.copyOf(queued, capacity);
+			isChanged = Arrays.copyOf(isChanged, capacity);
+		}
+		links[u] = new int[0];
+		// A page without score still gets its teleport share, which it pushes like any residual
+		residual[u] = alpha;
+		norm += alpha;
+		enqueue(u);
+		return u;
+	}
+
+	// Position of the link u -> v among the out-links of u, -1 if there is none
+	private int find(int u, int v) {
+		for (int e = 0; e < degree[u]; e++) {
+			if (links[u][e] == v) {
+				return e;
+			}
+		}
+		return -1;
+	}
+
+	private void addLink(int u, int v) {
+		if (degree[u] == links[u].length) {
+			links[u] = Arrays.copyOf(links[u], Math.max(4, degree[u] * 2));
+		}
+		links[u][degree[u]++] = v;
+	}
+
+	private void addResidual(int u, double delta) {
+		double r = residual[u] + delta;
+		norm += Math.abs(r) - Math.abs(residual[u]);
+		residual[u] = r;
+		if (Math.abs(r) > tolerance) {
+			enqueue(u);
+		}
+	}
+
+	private void addScore(int u, double delta) {
+		score[u] += delta;
+		total += delta;
+		if (!isChanged[u]) {
+			isChanged[u] = true;
+			if (numChanged == changed.length) {
+				changed = Arrays.copyOf(changed, numChanged * 2);
+			}
+			changed[numChanged++] = u;
+		}
+	}
+
+	private void enqueue(int u) {
+		if (queued[u]) {
+			return;
+		}
+		queued[u] = true;
+		// One slot stays free to tell a full ring from an empty one
+		if ((tail + 1) % queue.length == head) {
+			int size = queue.length - 1;
+			int[] grown = new int[queue.length * 2];
+			for (int i = 0; i < size; i++) {
+				grown[i] = queue[(head + i) % queue.length];
+			}
+			queue = grown;
+			head = 0;
+			tail = size;
+		}
+		queue[tail] = u;
+		tail = (tail + 1) % queue.length;
+	}
+
+	// Add the link u -> v, false if it is already there
+	public boolean insert(String from, String to) {
+		int u = page(from);
+		int v = page(to);
+		if (u == v || find(u, v) >= 0) {
+			return false;
+		}
+		int d = degree[u];
+		double y = score[u];
+		addLink(u, v);
+		if (d == 0) {
+			// A dangling page starts passing its score on
+			addResidual(v, (1 - alpha) * y);
+			return true;
+		}
+		// y(u) (d + 1) / d keeps the share of the other out-links at y(u) / d
+		addScore(u, y / d);
+		addResidual(u, -y / d);
+		addResidual(v, (1 - alpha) * y / d);
+		return true;
+	}
+
+	// Remove the link u -> v, false if it is not there
+	public boolean delete(String from, String to) {
+		Integer u = ids.get(from);
+		Integer v = ids.get(to);
+		int e = u == null || v == null ? -1 : find(u, v);
+		if (e < 0) {
+			return false;
+		}
+		int d = degree[u];
+		double y = score[u];
+		links[u][e] = links[u][--degree[u]];
+		if (d == 1) {
+			// A page left without out-links keeps its score and passes nothing on
+			addResidual(v, -(1 - alpha) * y);
+			return true;
+		}
+		// y(u) (d - 1) / d keeps the share of the other out-links at y(u) / d
+		addScore(u, -y / d);
+		addResidual(u, y / d);
+		addResidual(v, -(1 - alpha) * y / d);
+		return true;
+	}
+
+	// Push the queued residuals until none exceeds the tolerance
+	public void push() {
+		while (head != tail) {
+			int u = queue[head];
+			head = (head + 1) % queue.length;
+			queued[u] = false;
+			double r = residual[u];
+			if (Math.abs(r) <= tolerance) {
+				continue;
+			}
+			pushes++;
+			residual[u] = 0.0;
+			norm -= Math.abs(r);
+			addScore(u, r);
+			int d = degree[u];
+			if (d == 0) {
+				continue;
+			}
+			double share = (1 - alpha) * r / d;
+			int[] targets = links[u];
+			for (int e = 0; e < d; e++) {
+				addResidual(targets[e], share);
+			}
+		}
+	}
+
+	public int getPageCount() {
+		return names.size();
+	}
+
+	// Current rank of a page, NaN if the page is unknown
+	public double rank(String name) {
+		Integer id = ids.get(name);
+		return id == null ? Double.NaN : score[id] / total;
+	}
+
+	// Bound on the L1 distance of the current ranks from the exact ones
+	public double error() {
+		return 2 * norm / (alpha * total);
+	}
+
+	// Apply the changes of a reader in batches of pagerank.online.batch lines, "+ from to" to add a
+	// link and "- from to" to remove one. A batch also ends when the reader has no more input
+	// ready, so a slow stream is published as it arrives. After each batch the changed ranks go to
+	// out/Update<batch>, or all ranks to out/Snapshot<batch> once the score sum has drifted by
+	// pagerank.online.drift since the last snapshot, and at the end of the stream.
+	public void stream(BufferedReader reader, String out) throws IOException {
+		int size = conf.getInt(BATCH, 1000);
+		double drift = conf.getDouble(DRIFT, 1e-3);
+		double published = total;
+		int batch = 0;
+		// Until a batch publishes one, so an empty stream still ends with Snapshot0
+		boolean snapshot = false;
+		String line = "";
+		while (line != null) {
+			int applied = 0;
+			int lines = 0;
+			long start = System.nanoTime();
+			while (lines < size && (line = reader.readLine()) != null) {
+				String[] tokens = line.trim().split("\\s+");
+				if (tokens.length != 3) {
+					continue;
+				}
+				lines++;
+				if (tokens[0].equals("+") ? insert(tokens[1], tokens[2]) : tokens[0].equals("-") && delete(tokens[1], tokens[2])) {
+					applied++;
+				}
+				if (!reader.ready()) {
+					break;
+				}
+			}
+			if (lines == 0) {
+				continue;
+			}
+			batch++;
+			long before = pushes;
+			push();
+			snapshot = line == null || Math.abs(total / published - 1) > drift;
+			Path output = new Path(out, (snapshot ? "Snapshot" : "Update") + batch);
+			int written = snapshot ? names.size() : numChanged;
+			publish(output, snapshot);
+			if (snapshot) {
+				published = total;
+			}
+			System.out.println("Batch " + batch + ": " + applied + " of " + lines + " changes applied, " + (pushes - before) + " pushes, "
+					+ written + " ranks written to " + output + " in " + (System.nanoTime() - start) / 1000000 + " ms, error bound " + error());
+		}
+		if (!snapshot) {
+			// The input ended after a batch that wrote an update, or before any batch
+			publish(new Path(out, "Snapshot" + batch), true);
+		}
+	}
+
+	// Write "name rank" lines of the changed pages, or of all pages with the local top K candidates
+	private void publish(Path output, boolean all) throws IOException {
+		FileSystem fs = output.getFileSystem(conf);
+		Candidates candidates = new Candidates(conf);
+		try (PrintWriter writer = new PrintWriter(new OutputStreamWriter(fs.create(new Path(output, "part-r-00000")), "UTF-8"))) {
+			int n = all ? names.size() : numChanged;
+			for (int i = 0; i < n; i++) {
+				int u = all ? i : changed[i];
+				double rank = score[u] / total;
+				writer.print(names.get(u) + "\t" + rank + "\n");
+				if (all) {
+					candidates.add(names.get(u), rank);
+				}
+			}
+		}
+		if (all) {
+			try (PrintWriter writer = new PrintWriter(new OutputStreamWriter(fs.create(new Path(output, Candidates.OUTPUT+"-r-00000")), "UTF-8"))) {
+				candidates.write(writer);
+			}
+			if (conf.getBoolean(RankIndex.ENABLED, false)) {
+				RankIndex.build(conf, output, new Path(output, RankIndex.FILE));
+			}
+		}
+		for (int i = 0; i < numChanged; i++) {
+			isChanged[changed[i]] = false;
+		}
+		numChanged = 0;
+	}
+}
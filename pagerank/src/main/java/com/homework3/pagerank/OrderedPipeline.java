@@ -0,0 +1,70 @@
+package com.homework3.pagerank;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * Runs tasks on a pool of threads and hands their results to a consumer in submission order.
+ * At most a fixed number of tasks are in flight, submit() waits for the oldest one beyond
+ * that. With a single thread every task runs inline on the caller.
+ */
+public class OrderedPipeline<T> implements AutoCloseable {
+	private final ExecutorService pool;
+	private final ArrayDeque<Future<T>> pending = new ArrayDeque<Future<T>>();
+	private final int capacity;
+	private final Consumer<T> sink;
+
+	public OrderedPipeline(int threads, int capacity, Consumer<T> sink) {
+		pool = threads > 1 ? Executors.newFixedThreadPool(threads) : null;
+		this.capacity = capacity;
+		this.sink = sink;
+	}
+
+	public void submit(Callable<T> task) throws IOException {
+		if (pool == null) {
+			try {
+				sink.accept(task.call());
+			} catch (IOException | RuntimeException e) {
+				throw e;
+			} catch (Exception e) {
+				throw new IOException(e);
+			}
+			return;
+		}
+		if (pending.size() >= capacity) {
+			next();
+		}
+		pending.add(pool.submit(task));
+	}
+
+	// Wait for every submitted task and consume its result
+	public void finish() throws IOException {
+		while (!pending.isEmpty()) {
+			next();
+		}
+	}
+
+	private void next() throws IOException {
+		try {
+			sink.accept(pending.remove().get());
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException();
+		} catch (ExecutionException e) {
+			throw new IOException(e.getCause());
+		}
+	}
+
+	@Override
+	public void close() {
+		if (pool != null) {
+			pool.shutdownNow();
+		}
+	}
+}
@@ -1,23 +1,83 @@
 package com.homework3.pagerank;
 
+import java.io.IOException;
+
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.NullWritable;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.Counters;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.MultipleInputs;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
+import org.apache.hadoop.mapreduce.lib.partition.HashPartitioner;
 import org.apache.hadoop.util.GenericOptionsParser;
 
+import com.homework3.pagerank.Adaptive.AdaptiveCombiner;
+import com.homework3.pagerank.Adaptive.AdaptiveMapper;
+import com.homework3.pagerank.Adaptive.AdaptiveReducer;
+import com.homework3.pagerank.Adaptive.AdaptiveTextMapper;
+import com.homework3.pagerank.Adaptive.AdaptiveValue;
+import com.homework3.pagerank.Adjacency.BinaryInitialPgMapper;
+import com.homework3.pagerank.Adjacency.BinaryParserReducer;
 import com.homework3.pagerank.Adjacency.ParserInitialPgMapper;
 import com.homework3.pagerank.Adjacency.ParserMapper;
 import com.homework3.pagerank.Adjacency.ParserReducer;
+import com.homework3.pagerank.Blocked.BlockCombiner;
+import com.homework3.pagerank.Blocked.BlockMapper;
+import com.homework3.pagerank.Blocked.BlockReducer;
+import com.homework3.pagerank.Blocked.BlockValue;
+import com.homework3.pagerank.Blocked.SweepCounter;
+import com.homework3.pagerank.MonteCarlo.EstimateMapper;
+import com.homework3.pagerank.MonteCarlo.WalkCombiner;
+import com.homework3.pagerank.MonteCarlo.WalkMapper;
+import com.homework3.pagerank.MonteCarlo.WalkReducer;
+import com.homework3.pagerank.MonteCarlo.WalkValue;
+import com.homework3.pagerank.Pagerank.BinaryContributionCombiner;
+import com.homework3.pagerank.Pagerank.BinaryTextMapper;
+import com.homework3.pagerank.Pagerank.BinaryRankReducer;
+import com.homework3.pagerank.Pagerank.BinaryTokenizerMapper;
 import com.homework3.pagerank.Pagerank.Node;
-import com.homework3.pagerank.Pagerank.DeltaMapper;
+import com.homework3.pagerank.Pagerank.ContributionCombiner;
+import com.homework3.pagerank.Pagerank.IdContributionCombiner;
+import com.homework3.pagerank.Pagerank.IdRankReducer;
+import com.homework3.pagerank.Pagerank.IdTokenizerMapper;
 import com.homework3.pagerank.Pagerank.RankReducer;
 import com.homework3.pagerank.Pagerank.TokenizerMapper;
-import com.homework3.pagerank.TopK.TopKMapper;
-import com.homework3.pagerank.TopK.TopKReducer;
+import com.homework3.pagerank.Renumber.DictionaryJoinMapper;
+import com.homework3.pagerank.Renumber.DictionaryMapper;
+import com.homework3.pagerank.Renumber.EdgeReducer;
+import com.homework3.pagerank.Renumber.IdRankMapper;
+import com.homework3.pagerank.Renumber.IdGraphReducer;
+import com.homework3.pagerank.Renumber.NameJoinReducer;
+import com.homework3.pagerank.Renumber.RenumberCounter;
+import com.homework3.pagerank.Renumber.NameOrRank;
+import com.homework3.pagerank.Renumber.PartitionInputFormat;
+import com.homework3.pagerank.Schimmy.ContributionMapper;
+import com.homework3.pagerank.Schimmy.MergeReducer;
+import com.homework3.pagerank.Schimmy.SumCombiner;
+import com.homework3.pagerank.TopK.Candidates;
+import com.homework3.pagerank.WarmStart.BinaryGraphMapper;
+import com.homework3.pagerank.WarmStart.BinaryScaleMapper;
+import com.homework3.pagerank.WarmStart.IdGraphMapper;
+import com.homework3.pagerank.WarmStart.IdJoinReducer;
+import com.homework3.pagerank.WarmStart.IdScaleReducer;
+import com.homework3.pagerank.WarmStart.JoinReducer;
+import com.homework3.pagerank.WarmStart.PageOrRank;
+import com.homework3.pagerank.WarmStart.PreviousRankMapper;
+import com.homework3.pagerank.WarmStart.TextGraphMapper;
+import com.homework3.pagerank.WarmStart.TextScaleMapper;
+import com.homework3.pagerank.WarmStart.WarmStartCounter;
 
 public class PageRankDriver {
 
@@ -26,109 +86,670 @@ public class PageRankDriver {
         Configuration conf = new Configuration();
         conf.setDouble("alpha", 0.15);
         String[] otherArgs = new GenericOptionsParser(conf, args).getRemainingArgs();
+        System.exit(run(conf, otherArgs, new Metrics()));
+	}
+	
+	// Run the whole pipeline on the remaining arguments, recording every stage in metrics. Returns the exit code.
+	public static int run(Configuration conf, String[] otherArgs, Metrics metrics) throws Exception {
         if (otherArgs.length < 2) {
             System.err.println("Usage: pagerank <in> [<out>...] <out>");
-            System.exit(2);
+            return 2;
+        }
+        try {
+        	return pipeline(conf, otherArgs, metrics);
+        }
+        finally {
+        	// Failed runs report the stages that ran too, up to the one that failed
+        	if (!metrics.getStages().isEmpty()) {
+        		metrics.write(conf, new Path(otherArgs[otherArgs.length - 1]));
+        	}
+        }
+	}
+	
+	private static int pipeline(Configuration conf, String[] otherArgs, Metrics metrics) throws Exception {
+        // Keep the ID graph structure in place and shuffle only rank contributions
+        boolean schimmy = conf.getBoolean("pagerank.schimmy", false);
+        // Sweep blocks of consecutive page IDs inside the reducers, Schimmy takes precedence
+        boolean blocked = !schimmy && conf.getBoolean("pagerank.blocked", false);
+        // Run the iterations on dense integer page IDs, names are joined back at the end
+        boolean ids = schimmy || blocked || conf.getBoolean("pagerank.ids", false);
+        // Keep the graph as SequenceFiles of Vertex records between iterations
+        boolean binary = ids || conf.getBoolean("pagerank.binary", false);
+        String out = otherArgs[otherArgs.length - 1];
+        // Batched personalized page rank, one rank per seed set on the text pipeline
+        Personalization personalization = Personalization.load(conf);
+        if (personalization != null && (binary || conf.get(WarmStart.PREVIOUS) != null)) {
+        	System.err.println(Personalization.SEEDS + " runs on the text pipeline only, without " + WarmStart.PREVIOUS);
+        	return 2;
+        }
+        // Stop recomputing converged pages, on the text pipeline
+        boolean adaptive = conf.getBoolean(Adaptive.ENABLED, false);
+        if (adaptive && (binary || personalization != null)) {
+        	System.err.println(Adaptive.ENABLED + " runs on the text pipeline only, without " + Personalization.SEEDS);
+        	return 2;
+        }
+        // Estimate the ranks with random walks on the text pipeline
+        boolean montecarlo = conf.getBoolean(MonteCarlo.ENABLED, false);
+        if (montecarlo && (binary || adaptive || personalization != null || conf.get(WarmStart.PREVIOUS) != null)) {
+        	System.err.println(MonteCarlo.ENABLED + " runs on the text pipeline only, without " + Adaptive.ENABLED + ", " + Personalization.SEEDS + " or " + WarmStart.PREVIOUS);
+        	return 2;
+        }
+        // The final pass reads the output of the last iteration
+        if (conf.getInt(montecarlo ? MonteCarlo.ROUNDS : "pagerank.iterations.max", 10) < 1) {
+        	System.err.println((montecarlo ? MonteCarlo.ROUNDS : "pagerank.iterations.max") + " must be at least 1");
+        	return 2;
+        }
+        if (personalization != null && conf.getBoolean(RankIndex.ENABLED, false)) {
+        	System.err.println(RankIndex.ENABLED + " indexes a single rank per page, without " + Personalization.SEEDS);
+        	return 2;
+        }
+        // Extrapolate the ranks of the ID iterations every period iterations
+        int period = conf.getInt(Extrapolation.PERIOD, 0);
+        if (period > 0 && (!ids || schimmy || blocked || period < 3)) {
+        	System.err.println(Extrapolation.PERIOD + " needs pagerank.ids without Schimmy or blocked iterations and a period of at least 3");
+        	return 2;
+        }
+        // Small graphs run plain power iteration in one JVM
+        if (conf.getLong("pagerank.inmemory.threshold", 0) > 0 && (adaptive || montecarlo || period > 0)) {
+        	System.err.println("pagerank.inmemory.threshold runs plain power iteration, without " + Adaptive.ENABLED + ", " + MonteCarlo.ENABLED + " or " + Extrapolation.PERIOD);
+        	return 2;
         }
-        
-        // Preprocess the WIKI dump and create a graph with adjacency list
-        Job PreProcessjob = Job.getInstance(conf, "preprocess");
-        PreProcessjob.setJarByClass(Adjacency.class);
-        PreProcessjob.setMapperClass(ParserMapper.class);
-        PreProcessjob.setReducerClass(ParserReducer.class);
-        PreProcessjob.setOutputKeyClass(Text.class);
-        PreProcessjob.setOutputValueClass(Text.class);
-        FileInputFormat.addInputPath(PreProcessjob, new Path(otherArgs[0])); 
-        FileOutputFormat.setOutputPath(PreProcessjob,new Path(otherArgs[otherArgs.length - 1]+"/Graph"));
-        PreProcessjob.waitForCompletion(true);
-        
-        // Map-only job to initialize the pagerank values for the graph
-        Job Initialjob = Job.getInstance(conf, "InitialPagerank");
-        Initialjob.getConfiguration().setDouble("Pages", PreProcessjob.getCounters().findCounter(PageCount.Counter).getValue());
-        Initialjob.setJarByClass(Adjacency.class);
-        Initialjob.setMapperClass(ParserInitialPgMapper.class);
-        Initialjob.setOutputKeyClass(Text.class);
-        Initialjob.setOutputValueClass(Text.class);
-        FileInputFormat.addInputPath(Initialjob, new Path(otherArgs[otherArgs.length - 1]+"/Graph"));
-        FileOutputFormat.setOutputPath(Initialjob,new Path(otherArgs[otherArgs.length - 1]+"/InitialGraph"));
-        Initialjob.waitForCompletion(true);
 
-        // First Page rank iteration
-        Job job = Job.getInstance(conf, "pagerank");
-        job.getConfiguration().setDouble("delta", PreProcessjob.getCounters().findCounter(DeltaCounter.Counter).getValue());
-        job.getConfiguration().setDouble("Pages", PreProcessjob.getCounters().findCounter(PageCount.Counter).getValue());
-        job.setJarByClass(Pagerank.class);
-        job.setMapperClass(TokenizerMapper.class);
-        job.setReducerClass(RankReducer.class);
-        job.setOutputKeyClass(Text.class);
-        job.setOutputValueClass(Node.class);
-        FileInputFormat.addInputPath(job, new Path(otherArgs[otherArgs.length - 1]+"/InitialGraph"));
-        FileOutputFormat.setOutputPath(job,new Path(otherArgs[otherArgs.length - 1]+"/Output1"));
-        job.waitForCompletion(true);
+        // Progress of the run, a resumed run skips the stages its manifest records as complete
+        String mode = schimmy ? "schimmy" : blocked ? "blocked" : ids ? "ids" : binary ? "binary" : adaptive ? "adaptive" : montecarlo ? "montecarlo" : personalization != null ? "personalized" : "text";
+        Checkpoint checkpoint;
+        try {
+        	checkpoint = Checkpoint.open(conf, new Path(out), mode);
+        }
+        catch (IOException e) {
+        	System.err.println(e.getMessage());
+        	return 2;
+        }
+        Checkpoint.Stage stage = checkpoint.stage();
+        if (stage != Checkpoint.Stage.NONE) {
+        	System.out.println("Resuming after " + stage.name().toLowerCase() + (stage == Checkpoint.Stage.ITERATION ? " " + checkpoint.iteration() : ""));
+        }
         
-        String input=otherArgs[otherArgs.length - 1]+"/Output1";
-        String output=otherArgs[otherArgs.length - 1]+"/Output2";
-       
-        double del = job.getCounters().findCounter(DeltaCounter.Counter).getValue()/Math.pow(10, 10);
+        long pages;
+        // Pages in every Graph partition, for the ID ranges of renumbering
+        long[] partitionPages;
+        if (stage == Checkpoint.Stage.NONE) {
+	        // Preprocess the WIKI dump and create a graph with adjacency list
+	        Job PreProcessjob = Job.getInstance(conf, "preprocess");
+	        PreProcessjob.setJarByClass(Adjacency.class);
+	        PreProcessjob.setMapperClass(ParserMapper.class);
+	        PreProcessjob.setMapOutputKeyClass(Text.class);
+	        PreProcessjob.setMapOutputValueClass(Text.class);
+	        if (binary) {
+	        	PreProcessjob.setReducerClass(BinaryParserReducer.class);
+	        	PreProcessjob.setOutputKeyClass(Text.class);
+	        	PreProcessjob.setOutputValueClass(Vertex.class);
+	        	PreProcessjob.setOutputFormatClass(SequenceFileOutputFormat.class);
+	        }
+	        else {
+	        	PreProcessjob.setReducerClass(ParserReducer.class);
+	        	PreProcessjob.setOutputKeyClass(Text.class);
+	        	PreProcessjob.setOutputValueClass(Text.class);
+	        }
+	        FileInputFormat.addInputPath(PreProcessjob, new Path(otherArgs[0])); 
+	        FileOutputFormat.setOutputPath(PreProcessjob,new Path(otherArgs[otherArgs.length - 1]+"/Graph"));
+	        if (!metrics.run("preprocess", PreProcessjob)) {
+	        	return 1;
+	        }
+	        pages = PreProcessjob.getCounters().findCounter(PageCount.Counter).getValue();
+	        partitionPages = new long[PreProcessjob.getNumReduceTasks()];
+	        for (Counter c : PreProcessjob.getCounters().getGroup(Renumber.PARTITION_PAGES)) {
+	        	partitionPages[Integer.parseInt(c.getName())] = c.getValue();
+	        }
+	        checkpoint.preprocessed(pages, partitionPages);
+        }
+        else {
+        	pages = checkpoint.pages();
+        	partitionPages = checkpoint.partitionPages();
+        }
         
-        // Run through the remaining 9 iterations
-        for (int i =3 ; i<12; i++) {
-        	Job Nextjob = Job.getInstance(conf, "pagerank");
-         	Nextjob.getConfiguration().setDouble("delta",  del);
-         	Nextjob.getConfiguration().setDouble("Pages", PreProcessjob.getCounters().findCounter(PageCount.Counter).getValue());
-        	Nextjob.setJarByClass(Pagerank.class);
-        	Nextjob.setMapperClass(TokenizerMapper.class);
-        	Nextjob.setReducerClass(RankReducer.class);
-        	Nextjob.setOutputKeyClass(Text.class);
-        	Nextjob.setOutputValueClass(Node.class);
-            FileInputFormat.addInputPath(Nextjob, new Path(input));
-            FileOutputFormat.setOutputPath(Nextjob,new Path(output));
-            
-            input = output;
-            output= otherArgs[otherArgs.length - 1]+"/"+"Output"+i;
-            Nextjob.waitForCompletion(true);
-            del = Nextjob.getCounters().findCounter(DeltaCounter.Counter).getValue();
-            del = del / Math.pow(10, 10);
-            
+        if (personalization != null) {
+        	// Teleport only to seeds that are pages of the graph, the tasks read the resolved sets
+        	long start = System.currentTimeMillis();
+        	Path seeds = new Path(out+"/Seeds");
+        	int[] dropped;
+        	try {
+        		dropped = Personalization.resolve(conf, new Path(out+"/Graph"), seeds);
+        	}
+        	catch (IOException e) {
+        		System.err.println(e.getMessage());
+        		return 2;
+        	}
+        	for (int k = 0; k < dropped.length; k++) {
+        		if (dropped[k] > 0) {
+        			System.err.println("Seed set " + (k + 1) + ": " + dropped[k] + " seeds are not pages of the graph and were dropped");
+        		}
+        	}
+        	conf.set(Personalization.SEEDS, seeds.toString());
+        	metrics.record("seeds", start);
         }
         
-        input = otherArgs[otherArgs.length - 1]+"/"+"Output10";
-        output = otherArgs[otherArgs.length - 1]+"/"+"OutputFinal";
+        if (personalization == null && pages < conf.getLong("pagerank.inmemory.threshold", 0)) {
+        	// Small graph, run the iterations in this JVM instead of one job per iteration
+        	long start = System.currentTimeMillis();
+        	new InMemoryPageRank(conf).load(new Path(out+"/Graph")).run(out);
+        	metrics.record("inmemory", start);
+        	start = System.currentTimeMillis();
+        	TopK.merge(conf, new Path(out+"/OutputFinal/"+Candidates.OUTPUT+"-*"), TopK.output(conf, out));
+        	metrics.record("topk", start);
+        	index(conf, out, metrics);
+        	return 0;
+        }
         
-        // Final map job to distribute delta
-        Job finaljob = Job.getInstance(conf, "pagerank");
-        finaljob.getConfiguration().setDouble("delta",  del);
-        finaljob.getConfiguration().setDouble("Pages", PreProcessjob.getCounters().findCounter(PageCount.Counter).getValue());
-        finaljob.setJarByClass(Pagerank.class);
-        finaljob.setMapperClass(DeltaMapper.class);
-        finaljob.setOutputKeyClass(Text.class);
-        finaljob.setOutputValueClass(Text.class);
-        FileInputFormat.addInputPath(finaljob, new Path(input));
-        FileOutputFormat.setOutputPath(finaljob,new Path(output));
-        finaljob.waitForCompletion(true);
-       
-        input = otherArgs[otherArgs.length - 1]+"/"+"OutputFinal";
-        String finalOutput=otherArgs[otherArgs.length - 1]+"/"+"Top100";
+        // Iterations start from the initial graph at 1/N, or from the ranks of a previous run
+        String initial = out+"/InitialGraph";
+        if (stage.compareTo(Checkpoint.Stage.INITIAL) < 0) {
+	        // Keep linked pages on the same reducer of the name keyed iterations
+	        if (!ids && conf.getBoolean(Locality.ENABLED, false)) {
+	        	long start = System.currentTimeMillis();
+	        	Path assignment = new Path(out+"/Locality/assignment");
+	        	Locality.assign(conf, new Path(out+"/Graph"), assignment, partitionPages.length, pages);
+	        	conf.set(Locality.ASSIGNMENT, assignment.toString());
+	        	metrics.record("locality", start);
+	        }
+	        
+	        String previous = conf.get(WarmStart.PREVIOUS);
+	        if (ids) {
+	        	if (!renumber(conf, pages, partitionPages, out, metrics)) {
+	        		return 1;
+	        	}
+	        	if (previous != null) {
+	        		initial = warmStart(conf, pages, out, previous, binary, ids, metrics);
+	        		if (initial == null) {
+	        			return 1;
+	        		}
+	        	}
+	        }
+	        else if (previous != null) {
+	        	initial = warmStart(conf, pages, out, previous, binary, ids, metrics);
+	        	if (initial == null) {
+	        		return 1;
+	        	}
+	        }
+	        else if (montecarlo) {
+	        	// The walks start from the graph itself
+	        	initial = out+"/Graph";
+	        }
+	        else {
+		        // Map-only job to initialize the pagerank values for the graph
+		        Job Initialjob = Job.getInstance(conf, "InitialPagerank");
+		        Initialjob.getConfiguration().setDouble("Pages", pages);
+		        Initialjob.setJarByClass(Adjacency.class);
+		        if (binary) {
+		        	Initialjob.setMapperClass(BinaryInitialPgMapper.class);
+		        	Initialjob.setOutputKeyClass(Text.class);
+		        	Initialjob.setOutputValueClass(Vertex.class);
+		        	Initialjob.setInputFormatClass(SequenceFileInputFormat.class);
+		        	Initialjob.setOutputFormatClass(SequenceFileOutputFormat.class);
+		        	Initialjob.setNumReduceTasks(0);
+		        }
+		        else {
+		        	Initialjob.setMapperClass(ParserInitialPgMapper.class);
+		        	Initialjob.setOutputKeyClass(Text.class);
+		        	Initialjob.setOutputValueClass(Text.class);
+		        }
+		        FileInputFormat.addInputPath(Initialjob, new Path(otherArgs[otherArgs.length - 1]+"/Graph"));
+		        FileOutputFormat.setOutputPath(Initialjob,new Path(otherArgs[otherArgs.length - 1]+"/InitialGraph"));
+		        if (!metrics.run("initial", Initialjob)) {
+		        	return 1;
+		        }
+	        }
+	        checkpoint.initialized(initial, conf.get(Locality.ASSIGNMENT));
+        }
+        else {
+        	initial = checkpoint.initial();
+        	if (checkpoint.assignment() != null) {
+        		conf.set(Locality.ASSIGNMENT, checkpoint.assignment());
+        	}
+        }
+
+        // Iterate until the L1 rank change drops below the tolerance, within the iteration bounds
+        int minIterations = conf.getInt("pagerank.iterations.min", 1);
+        int maxIterations = montecarlo ? conf.getInt(MonteCarlo.ROUNDS, 10) : conf.getInt("pagerank.iterations.max", 10);
+        double tolerance = conf.getDouble("pagerank.tolerance", 0.0);
+        int keep = conf.getInt(Checkpoint.KEEP, 0);
+        String input = null;
+        String output;
+        // Rank mass of the previous blocked round
+        double mass = 1.0;
+        // Walks still going, those on pages with out-links and visits of all walks after the previous Monte Carlo round
+        long walks = -1;
+        long linked = 0;
+        long visits = 0;
+        int first = 1;
+        if (stage.compareTo(Checkpoint.Stage.ITERATION) >= 0) {
+        	input = checkpoint.output();
+        	mass = checkpoint.mass();
+        	first = checkpoint.iteration() + 1;
+        	if (montecarlo) {
+        		walks = Long.parseLong(checkpoint.get("walks"));
+        		visits = Long.parseLong(checkpoint.get("visits"));
+        		linked = Long.parseLong(checkpoint.get("linked"));
+        		if (walks == 0) {
+        			first = maxIterations + 1;
+        		}
+        	}
+        	else if (checkpoint.iteration() >= minIterations && checkpoint.l1() < tolerance) {
+        		first = maxIterations + 1;
+        	}
+        }
+        for (int i = first; i <= maxIterations && stage != Checkpoint.Stage.FINAL; i++) {
+        	Job job = Job.getInstance(conf, "pagerank");
+        	job.getConfiguration().setDouble("Pages", pages);
+        	job.getConfiguration().setDouble(Blocked.SCALE, 1.0 / mass);
+        	job.getConfiguration().setInt(MonteCarlo.ROUND, i);
+        	configureIteration(job, binary, ids, schimmy, blocked);
+        	if (period > 0) {
+        		// The sums the previous iteration wrote, if it was its turn
+        		double[] coefficients = input == null ? null : Extrapolation.solve(conf, new Path(input), pages);
+        		Extrapolation.configure(job.getConfiguration(), i, period, coefficients);
+        		if (coefficients != null) {
+        			System.out.println("Iteration " + i + ": extrapolated with coefficients " + coefficients[0] + ", " + coefficients[1] + ", " + coefficients[2]);
+        		}
+        	}
+        	setIterationInput(job, input, initial, schimmy);
+        	output = out+"/Output"+i;
+        	FileOutputFormat.setOutputPath(job,new Path(output));
+        	if (!metrics.iteration(i, job)) {
+        		return 1;
+        	}
+        	
+        	input = output;
+        	if (montecarlo) {
+        		walks = MonteCarlo.walks(job.getCounters());
+        		linked = MonteCarlo.linked(job.getCounters());
+        		visits = MonteCarlo.visits(job.getCounters());
+        		System.out.println("Round " + i + ": " + walks + " walks going on, " + visits + " visits");
+        		checkpoint.put("walks", Long.toString(walks));
+        		checkpoint.put("visits", Long.toString(visits));
+        		checkpoint.put("linked", Long.toString(linked));
+        		checkpoint.iterated(i, output, 0.0, mass);
+        		checkpoint.prune(i, keep);
+        		if (walks == 0) {
+        			break;
+        		}
+        		continue;
+        	}
+        	double del = job.getCounters().findCounter(DeltaCounter.Counter).getValue() / Math.pow(10, 10);
+        	double l1 = RankChange.l1(job.getCounters());
+        	System.out.println("Iteration " + i + ": dangling mass " + del + ", L1 change " + l1 + ", max change " + RankChange.max(job.getCounters()));
+        	if (blocked) {
+        		mass = Blocked.mass(job.getCounters());
+        		System.out.println("Iteration " + i + ": " + job.getCounters().findCounter(SweepCounter.Sweeps).getValue() + " sweeps over "
+        				+ job.getCounters().findCounter(SweepCounter.Blocks).getValue() + " blocks");
+        	}
+        	if (adaptive) {
+        		System.out.println("Iteration " + i + ": " + Adaptive.converged(job.getCounters()) + " of " + pages + " pages converged, "
+        				+ Adaptive.skipped(job.getCounters()) + " contributions skipped");
+        	}
+        	checkpoint.iterated(i, output, l1, mass);
+        	checkpoint.prune(i, keep);
+        	if (i >= minIterations && (l1 < tolerance || adaptive && Adaptive.converged(job.getCounters()) == pages)) {
+        		break;
+        	}
+        }
         
+        output = out+"/OutputFinal";
         
-        // Map-reduce to retrieve top 100 pages
-        Job TopJob = Job.getInstance(conf, "topk");
-        TopJob.setJarByClass(TopK.class);
-        TopJob.setMapperClass(TopKMapper.class);
-        TopJob.setReducerClass(TopKReducer.class);
-        TopJob.setOutputKeyClass(DoubleWritable.class);
-        TopJob.setNumReduceTasks(1);
-        TopJob.setOutputValueClass(Text.class);
-        FileInputFormat.addInputPath(TopJob, new Path(input));
+        if (stage == Checkpoint.Stage.FINAL) {
+        	// Only the top K merge was left
+        }
+        else if (binary) {
+        	// Final pass to write the text result, the ranks already include the dangling mass
+        	Job finaljob = Job.getInstance(conf, "pagerank");
+        	finaljob.setJarByClass(Pagerank.class);
+        	if (ids) {
+        		// Join the page names back, with the rank mass of the last blocked round scaled back to one
+        		finaljob.getConfiguration().setDouble(Blocked.SCALE, 1.0 / mass);
+        		MultipleInputs.addInputPath(finaljob, new Path(out+"/Renumber/"+Renumber.DICTIONARY+"-m-*"), SequenceFileInputFormat.class, DictionaryJoinMapper.class);
+        		MultipleInputs.addInputPath(finaljob, new Path(input+"/part-*"), SequenceFileInputFormat.class, IdRankMapper.class);
+        		finaljob.setReducerClass(NameJoinReducer.class);
+        		finaljob.setMapOutputKeyClass(IntWritable.class);
+        		finaljob.setMapOutputValueClass(NameOrRank.class);
+        	}
+        	else {
+        		finaljob.setMapperClass(BinaryTextMapper.class);
+        		finaljob.setInputFormatClass(SequenceFileInputFormat.class);
+        		finaljob.setNumReduceTasks(0);
+        		FileInputFormat.addInputPath(finaljob, new Path(input));
+        	}
+        	finaljob.setOutputKeyClass(Text.class);
+        	finaljob.setOutputValueClass(Text.class);
+        	MultipleOutputs.addNamedOutput(finaljob, Candidates.OUTPUT, TextOutputFormat.class, Text.class, DoubleWritable.class);
+        	FileOutputFormat.setOutputPath(finaljob,new Path(output));
+        	if (!metrics.run("final", finaljob)) {
+        		return 1;
+        	}
+        	long unnamed = ids ? finaljob.getCounters().findCounter(RenumberCounter.Unnamed).getValue() : 0;
+        	if (unnamed > 0) {
+        		System.err.println(unnamed + " ranks had no page name in the dictionary and were dropped");
+        	}
+        	checkpoint.finished(output);
+        }
+        else if (montecarlo) {
+        	// Final pass to turn the visits into ranks, with the top K candidates and the expected error
+        	Job finaljob = Job.getInstance(conf, "pagerank");
+        	// The walks the last round left going add their expected visits
+        	double tail = MonteCarlo.tail(walks, linked, conf.getDouble("alpha", 0.15));
+        	double estimated = linked * tail;
+        	finaljob.getConfiguration().setDouble(MonteCarlo.TAIL, tail);
+        	finaljob.getConfiguration().setDouble(MonteCarlo.VISITS, visits + estimated);
+        	finaljob.setJarByClass(MonteCarlo.class);
+        	finaljob.setMapperClass(EstimateMapper.class);
+        	finaljob.setNumReduceTasks(0);
+        	finaljob.setOutputKeyClass(Text.class);
+        	finaljob.setOutputValueClass(Text.class);
+        	MultipleOutputs.addNamedOutput(finaljob, Candidates.OUTPUT, TextOutputFormat.class, Text.class, DoubleWritable.class);
+        	FileInputFormat.addInputPath(finaljob, new Path(input+"/part-*"));
+        	FileOutputFormat.setOutputPath(finaljob,new Path(output));
+        	if (!metrics.run("final", finaljob)) {
+        		return 1;
+        	}
+        	System.out.println("Monte Carlo: " + pages * conf.getLong(MonteCarlo.WALKS, 10) + " walks, " + visits + " visits, expected L1 error "
+        			+ MonteCarlo.error(finaljob.getCounters()) + ", " + estimated / (visits + estimated)
+        			+ " of the visits estimated for the " + walks + " walks the last round left going");
+        	checkpoint.finished(output);
+        }
+        else if (adaptive) {
+        	// Final pass to write plain ranks without the convergence state, with the top K candidates
+        	Job finaljob = Job.getInstance(conf, "pagerank");
+        	finaljob.setJarByClass(Adaptive.class);
+        	finaljob.setMapperClass(AdaptiveTextMapper.class);
+        	finaljob.setNumReduceTasks(0);
+        	finaljob.setOutputKeyClass(Text.class);
+        	finaljob.setOutputValueClass(Text.class);
+        	MultipleOutputs.addNamedOutput(finaljob, Candidates.OUTPUT, TextOutputFormat.class, Text.class, DoubleWritable.class);
+        	FileInputFormat.addInputPath(finaljob, new Path(Adaptive.pages(input)));
+        	FileOutputFormat.setOutputPath(finaljob,new Path(output));
+        	if (!metrics.run("final", finaljob)) {
+        		return 1;
+        	}
+        	checkpoint.finished(output);
+        }
+        else {
+        	// The last text iteration already holds the final ranks and its top K candidates
+        	FileSystem fs = FileSystem.get(conf);
+        	// A rename onto an existing directory would move the iteration inside it
+        	if (fs.exists(new Path(output))) {
+        		System.err.println(output + " already exists");
+        		return 1;
+        	}
+        	if (!fs.rename(new Path(input), new Path(output))) {
+        		System.err.println("Cannot move " + input + " to " + output);
+        		return 1;
+        	}
+        	checkpoint.finished(output);
+        }
         
-        FileOutputFormat.setOutputPath(TopJob,new Path(finalOutput));
-        TopJob.waitForCompletion(true);
+        // Merge the local top K pages of the final pass, one directory per vector with personalization
+        long start = System.currentTimeMillis();
+        if (personalization == null) {
+        	TopK.merge(conf, new Path(output+"/"+Candidates.OUTPUT+"-*"), TopK.output(conf, out));
+        }
+        else {
+        	for (int k = 0; k < personalization.width(); k++) {
+        		TopK.merge(conf, new Path(output+"/"+Candidates.OUTPUT+k+"-*"), new Path(TopK.output(conf, out), Integer.toString(k)));
+        	}
+        }
+        metrics.record("topk", start);
+        index(conf, out, metrics);
+        if (conf.getBoolean(Checkpoint.CLEANUP, false)) {
+        	checkpoint.cleanup();
+        }
         
-        System.exit(0);
+        return 0;
         
         
 	}
 	
+	// Build the memory-mapped rank index of OutputFinal if it is enabled
+	private static void index(Configuration conf, String out, Metrics metrics) throws Exception {
+		if (conf.getBoolean(RankIndex.ENABLED, false)) {
+			long start = System.currentTimeMillis();
+			RankIndex.build(conf, new Path(out+"/OutputFinal"), new Path(out, RankIndex.FILE));
+			metrics.record("index", start);
+		}
+	}
+	
+	// Assign dense page IDs, write the ID dictionary and build the initial ID graph. False if a job failed.
+	private static boolean renumber(Configuration conf, long numPages, long[] pages, String out, Metrics metrics) throws Exception {
+		// Prefix sums of the per-partition page counts give the first ID of every partition
+		int partitions = pages.length;
+		String[] offsets = new String[partitions];
+		long next = 0;
+		for (int p = 0; p < partitions; p++) {
+			offsets[p] = Long.toString(next);
+			next += pages[p];
+		}
+		
+		// Map each Graph partition in order to hand out IDs and resolve every edge to (source, target)
+		Job Dictionaryjob = Job.getInstance(conf, "renumber");
+		Dictionaryjob.getConfiguration().setStrings("pagerank.id.offsets", offsets);
+		Dictionaryjob.setJarByClass(Renumber.class);
+		Dictionaryjob.setMapperClass(DictionaryMapper.class);
+		Dictionaryjob.setReducerClass(EdgeReducer.class);
+		Dictionaryjob.setMapOutputKeyClass(Text.class);
+		Dictionaryjob.setMapOutputValueClass(IntWritable.class);
+		Dictionaryjob.setOutputKeyClass(IntWritable.class);
+		Dictionaryjob.setOutputValueClass(IntWritable.class);
+		Dictionaryjob.setInputFormatClass(PartitionInputFormat.class);
+		Dictionaryjob.setOutputFormatClass(SequenceFileOutputFormat.class);
+		MultipleOutputs.addNamedOutput(Dictionaryjob, Renumber.DICTIONARY, SequenceFileOutputFormat.class, IntWritable.class, Text.class);
+		FileInputFormat.addInputPath(Dictionaryjob, new Path(out+"/Graph"));
+		FileOutputFormat.setOutputPath(Dictionaryjob, new Path(out+"/Renumber"));
+		if (!metrics.run("renumber", Dictionaryjob)) {
+			return false;
+		}
+		
+		// Group the edges by source ID into the initial ID graph
+		Job Initialjob = Job.getInstance(conf, "InitialPagerank");
+		Initialjob.getConfiguration().setDouble("Pages", numPages);
+		Initialjob.setJarByClass(Renumber.class);
+		Initialjob.setReducerClass(IdGraphReducer.class);
+		Initialjob.setMapOutputKeyClass(IntWritable.class);
+		Initialjob.setMapOutputValueClass(IntWritable.class);
+		Initialjob.setOutputKeyClass(IntWritable.class);
+		Initialjob.setOutputValueClass(IdVertex.class);
+		Initialjob.setInputFormatClass(SequenceFileInputFormat.class);
+		Initialjob.setOutputFormatClass(SequenceFileOutputFormat.class);
+		FileInputFormat.addInputPath(Initialjob, new Path(out+"/Renumber/part-r-*"));
+		FileOutputFormat.setOutputPath(Initialjob, new Path(out+"/InitialGraph"));
+		return metrics.run("initial", Initialjob);
+	}
+	
+	// Join the previous OutputFinal with the new graph and scale the joined ranks to sum to one.
+	// Returns the graph the iterations start from, null if a job failed or no rank mass was carried over.
+	private static String warmStart(Configuration conf, long numPages, String out, String previous, boolean binary, boolean ids, Metrics metrics) throws Exception {
+		double pages = numPages;
+		
+		// Join by page name, the ID modes resolve the names through the dictionary
+		Job Joinjob = Job.getInstance(conf, "warmstart");
+		Joinjob.getConfiguration().setDouble("Pages", pages);
+		Joinjob.setJarByClass(WarmStart.class);
+		MultipleInputs.addInputPath(Joinjob, new Path(previous+"/part-*"), TextInputFormat.class, PreviousRankMapper.class);
+		if (ids) {
+			MultipleInputs.addInputPath(Joinjob, new Path(out+"/Renumber/"+Renumber.DICTIONARY+"-m-*"), SequenceFileInputFormat.class, WarmStart.DictionaryMapper.class);
+			Joinjob.setReducerClass(IdJoinReducer.class);
+			Joinjob.setOutputKeyClass(IntWritable.class);
+			Joinjob.setOutputValueClass(DoubleWritable.class);
+		}
+		else {
+			if (binary) {
+				MultipleInputs.addInputPath(Joinjob, new Path(out+"/Graph"), SequenceFileInputFormat.class, BinaryGraphMapper.class);
+			}
+			else {
+				MultipleInputs.addInputPath(Joinjob, new Path(out+"/Graph"), TextInputFormat.class, TextGraphMapper.class);
+			}
+			Joinjob.setReducerClass(JoinReducer.class);
+			Joinjob.setOutputKeyClass(Text.class);
+			Joinjob.setOutputValueClass(Vertex.class);
+		}
+		Joinjob.setMapOutputKeyClass(Text.class);
+		Joinjob.setMapOutputValueClass(PageOrRank.class);
+		Joinjob.setOutputFormatClass(SequenceFileOutputFormat.class);
+		FileOutputFormat.setOutputPath(Joinjob, new Path(out+"/WarmStart"));
+		if (!metrics.run("warmstart", Joinjob)) {
+			return null;
+		}
+		
+		Counters counters = Joinjob.getCounters();
+		double mass = WarmStart.mass(counters);
+		System.out.println("Warm start: " + counters.findCounter(WarmStartCounter.Retained).getValue() + " pages kept, "
+				+ counters.findCounter(WarmStartCounter.New).getValue() + " new, "
+				+ counters.findCounter(WarmStartCounter.Removed).getValue() + " removed, rank mass " + mass);
+		if (!(mass > 0)) {
+			System.err.println("Warm start: no rank mass of " + previous + " was joined, the ranks cannot be scaled");
+			return null;
+		}
+		
+		// Scale the joined ranks so they sum to one
+		Job Scalejob = Job.getInstance(conf, "InitialPagerank");
+		Scalejob.getConfiguration().setDouble("Pages", pages);
+		Scalejob.getConfiguration().setDouble(WarmStart.SCALE, 1.0 / mass);
+		Scalejob.setJarByClass(WarmStart.class);
+		if (ids) {
+			// Same partitions and order as InitialGraph, which Schimmy relies on
+			MultipleInputs.addInputPath(Scalejob, new Path(out+"/InitialGraph"), SequenceFileInputFormat.class, IdGraphMapper.class);
+			MultipleInputs.addInputPath(Scalejob, new Path(out+"/WarmStart"), SequenceFileInputFormat.class, WarmStart.IdRankMapper.class);
+			Scalejob.setReducerClass(IdScaleReducer.class);
+			Scalejob.setPartitionerClass(DanglingMass.IdPartitioner.class);
+			Scalejob.setMapOutputKeyClass(IntWritable.class);
+			Scalejob.setMapOutputValueClass(PageOrRank.class);
+			Scalejob.setOutputKeyClass(IntWritable.class);
+			Scalejob.setOutputValueClass(IdVertex.class);
+			Scalejob.setOutputFormatClass(SequenceFileOutputFormat.class);
+		}
+		else {
+			Scalejob.setInputFormatClass(SequenceFileInputFormat.class);
+			FileInputFormat.addInputPath(Scalejob, new Path(out+"/WarmStart"));
+			Scalejob.setNumReduceTasks(0);
+			if (binary) {
+				Scalejob.setMapperClass(BinaryScaleMapper.class);
+				Scalejob.setOutputKeyClass(Text.class);
+				Scalejob.setOutputValueClass(Vertex.class);
+				Scalejob.setOutputFormatClass(SequenceFileOutputFormat.class);
+			}
+			else {
+				Scalejob.setMapperClass(TextScaleMapper.class);
+				Scalejob.setOutputKeyClass(Text.class);
+				Scalejob.setOutputValueClass(Text.class);
+			}
+		}
+		FileOutputFormat.setOutputPath(Scalejob, new Path(out+"/WarmGraph"));
+		if (!metrics.run("warmstart scale", Scalejob)) {
+			return null;
+		}
+		return out+"/WarmGraph";
+	}
+	
+	// Input of an iteration: the previous output, or the graph structure plus the previous ranks for Schimmy
+	private static void setIterationInput(Job job, String previous, String initial, boolean schimmy) throws Exception {
+		if (schimmy) {
+			job.getConfiguration().set(Schimmy.GRAPH, initial);
+			if (previous != null) {
+				job.getConfiguration().set(Schimmy.RANKS, previous);
+			}
+			FileInputFormat.addInputPath(job, new Path(initial));
+		}
+		else if (job.getConfiguration().getBoolean(Adaptive.ENABLED, false)) {
+			FileInputFormat.addInputPath(job, new Path(Adaptive.pages(previous == null ? initial : previous)));
+		}
+		// Only the part files, text iterations also write their top K candidates next to them
+		else FileInputFormat.addInputPath(job, new Path((previous == null ? initial : previous)+"/part-*"));
+	}
+	
+	// Page rank iteration, over text lines, binary Vertex records or IdVertex records
+	private static void configureIteration(Job job, boolean binary, boolean ids, boolean schimmy, boolean blocked) {
+		job.setJarByClass(Pagerank.class);
+		if (blocked) {
+			job.setMapperClass(BlockMapper.class);
+			job.setCombinerClass(BlockCombiner.class);
+			job.setPartitionerClass(DanglingMass.IdPartitioner.class);
+			job.setReducerClass(BlockReducer.class);
+			job.setMapOutputKeyClass(IntWritable.class);
+			job.setMapOutputValueClass(BlockValue.class);
+			job.setOutputKeyClass(IntWritable.class);
+			job.setOutputValueClass(IdVertex.class);
+			job.setInputFormatClass(SequenceFileInputFormat.class);
+			job.setOutputFormatClass(SequenceFileOutputFormat.class);
+		}
+		else if (schimmy) {
+			job.setMapperClass(ContributionMapper.class);
+			job.setCombinerClass(SumCombiner.class);
+			job.setPartitionerClass(DanglingMass.IdPartitioner.class);
+			job.setReducerClass(MergeReducer.class);
+			job.setMapOutputKeyClass(IntWritable.class);
+			job.setMapOutputValueClass(DoubleWritable.class);
+			job.setOutputKeyClass(IntWritable.class);
+			job.setOutputValueClass(IdVertex.class);
+			// One mapper per structure partition, in the same order as the reducers
+			job.setInputFormatClass(PartitionInputFormat.class);
+			job.setOutputFormatClass(SequenceFileOutputFormat.class);
+		}
+		else if (ids) {
+			job.setMapperClass(IdTokenizerMapper.class);
+			job.setCombinerClass(IdContributionCombiner.class);
+			job.setPartitionerClass(DanglingMass.IdPartitioner.class);
+			job.setReducerClass(IdRankReducer.class);
+			if (job.getConfiguration().getInt(Extrapolation.PERIOD, 0) > 0) {
+				MultipleOutputs.addNamedOutput(job, Extrapolation.OUTPUT, TextOutputFormat.class, NullWritable.class, Text.class);
+			}
+			job.setMapOutputKeyClass(IntWritable.class);
+			job.setMapOutputValueClass(IdVertex.class);
+			job.setOutputKeyClass(IntWritable.class);
+			job.setOutputValueClass(IdVertex.class);
+			job.setInputFormatClass(SequenceFileInputFormat.class);
+			job.setOutputFormatClass(SequenceFileOutputFormat.class);
+		}
+		else if (binary) {
+			job.setMapperClass(BinaryTokenizerMapper.class);
+			job.setCombinerClass(BinaryContributionCombiner.class);
+			job.setPartitionerClass(job.getConfiguration().get(Locality.ASSIGNMENT) == null ? DanglingMass.TextPartitioner.class : Locality.LocalityPartitioner.class);
+			job.setReducerClass(BinaryRankReducer.class);
+			job.setMapOutputKeyClass(Text.class);
+			job.setMapOutputValueClass(Vertex.class);
+			job.setOutputKeyClass(Text.class);
+			job.setOutputValueClass(Vertex.class);
+			job.setInputFormatClass(SequenceFileInputFormat.class);
+			job.setOutputFormatClass(SequenceFileOutputFormat.class);
+		}
+		else if (job.getConfiguration().getBoolean(MonteCarlo.ENABLED, false)) {
+			job.setMapperClass(WalkMapper.class);
+			job.setCombinerClass(WalkCombiner.class);
+			job.setPartitionerClass(job.getConfiguration().get(Locality.ASSIGNMENT) == null ? HashPartitioner.class : Locality.LocalityPartitioner.class);
+			job.setReducerClass(WalkReducer.class);
+			job.setMapOutputKeyClass(Text.class);
+			job.setMapOutputValueClass(WalkValue.class);
+			job.setOutputKeyClass(Text.class);
+			job.setOutputValueClass(Text.class);
+		}
+		else if (job.getConfiguration().getBoolean(Adaptive.ENABLED, false)) {
+			job.setMapperClass(AdaptiveMapper.class);
+			job.setCombinerClass(AdaptiveCombiner.class);
+			job.setPartitionerClass(job.getConfiguration().get(Locality.ASSIGNMENT) == null ? DanglingMass.TextPartitioner.class : Locality.LocalityPartitioner.class);
+			job.setReducerClass(AdaptiveReducer.class);
+			MultipleOutputs.addNamedOutput(job, Adaptive.FROZEN, TextOutputFormat.class, Text.class, Text.class);
+			job.setMapOutputKeyClass(Text.class);
+			job.setMapOutputValueClass(AdaptiveValue.class);
+			job.setOutputKeyClass(Text.class);
+			job.setOutputValueClass(Text.class);
+		}
+		else {
+			job.setMapperClass(TokenizerMapper.class);
+			job.setCombinerClass(ContributionCombiner.class);
+			job.setPartitionerClass(job.getConfiguration().get(Locality.ASSIGNMENT) == null ? DanglingMass.TextPartitioner.class : Locality.LocalityPartitioner.class);
+			job.setReducerClass(RankReducer.class);
+			MultipleOutputs.addNamedOutput(job, Candidates.OUTPUT, TextOutputFormat.class, Text.class, DoubleWritable.class);
+			job.setOutputKeyClass(Text.class);
+			job.setOutputValueClass(Node.class);
+		}
+	}
+	
 	public enum DeltaCounter{
 		Counter
 	}
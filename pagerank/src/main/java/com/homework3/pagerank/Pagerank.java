@@ -5,45 +5,53 @@ import java.io.DataOutput;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
 import org.apache.hadoop.mapreduce.Mapper;
 import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
 
-import com.homework3.pagerank.PageRankDriver.DeltaCounter;
+import com.homework3.pagerank.TopK.Candidates;
 
 public class Pagerank {
 	
-	// Custom class Node which stores a page, page rank and its adjacency list
+	// Custom class Node which stores a page, page rank and its adjacency list.
+	// On the wire it is a one-byte tag followed by the rank and, for a page with out-links, its
+	// adjacency list. The page name is not written, it always travels as the key.
+	// A node of personalized page rank carries one rank per vector, its tag is offset by VECTOR
+	// and followed by the number of ranks and the ranks.
 	public static class Node implements Writable {
-		private Text name;
-		private DoubleWritable rank;
-		private Text adj;
-		private DoubleWritable otherRank;
-		private Text flag;
+		private static final byte CONTRIBUTION = 0;
+		private static final byte PAGE = 1;
+		private static final byte PAGE_WITH_LINKS = 2;
+		private static final byte VECTOR = 3;
+		
+		private Text name = new Text();
+		private DoubleWritable rank = new DoubleWritable();
+		private Text adj = new Text();
+		private DoubleWritable otherRank = new DoubleWritable();
+		private byte type;
+		// Ranks or contributions of every vector, used when width > 1
+		private double[] values = new double[0];
+		private int width = 1;
 		
 		public Node() {	
-			name = new Text();
-			rank = new DoubleWritable();
-			otherRank = new DoubleWritable();
-			adj = new Text();
-			flag = new Text();
 		}
 		
 		public Node(DoubleWritable w) {
-			this.flag = new Text("False");
-			this.otherRank = w;
+			setContribution(w.get());
 		}
 		
 		public Node(Text n, DoubleWritable r, Text a) {
-			this.flag = new Text("True");
-			this.name =n;
-			this.rank =r;
-			this.adj =a;
+			setPage(n.toString(), r.get(), a == null ? null : a.toString());
 		}
 	
 		public Text getNodeName() {
@@ -54,149 +62,636 @@ public class Pagerank {
 			return rank;
 		}
 
+		// Adjacency list, null for a page without out-links
 		public Text getAdjList() {
-			return adj;
+			return type == PAGE_WITH_LINKS ? adj : null;
 		}
 		
 		public DoubleWritable getOtherRank() {
 			return otherRank;
 		}
 		
-		public Text getNodeType() {
-			return flag;
+		// True for a page, false for a rank contribution
+		public boolean isNode() {
+			return type != CONTRIBUTION;
+		}
+		
+		// Number of ranks, one per personalized vector
+		public int getWidth() {
+			return width;
+		}
+		
+		// Rank or contribution of vector i
+		public double get(int i) {
+			if (width == 1) {
+				return type == CONTRIBUTION ? otherRank.get() : rank.get();
+			}
+			return values[i];
+		}
+		
+		// Turn this node into a page, reusing its fields; a null adjacency list means no out-links
+		public Node setPage(String n, double r, String a) {
+			type = a == null ? PAGE : PAGE_WITH_LINKS;
+			width = 1;
+			name.set(n);
+			rank.set(r);
+			if (a != null) {
+				adj.set(a);
+			}
+			return this;
+		}
+		
+		// Turn this node into a page with the first k ranks of r
+		public Node setPage(String n, double[] r, int k, String a) {
+			if (k == 1) {
+				return setPage(n, r[0], a);
+			}
+			setPage(n, 0.0, a);
+			setValues(r, k);
+			return this;
+		}
+		
+		// Turn this node into a rank contribution, reusing its fields
+		public Node setContribution(double r) {
+			type = CONTRIBUTION;
+			width = 1;
+			otherRank.set(r);
+			return this;
+		}
+		
+		// Turn this node into the contributions of the first k vectors of c
+		public Node setContribution(double[] c, int k) {
+			if (k == 1) {
+				return setContribution(c[0]);
+			}
+			type = CONTRIBUTION;
+			setValues(c, k);
+			return this;
+		}
+		
+		private void setValues(double[] v, int k) {
+			if (values.length < k) {
+				values = new double[k];
+			}
+			System.arraycopy(v, 0, values, 0, k);
+			width = k;
 		}
 		
 		@Override
 		public void write(DataOutput out) throws IOException {
-			flag.write(out);
-			if (flag.toString().equals("True")) {
-				name.write(out);
-				rank.write(out);
-				if(adj != null) {
-					(new Text("False")).write(out);
-					adj.write(out);
+			if (width > 1) {
+				out.writeByte(type + VECTOR);
+				WritableUtils.writeVInt(out, width);
+				for (int i = 0; i < width; i++) {
+					out.writeDouble(values[i]);
 				}
-				else {
-					(new Text("True")).write(out);
+				if (type == PAGE_WITH_LINKS) {
+					adj.write(out);
 				}
-					
+				return;
+			}
+			out.writeByte(type);
+			if (type == CONTRIBUTION) {
+				otherRank.write(out);
+				return;
+			}
+			rank.write(out);
+			if (type == PAGE_WITH_LINKS) {
+				adj.write(out);
 			}
-			else otherRank.write(out);			
 		}
 		
 		@Override
 		public void readFields(DataInput in) throws IOException {
-			flag.readFields(in);
-			Text adjNullFlag = new Text();
-			if (flag.toString().equals("True")) {
-				name.readFields(in);
-				rank.readFields(in);
-				adjNullFlag.readFields(in);
-				
-				if(adjNullFlag.toString().equals("False")) {
+			type = in.readByte();
+			if (type >= VECTOR) {
+				type -= VECTOR;
+				width = WritableUtils.readVInt(in);
+				if (values.length < width) {
+					values = new double[width];
+				}
+				for (int i = 0; i < width; i++) {
+					values[i] = in.readDouble();
+				}
+				if (type == PAGE_WITH_LINKS) {
 					adj.readFields(in);
 				}
-				else
-					adj= new Text();
+				return;
+			}
+			width = 1;
+			if (type == CONTRIBUTION) {
+				otherRank.readFields(in);
+				return;
+			}
+			rank.readFields(in);
+			if (type == PAGE_WITH_LINKS) {
+				adj.readFields(in);
 			}
-			else otherRank.readFields(in);
 		}
 		
 		
 		public void setPagerank(double r) {
-			rank = new DoubleWritable(r);
+			rank.set(r);
 		}
 	}
 	
 	
 	// Mapper class as per Professor slides V2
 	public static class TokenizerMapper extends Mapper<Object, Text, Text, Node> {
+		// Contributions summed per target page when in-mapper combining is on
+		private Map<String, double[]> buffer;
+		private int capacity;
+		private DanglingMass dangling = new DanglingMass();
+		// One rank per personalized vector, a single one without personalization
+		private int width = 1;
+		private double[] ranks = new double[1];
+		private double[] shares = new double[1];
+		private double[] danglingRanks = new double[1];
+		// Reused for every record
+		private Node n = new Node();
+		private Node contribution = new Node();
+		private Text target = new Text();
+		
+		protected void setup(Context context) throws IOException,InterruptedException  {
+			Configuration conf = context.getConfiguration();
+			if (conf.getBoolean("pagerank.inmapper", false)) {
+				capacity = conf.getInt("pagerank.inmapper.capacity", 100000);
+				buffer = new HashMap<String, double[]>();
+			}
+			Personalization personalization = Personalization.load(conf);
+			if (personalization != null) {
+				width = personalization.width();
+				ranks = new double[width];
+				shares = new double[width];
+				danglingRanks = new double[width];
+			}
+		}
+		
 		public void map(Object key, Text value, Context context) throws IOException, InterruptedException {
 			List<String> tokens = new ArrayList<String>();
-			Configuration conf = context.getConfiguration();
-			double alpha =conf.getDouble("alpha",0.0);
-			double pageNum = conf.getDouble("Pages", 0.0);
-			double delta = conf.getDouble("delta", 0.0);
-			Text adjList;
 			tokens = Arrays.asList(value.toString().split("\\s+"));
-			if (tokens.size() <=2) {
-				adjList=null;
-				}
-			else {
-				adjList = new Text(tokens.get(2));
-			}
+			String adjList = tokens.size() <= 2 ? null : tokens.get(2);
 			
-			Node n = new Node(new Text(tokens.get(0)),new DoubleWritable(Double.parseDouble(tokens.get(1))), adjList);
-			double newPgr = n.getRank().get() + ((1-alpha)*delta)/pageNum;
-			n.setPagerank(newPgr);
+			Personalization.parse(tokens.get(1), ranks, width);
+			n.setPage(tokens.get(0), ranks, width, adjList);
 			context.write(n.getNodeName(), n);
 			
-			if(n.getAdjList()!=null) {
-				String[] list= n.getAdjList().toString().split("~");
+			if(adjList!=null) {
+				String[] list= adjList.split("~");
 				int count = list.length;
-				Double contributions =Double.parseDouble(n.getRank().toString())/(double) count;
+				for (int k = 0; k < width; k++) {
+					shares[k] = ranks[k]/(double) count;
+				}
+				contribution.setContribution(shares, width);
 				for (String each: list) {
-					Node newNode = new Node(new DoubleWritable(contributions));
-					context.write(new Text(each), newNode);
+					if (buffer != null) {
+						double[] sum = buffer.get(each);
+						if (sum == null) {
+							sum = new double[width];
+							buffer.put(each, sum);
+						}
+						for (int k = 0; k < width; k++) {
+							sum[k] += shares[k];
+						}
+						continue;
+					}
+					target.set(each);
+					context.write(target, contribution);
+				}
+				if (buffer != null && buffer.size() >= capacity) {
+					flush(context);
 				}
 			}
 			else {
-				long rank = (long) (Math.pow(10, 10) * n.getRank().get());
-				context.getCounter(DeltaCounter.Counter).increment(rank);
+				// The counter reports the dangling mass of the first vector
+				dangling.add(ranks[0]);
+				for (int k = 0; k < width; k++) {
+					danglingRanks[k] += ranks[k];
+				}
 			}
 		}
+		
+		protected void cleanup(Context context) throws IOException, InterruptedException {
+			if (buffer != null) {
+				flush(context);
+			}
+			dangling.emitText(context, contribution.setContribution(danglingRanks, width));
+		}
+		
+		// Emit one summed contribution per buffered target page
+		private void flush(Context context) throws IOException, InterruptedException {
+			for (Map.Entry<String, double[]> each : buffer.entrySet()) {
+				target.set(each.getKey());
+				context.write(target, contribution.setContribution(each.getValue(), width));
+			}
+			buffer.clear();
+		}
 	}
 	
+	// Combiner that sums the contributions to a page and passes its structure node through
+	public static class ContributionCombiner extends Reducer<Text, Node, Text, Node> {
+		private Node contribution = new Node();
+		private double[] S = new double[1];
+		
+		public void reduce(Text key, Iterable<Node> values, Context context) throws IOException, InterruptedException {
+			// Number of ranks of the contributions, 0 until the first one
+			int width = 0;
+			for (Node value : values) {
+				if(value.isNode()) {
+					context.write(key, value);
+				}
+				else {
+					if (width == 0) {
+						width = value.getWidth();
+						if (S.length < width) {
+							S = new double[width];
+						}
+						Arrays.fill(S, 0, width, 0.0);
+					}
+					for (int k = 0; k < width; k++) {
+						S[k]+= value.get(k);
+					}
+				}
+			}
+			if (width > 0) {
+				context.write(key, contribution.setContribution(S, width));
+			}
+		}
+	}
 	
-	// Mapper to distribute the final delta values to all pagerank
-	public static class DeltaMapper extends Mapper<Object, Text, Text, Text> {
+	
+	// Mapper for the binary graph format, reads Vertex records without any string parsing
+	public static class BinaryTokenizerMapper extends Mapper<Text, Vertex, Text, Vertex> {
+		private Text target = new Text();
+		private Vertex contribution = new Vertex();
+		private DanglingMass dangling = new DanglingMass();
 		
-		public void map(Object key, Text value, Context context) throws IOException, InterruptedException {
-			List<String> tokens = new ArrayList<String>();
-			Configuration conf = context.getConfiguration();
-			double alpha =conf.getDouble("alpha",0.0);
-			double pageNum = conf.getDouble("Pages", 0.0);
-			double delta = conf.getDouble("delta", 0.0);
-			Text adjList;
-			tokens = Arrays.asList(value.toString().split("\\s+"));
-			double rank = Double.parseDouble(tokens.get(1));
-			double newPgr = rank + ((1-alpha)*delta)/pageNum;
-			if (tokens.size() <=2) {
-				context.write(new Text(tokens.get(0)), new Text(Double.toString(newPgr)));
+		public void map(Text key, Vertex value, Context context) throws IOException, InterruptedException {
+			double newPgr = value.getRank();
+			context.write(key, value);
+			
+			int count = value.getDegree();
+			if (count > 0) {
+				contribution.setContribution(newPgr/(double) count);
+				for (int i = 0; i < count; i++) {
+					target.set(value.getNeighbour(i));
+					context.write(target, contribution);
 				}
+			}
 			else {
-				adjList = new Text(tokens.get(2));
-				context.write(new Text(tokens.get(0)), new Text(Double.toString(newPgr)+" "+adjList));
+				dangling.add(newPgr);
+			}
+		}
+		
+		protected void cleanup(Context context) throws IOException, InterruptedException {
+			dangling.emitText(context, new Vertex().setContribution(dangling.get()));
+		}
+	}
+	
+	// Combiner that sums the contributions to a page and passes its Vertex structure through
+	public static class BinaryContributionCombiner extends Reducer<Text, Vertex, Text, Vertex> {
+		private Vertex contribution = new Vertex();
+		
+		public void reduce(Text key, Iterable<Vertex> values, Context context) throws IOException, InterruptedException {
+			double S=0.0;
+			boolean any = false;
+			for (Vertex value : values) {
+				if(!value.isContribution()) {
+					context.write(key, value);
+				}
+				else {
+					S+= value.getRank();
+					any = true;
+				}
+			}
+			if (any) {
+				context.write(key, contribution.setContribution(S));
 			}
-			
-			
-			
+		}
+	}
+	
+	// Mapper that writes the last binary iteration as the text result, with its local top K pages
+	public static class BinaryTextMapper extends Mapper<Text, Vertex, Text, Text> {
+		private MultipleOutputs<Text, Text> out;
+		private Candidates candidates;
+		
+		protected void setup(Context context) throws IOException,InterruptedException  {
+			out = new MultipleOutputs<Text, Text>(context);
+			candidates = new Candidates(context.getConfiguration());
+		}
+		
+		public void map(Text key, Vertex value, Context context) throws IOException, InterruptedException {
+			double newPgr = value.getRank();
+			candidates.add(key, newPgr);
+			if (value.getDegree() == 0) {
+				context.write(key, new Text(Double.toString(newPgr)));
+			}
+			else {
+				context.write(key, new Text(Double.toString(newPgr)+" "+value.adjToString()));
+			}
+		}
+		
+		protected void cleanup(Context context) throws IOException, InterruptedException {
+			candidates.write(out);
+			out.close();
 		}
 	}
 	
 	// Reducer task as per Professor slides V2
+	// Every iteration also writes its local top K pages, the last one becomes the final result.
+	// With personalization every vector jumps to its own seed pages and keeps its own top K pages.
 	public static class RankReducer extends Reducer<Text, Node, Text, Text> {
+		private static final Text EMPTY = new Text();
 		
-		private Node n = new Node();
+		private Text adjList = new Text();
+		private RankChange change = new RankChange();
+		private MultipleOutputs<Text, Text> out;
+		private Candidates[] candidates;
+		private Personalization personalization;
+		private int width = 1;
+		private double[] S;
+		private double[] ranks;
+		// Dangling mass of this iteration, received before the first page
+		private double[] dangling;
+		
+		protected void setup(Context context) throws IOException,InterruptedException  {
+			Configuration conf = context.getConfiguration();
+			out = new MultipleOutputs<Text, Text>(context);
+			personalization = Personalization.load(conf);
+			if (personalization != null) {
+				width = personalization.width();
+			}
+			candidates = new Candidates[width];
+			for (int k = 0; k < width; k++) {
+				candidates[k] = new Candidates(conf);
+			}
+			S = new double[width];
+			ranks = new double[width];
+			dangling = new double[width];
+		}
 		
 		public void reduce(Text key, Iterable<Node> values, Context context) throws IOException, InterruptedException {
-			double S=0.0;
+			Arrays.fill(S, 0.0);
 			Configuration conf = context.getConfiguration();
 			for (Node value : values) {
-				if(value.getNodeType().toString().equals("True")) {
-					n =value;
+				if(value.isNode()) {
+					// Values are reused by the framework, keep the rank and adjacency list of the page
+					for (int k = 0; k < width; k++) {
+						ranks[k] = value.get(k);
+					}
+					adjList.set(value.getAdjList() == null ? EMPTY : value.getAdjList());
 				}
 				else {
-					S+= value.getOtherRank().get();
+					for (int k = 0; k < width; k++) {
+						S[k]+= value.get(k);
+					}
 				}
 			}
+			if (DanglingMass.isMarker(key)) {
+				for (int k = 0; k < width; k++) {
+					dangling[k] += S[k];
+				}
+				return;
+			}
 			double alpha =conf.getDouble("alpha",0.0); 
 			double numPages = conf.getDouble("Pages", 0.0);
-			double newPagerank = (alpha/numPages) + ((1-alpha)*S);
-			n.setPagerank(newPagerank);
-			Text t = n.getAdjList();
+			double[] teleport = personalization == null ? null : personalization.teleport(key.toString());
+			for (int k = 0; k < width; k++) {
+				double newPagerank;
+				if (personalization == null) {
+					newPagerank = (alpha/numPages) + ((1-alpha)*(S[k] + dangling[k]/numPages));
+				}
+				else {
+					// Both the random jump and the dangling mass go to the seed pages of the vector
+					double jump = teleport == null ? 0.0 : teleport[k];
+					newPagerank = (alpha*jump) + ((1-alpha)*(S[k] + dangling[k]*jump));
+				}
+				change.add(ranks[k], newPagerank);
+				ranks[k] = newPagerank;
+				candidates[k].add(key, newPagerank);
+			}
 
-			context.write(key, new Text(n.getRank()+ " "+ t));
+			String rank = Personalization.format(ranks, width);
+			if (adjList.getLength() == 0) {
+				context.write(key, new Text(rank));
+			}
+			else context.write(key, new Text(rank+ " "+ adjList));
+		}
+		
+		protected void cleanup(Context context) throws IOException, InterruptedException {
+			change.report(context);
+			if (personalization == null) {
+				candidates[0].write(out);
+			}
+			else {
+				for (int k = 0; k < width; k++) {
+					candidates[k].write(out, k);
+				}
+			}
+			out.close();
 		}
 	}	
+
+	// Reducer for the binary graph format, writes Vertex records for the next iteration
+	public static class BinaryRankReducer extends Reducer<Text, Vertex, Text, Vertex> {
+		
+		private Vertex n = new Vertex();
+		private RankChange change = new RankChange();
+		// Dangling mass of this iteration, received before the first page
+		private double dangling;
+		
+		public void reduce(Text key, Iterable<Vertex> values, Context context) throws IOException, InterruptedException {
+			double S=0.0;
+			boolean found = false;
+			Configuration conf = context.getConfiguration();
+			for (Vertex value : values) {
+				if(!value.isContribution()) {
+					// Values are reused by the framework, keep a copy of the structure
+					n.set(value);
+					found = true;
+				}
+				else {
+					S+= value.getRank();
+				}
+			}
+			if (DanglingMass.isMarker(key)) {
+				dangling += S;
+				return;
+			}
+			if (!found) {
+				n.setAdjList("");
+			}
+			double alpha =conf.getDouble("alpha",0.0); 
+			double numPages = conf.getDouble("Pages", 0.0);
+			double newPagerank = (alpha/numPages) + ((1-alpha)*(S + dangling/numPages));
+			change.add(found ? n.getRank() : 0.0, newPagerank);
+			n.setRank(newPagerank);
+			context.write(key, n);
+		}
+		
+		protected void cleanup(Context context) throws IOException, InterruptedException {
+			change.report(context);
+		}
+	}
+	
+	// Mapper for the ID graph, emits the structure and one contribution per neighbour ID
+	public static class IdTokenizerMapper extends Mapper<IntWritable, IdVertex, IntWritable, IdVertex> {
+		private IntWritable target = new IntWritable();
+		private IdVertex contribution = new IdVertex();
+		// Contributions summed per target page when in-mapper combining is on
+		private ContributionBuffer buffer;
+		private DanglingMass dangling = new DanglingMass();
+		// Extrapolation coefficients of the previous iteration, null if it did not extrapolate
+		private double[] coefficients;
+		
+		protected void setup(Context context) throws IOException,InterruptedException  {
+			Configuration conf = context.getConfiguration();
+			if (conf.getBoolean("pagerank.inmapper", false)) {
+				buffer = new ContributionBuffer(conf.getInt("pagerank.inmapper.capacity", 100000));
+			}
+			coefficients = Extrapolation.coefficients(conf);
+		}
+		
+		public void map(IntWritable key, IdVertex value, Context context) throws IOException, InterruptedException {
+			if (coefficients != null) {
+				// Start from the extrapolated rank, the next iterates follow from it
+				value.setRank(Extrapolation.apply(coefficients, value));
+				value.clearHistory();
+			}
+			double newPgr = value.getRank();
+			context.write(key, value);
+			
+			int count = value.getDegree();
+			if (count > 0) {
+				double c = newPgr/(double) count;
+				contribution.setContribution(c);
+				IdVertex.Neighbours neighbours = value.neighbours();
+				while (neighbours.hasNext()) {
+					int neighbour = neighbours.next();
+					if (buffer != null) {
+						if (buffer.add(neighbour, c)) {
+							flush(context);
+						}
+						continue;
+					}
+					target.set(neighbour);
+					context.write(target, contribution);
+				}
+			}
+			else {
+				dangling.add(newPgr);
+			}
+		}
+		
+		protected void cleanup(Context context) throws IOException, InterruptedException {
+			if (buffer != null) {
+				flush(context);
+			}
+			dangling.emitId(context, contribution.setContribution(dangling.get()));
+		}
+		
+		// Emit one summed contribution per buffered target page
+		private void flush(Context context) throws IOException, InterruptedException {
+			for (int i = 0; i < buffer.slots(); i++) {
+				if (buffer.keyAt(i) >= 0) {
+					target.set(buffer.keyAt(i));
+					context.write(target, contribution.setContribution(buffer.sumAt(i)));
+				}
+			}
+			buffer.clear();
+		}
+	}
+	
+	// Combiner that sums the contributions to a page and passes its IdVertex structure through
+	public static class IdContributionCombiner extends Reducer<IntWritable, IdVertex, IntWritable, IdVertex> {
+		private IdVertex contribution = new IdVertex();
+		
+		public void reduce(IntWritable key, Iterable<IdVertex> values, Context context) throws IOException, InterruptedException {
+			double S=0.0;
+			boolean any = false;
+			for (IdVertex value : values) {
+				if(!value.isContribution()) {
+					context.write(key, value);
+				}
+				else {
+					S+= value.getRank();
+					any = true;
+				}
+			}
+			if (any) {
+				context.write(key, contribution.setContribution(S));
+			}
+		}
+	}
+	
+	// Reducer for the ID graph, writes IdVertex records for the next iteration
+	public static class IdRankReducer extends Reducer<IntWritable, IdVertex, IntWritable, IdVertex> {
+		
+		private IdVertex n = new IdVertex();
+		private RankChange change = new RankChange();
+		// Dangling mass of this iteration, received before the first page
+		private double dangling;
+		// Keep the previous rank of every page for extrapolation
+		private boolean history;
+		// Sums of the extrapolation fit, null if this iteration does not extrapolate
+		private Extrapolation.Sums sums;
+		private MultipleOutputs<IntWritable, IdVertex> out;
+		
+		protected void setup(Context context) throws IOException,InterruptedException  {
+			Configuration conf = context.getConfiguration();
+			history = conf.getBoolean(Extrapolation.HISTORY, false);
+			if (conf.getBoolean(Extrapolation.SUMS, false)) {
+				sums = new Extrapolation.Sums();
+				out = new MultipleOutputs<IntWritable, IdVertex>(context);
+			}
+		}
+		
+		public void reduce(IntWritable key, Iterable<IdVertex> values, Context context) throws IOException, InterruptedException {
+			double S=0.0;
+			boolean found = false;
+			Configuration conf = context.getConfiguration();
+			for (IdVertex value : values) {
+				if(!value.isContribution()) {
+					// Values are reused by the framework, keep a copy of the structure
+					n.set(value);
+					found = true;
+				}
+				else {
+					S+= value.getRank();
+				}
+			}
+			if (DanglingMass.isMarker(key)) {
+				dangling += S;
+				return;
+			}
+			if (!found) {
+				n.setAdjList(null, 0);
+				n.setRank(0.0);
+				n.clearHistory();
+			}
+			double alpha =conf.getDouble("alpha",0.0); 
+			double numPages = conf.getDouble("Pages", 0.0);
+			double newPagerank = (alpha/numPages) + ((1-alpha)*(S + dangling/numPages));
+			change.add(n.getRank(), newPagerank);
+			if (sums != null) {
+				sums.add(newPagerank, n);
+			}
+			if (history) {
+				n.pushHistory();
+			}
+			else {
+				n.clearHistory();
+			}
+			n.setRank(newPagerank);
+			context.write(key, n);
+		}
+		
+		protected void cleanup(Context context) throws IOException, InterruptedException {
+			change.report(context);
+			if (sums != null) {
+				sums.write(out);
+				out.close();
+			}
+		}
+	}
 }
@@ -0,0 +1,354 @@
+package com.homework3.pagerank;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+
+/**
+ * Decompresses a bzip2 file on several threads. A scanner thread splits the compressed stream
+ * at the 48-bit block markers, which sit at arbitrary bit offsets, and every block is wrapped
+ * into a stand-alone single-block stream and decompressed on a pool. Blocks are handed back in
+ * file order through a bounded queue, so reading this stream gives the same bytes as
+ * BZip2CompressorInputStream over every stream of the file.
+ */
+public class ParallelBZip2InputStream extends InputStream {
+	private static final long BLOCK_MAGIC = 0x314159265359L;
+	private static final long END_MAGIC = 0x177245385090L;
+	private static final long MASK = (1L << 48) - 1;
+	// A block that still fails after merging this many following blocks is corrupt
+	private static final int MAX_MERGES = 4;
+	// Marks the end of the block queue
+	private static final Block END = new Block(null, 0, 0, null);
+
+	private final InputStream in;
+	private final ExecutorService pool;
+	private final BlockingQueue<Block> blocks;
+	private final Thread scanner;
+	private volatile IOException scanError;
+	private byte[] buffer = new byte[0];
+	private int position;
+	private boolean done;
+
+	public ParallelBZip2InputStream(InputStream in, int threads) {
+		this.in = in;
+		pool = Executors.newFixedThreadPool(threads, r -> {
+			Thread t = new Thread(r, "bzip2-decompress");
+			t.setDaemon(true);
+			return t;
+		});
+		blocks = new ArrayBlockingQueue<Block>(threads * 2);
+		scanner = new Thread(this::scan, "bzip2-scanner");
+		scanner.setDaemon(true);
+		scanner.start();
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (!fill()) {
+			return -1;
+		}
+		return buffer[position++] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		if (!fill()) {
+			return -1;
+		}
+		int n = Math.min(len, buffer.length - position);
+		System.arraycopy(buffer, position, b, off, n);
+		position += n;
+		return n;
+	}
+
+	@Override
+	public void close() throws IOException {
+		scanner.interrupt();
+		pool.shutdownNow();
+		in.close();
+	}
+
+	// Move to the next decompressed block, false at the end of the file
+	private boolean fill() throws IOException {
+		while (position == buffer.length) {
+			if (done) {
+				return false;
+			}
+			Block block = take();
+			if (block == END) {
+				continue;
+			}
+			buffer = result(block);
+			position = 0;
+		}
+		return true;
+	}
+
+	private Block take() throws IOException {
+		if (done) {
+			return END;
+		}
+		try {
+			Block block = blocks.take();
+			if (block == END) {
+				done = true;
+				if (scanError != null) {
+					throw scanError;
+				}
+			}
+			return block;
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException();
+		}
+	}
+
+	private byte[] result(Block block) throws IOException {
+		try {
+			return block.data.get();
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException();
+		} catch (ExecutionException e) {
+			// Most likely the block marker pattern showed up inside compressed data and split a
+			// real block in two, so retry with the following blocks appended
+			Block merged = block;
+			for (int i = 0; i < MAX_MERGES; i++) {
+				Block next = take();
+				if (next == END) {
+					break;
+				}
+				next.data.cancel(true);
+				merged = merged.append(next);
+				try {
+					return decompress(merged);
+				} catch (IOException retry) {
+					// Keep merging
+				}
+			}
+			throw new IOException("Corrupt bzip2 block", e.getCause());
+		}
+	}
+
+	// Scanner thread, finds the block markers and queues every block for decompression
+	private void scan() {
+		try {
+			byte[] chunk = new byte[1 << 16];
+			byte[] raw = new byte[1 << 20];
+			int rawLength = 0;
+			// Absolute byte index of raw[0]
+			long rawStart = 0;
+			long window = 0;
+			long bit = 0;
+			// Absolute bit of the current block marker, -1 before the first one
+			long blockStart = -1;
+			long[] ends = new long[4];
+			int endCount = 0;
+			int n;
+			while ((n = in.read(chunk)) != -1) {
+				for (int j = 0; j < n; j++) {
+					if (rawLength == raw.length) {
+						raw = Arrays.copyOf(raw, raw.length * 2);
+					}
+					raw[rawLength++] = chunk[j];
+					window = (window << 8) | (chunk[j] & 0xff);
+					bit += 8;
+					for (int k = 7; k >= 0; k--) {
+						long start = bit - k - 48;
+						if (start < 0) {
+							continue;
+						}
+						long marker = (window >>> k) & MASK;
+						if (marker == BLOCK_MAGIC) {
+							if (blockStart >= 0) {
+								queue(raw, rawStart, blockStart, start, ends, endCount);
+							}
+							// Drop the bytes before the new block
+							int keep = (int) ((start >>> 3) - rawStart);
+							System.arraycopy(raw, keep, raw, 0, rawLength - keep);
+							rawLength -= keep;
+							rawStart += keep;
+							blockStart = start;
+							endCount = 0;
+						}
+						else if (marker == END_MAGIC && blockStart >= 0) {
+							if (endCount == ends.length) {
+								ends = Arrays.copyOf(ends, endCount * 2);
+							}
+							ends[endCount++] = start - blockStart;
+						}
+					}
+				}
+				if (blockStart < 0 && rawLength > 64) {
+					// Nothing to keep but the bytes a marker may start in
+					System.arraycopy(raw, rawLength - 8, raw, 0, 8);
+					rawStart += rawLength - 8;
+					rawLength = 8;
+				}
+			}
+			if (blockStart >= 0) {
+				queue(raw, rawStart, blockStart, bit, ends, endCount);
+			}
+		} catch (InterruptedException e) {
+			return;
+		} catch (IOException e) {
+			scanError = e;
+		}
+		try {
+			blocks.put(END);
+		} catch (InterruptedException e) {
+			// Closed
+		}
+	}
+
+	// Queue the bits [start, end) of the file, ends holds the stream end markers inside them
+	private void queue(byte[] raw, long rawStart, long start, long end, long[] ends, int endCount) throws InterruptedException {
+		int from = (int) ((start >>> 3) - rawStart);
+		int to = (int) (((end + 7) >>> 3) - rawStart);
+		long length = end - start;
+		// Try to stop at a stream end marker first, after the last block of a stream come the
+		// stream CRC and the header of the next stream
+		long[] candidates = Arrays.copyOf(ends, endCount + 1);
+		candidates[endCount] = length;
+		Block block = new Block(Arrays.copyOfRange(raw, from, to), (int) (start & 7), length, candidates);
+		block.data = pool.submit(() -> decompress(block));
+		blocks.put(block);
+	}
+
+	private static byte[] decompress(Block block) throws IOException {
+		IOException failure = null;
+		for (long end : block.ends) {
+			try {
+				return decompress(block, end);
+			} catch (IOException e) {
+				failure = e;
+			} catch (RuntimeException e) {
+				// The decompressor does not check every index on corrupt input
+				failure = new IOException(e);
+			}
+		}
+		throw failure;
+	}
+
+	// Decompress the first end bits of a block as a stand-alone stream
+	private static byte[] decompress(Block block, long end) throws IOException {
+		BitWriter stream = new BitWriter(block.raw.length + 16);
+		stream.write(32, ('B' << 24) | ('Z' << 16) | ('h' << 8) | '9');
+		stream.copy(block.raw, block.offset, end);
+		// The CRC of a stream with a single block is the CRC of that block
+		stream.write(24, END_MAGIC >>> 24);
+		stream.write(24, END_MAGIC);
+		stream.write(32, BitWriter.read(block.raw, block.offset + 48, 32));
+		ByteArrayOutputStream out = new ByteArrayOutputStream(block.raw.length * 4);
+		try (BZip2CompressorInputStream bz = new BZip2CompressorInputStream(new ByteArrayInputStream(stream.toByteArray()))) {
+			byte[] b = new byte[1 << 16];
+			int n;
+			while ((n = bz.read(b)) != -1) {
+				out.write(b, 0, n);
+			}
+		}
+		return out.toByteArray();
+	}
+
+	// Compressed bits of one block, starting at its marker
+	private static class Block {
+		final byte[] raw;
+		// Bit offset of the marker in raw[0]
+		final int offset;
+		// Bits up to the next block marker
+		final long length;
+		// Candidate ends of the block, in bits from the marker
+		final long[] ends;
+		Future<byte[]> data;
+
+		Block(byte[] raw, int offset, long length, long[] ends) {
+			this.raw = raw;
+			this.offset = offset;
+			this.length = length;
+			this.ends = ends;
+		}
+
+		// This block followed by the next one, which starts right where this one stops
+		Block append(Block next) {
+			BitWriter bits = new BitWriter(raw.length + next.raw.length);
+			bits.copy(raw, offset, length);
+			bits.copy(next.raw, next.offset, next.length);
+			long[] shifted = new long[next.ends.length];
+			for (int i = 0; i < shifted.length; i++) {
+				shifted[i] = length + next.ends[i];
+			}
+			return new Block(bits.toByteArray(), 0, length + next.length, shifted);
+		}
+	}
+
+	private static class BitWriter {
+		private byte[] bytes;
+		private int length;
+		private long acc;
+		private int bits;
+
+		BitWriter(int capacity) {
+			bytes = new byte[capacity];
+		}
+
+		// Write the low n bits of value, n <= 32
+		void write(int n, long value) {
+			acc = (acc << n) | (value & ((1L << n) - 1));
+			bits += n;
+			while (bits >= 8) {
+				bits -= 8;
+				if (length == bytes.length) {
+					bytes = Arrays.copyOf(bytes, length * 2 + 16);
+				}
+				bytes[length++] = (byte) (acc >>> bits);
+			}
+		}
+
+		// Write count bits of src starting at bit offset
+		void copy(byte[] src, long offset, long count) {
+			long pos = offset;
+			long end = offset + count;
+			while ((pos & 7) != 0 && pos < end) {
+				write(1, src[(int) (pos >>> 3)] >>> (7 - (pos & 7)));
+				pos++;
+			}
+			while (end - pos >= 8) {
+				write(8, src[(int) (pos >>> 3)]);
+				pos += 8;
+			}
+			while (pos < end) {
+				write(1, src[(int) (pos >>> 3)] >>> (7 - (pos & 7)));
+				pos++;
+			}
+		}
+
+		// Pad the last byte with zero bits
+		byte[] toByteArray() {
+			if (bits > 0) {
+				write(8 - bits, 0);
+			}
+			return Arrays.copyOf(bytes, length);
+		}
+
+		// Read count bits of src starting at bit offset, count <= 32
+		static long read(byte[] src, long offset, int count) {
+			long value = 0;
+			for (long pos = offset; pos < offset + count; pos++) {
+				value = (value << 1) | ((src[(int) (pos >>> 3)] >>> (7 - (pos & 7))) & 1);
+			}
+			return value;
+		}
+	}
+}
@@ -4,9 +4,12 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.StringReader;
-import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -14,37 +17,36 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
-import javax.xml.parsers.SAXParser;
-import javax.xml.parsers.SAXParserFactory;
-
 import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
-import org.xml.sax.Attributes;
-import org.xml.sax.InputSource;
-import org.xml.sax.SAXException;
-import org.xml.sax.XMLReader;
-import org.xml.sax.helpers.DefaultHandler;
 
 
 public class Parser {
 	private static Pattern namePattern;
-	private static Pattern linkPattern;
 	static {
 		// Keep only html pages not containing tilde (~).
 		namePattern = Pattern.compile("^([^~]+)$");
-		// Keep only html filenames ending relative paths and not containing tilde (~).
-		linkPattern = Pattern.compile("^\\..*/([^~]+)\\.html$");
 	}
 
+	// Link extractor of each parsing thread, & is plain text like after replaceAll("&", "&amp;")
+	private static final ThreadLocal<LinkExtractor> EXTRACTORS = ThreadLocal.withInitial(() -> new LinkExtractor(true));
+
 	public int makeGraph(String input) {
+		return makeGraph(input, 1);
+	}
+
+	// With more than one thread the dump is decompressed block by block and the pages are parsed
+	// on a pool, the graph still gets the pages in file order
+	public int makeGraph(String input, int threads) {
 		
 		Map<String,List<String>> graph = new HashMap<String,List<String>>();
-		int count =0;
+		AtomicInteger count = new AtomicInteger();
 		BufferedReader reader = null;
 		try {
 			File inputFile = new File(input);
@@ -53,51 +55,51 @@ public class Parser {
 				System.exit(1);
 			}
 			
-			// Configure parser.
-			SAXParserFactory spf = SAXParserFactory.newInstance();
-			spf.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
-			SAXParser saxParser = spf.newSAXParser();
-			XMLReader xmlReader = saxParser.getXMLReader();
-			
-			// Parser fills this list with linked page names.
-			List<String> linkPageNames = new LinkedList<>();
-			xmlReader.setContentHandler(new WikiParser(linkPageNames));
-			
-			BZip2CompressorInputStream inputStream = new BZip2CompressorInputStream(new FileInputStream(inputFile));
+			InputStream inputStream = threads > 1
+					? new ParallelBZip2InputStream(new FileInputStream(inputFile), threads)
+					: new BZip2CompressorInputStream(new FileInputStream(inputFile));
 			reader = new BufferedReader(new InputStreamReader(inputStream));
 
 		    String line;
 		    
-		    while ((line = reader.readLine()) != null) {
-		    	
-		        // Each line formatted as (Wiki-page-name:Wiki-page-html).
-				int delimLoc = line.indexOf(':');
-				String pageName = line.substring(0, delimLoc);
-				String html = line.substring(delimLoc + 1);
-				html = html.replaceAll("&", "&amp;");
-				Matcher matcher = namePattern.matcher(pageName);
-				if (!matcher.find()) {
-					// Skip this html file, name contains (~).
-					continue;
-				}
-				linkPageNames.clear();
-				try {
-					xmlReader.parse(new InputSource(new StringReader(html)));
-				} catch (Exception e) {
-					// Discard ill-formatted pages.
-					continue;
-				}
-				graph.put(pageName,new PreProcess(linkPageNames,pageName).createAdjList());
-				count++;
-				
-				/* Uncomment the lines to view pretty-printed HTML files
-				System.out.println(pageName);
-				PrettyPrinter p = new PrettyPrinter(html);
-				p.print(); 
-				 */	
+		    try (OrderedPipeline<Map.Entry<String, List<String>>> pipeline = new OrderedPipeline<Map.Entry<String, List<String>>>(threads, threads * 64, page -> {
+		    	if (page != null) {
+		    		graph.put(page.getKey(), page.getValue());
+		    		count.incrementAndGet();
+		    	}
+		    })) {
+			    while ((line = reader.readLine()) != null) {
+			    	
+			        // Each line formatted as (Wiki-page-name:Wiki-page-html).
+					int delimLoc = line.indexOf(':');
+					String pageName = line.substring(0, delimLoc);
+					String html = line.substring(delimLoc + 1);
+					Matcher matcher = namePattern.matcher(pageName);
+					if (!matcher.find()) {
+						// Skip this html file, name contains (~).
+						continue;
+					}
+					pipeline.submit(() -> {
+						List<String> linkPageNames = new ArrayList<String>();
+						byte[] bytes = html.getBytes(StandardCharsets.UTF_8);
+						if (!EXTRACTORS.get().extract(bytes, 0, bytes.length, linkPageNames)) {
+							// Discard ill-formatted pages.
+							return null;
+						}
+						return new AbstractMap.SimpleEntry<String, List<String>>(pageName, new PreProcess(linkPageNames,pageName).createAdjList());
+					});
+					
+					/* Uncomment the lines to view pretty-printed HTML files
+					System.out.println(pageName);
+					PrettyPrinter p = new PrettyPrinter(html);
+					p.print(); 
+					 */	
+			    }
+			    pipeline.finish();
 		    }
-		    graph = new PreProcess(graph).createDanglingNodes();
-		    FileWriter f = new FileWriter("input.txt");
+		    // Adds the dangling nodes to graph in place
+		    new PreProcess(graph).createDanglingNodes();
+		    try (FileWriter f = new FileWriter("input.txt")) {
 		    double initialRank = 1.0/graph.size();
 		    for(String each: graph.keySet()) {
 		    	StringBuilder str = new StringBuilder();
@@ -112,13 +114,17 @@ public class Parser {
 		    	str.append(System.getProperty("line.separator"));
 		    	f.write(str.toString());
 		    }
+		    }
 		} catch (Exception e) {
 		    e.printStackTrace();
+		} finally {
+			try { if (reader != null) reader.close(); } catch (IOException e) {}
 		}
 		
-		return count;
+		return count.get();
 	}
 	
+	
 	/**
 	 * Pre-processing the graph
 	 */
@@ -181,58 +187,4 @@ public class Parser {
 			System.out.println(doc.body().html());
 		}
 	}
-	
-	
-	/** Parses a Wikipage, finding links inside bodyContent div element. */
-	private static class WikiParser extends DefaultHandler {
-		/** List of linked pages; filled by parser. */
-		private List<String> linkPageNames;
-		/** Nesting depth inside bodyContent div element. */
-		private int count = 0;
-
-		public WikiParser(List<String> linkPageNames) {
-			super();
-			this.linkPageNames = linkPageNames;
-		}
-
-		@Override
-		public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException {
-			super.startElement(uri, localName, qName, attributes);
-			if ("div".equalsIgnoreCase(qName) && "bodyContent".equalsIgnoreCase(attributes.getValue("id")) && count == 0) {
-				// Beginning of bodyContent div element.
-				count = 1;
-			} else if (count > 0 && "a".equalsIgnoreCase(qName)) {
-				// Anchor tag inside bodyContent div element.
-				count++;
-				String link = attributes.getValue("href");
-				if (link == null) {
-					return;
-				}
-				try {
-					// Decode escaped characters in URL.
-					link = URLDecoder.decode(link, "UTF-8");
-				} catch (Exception e) {
-					// Wiki-weirdness; use link as is.
-				}
-				// Keep only html filenames ending relative paths and not containing tilde (~).
-				Matcher matcher = linkPattern.matcher(link);
-				if (matcher.find()) {
-					linkPageNames.add(matcher.group(1));
-				}
-			} else if (count > 0) {
-				// Other element inside bodyContent div.
-				count++;
-			}
-		}
-
-		@Override
-		public void endElement(String uri, String localName, String qName) throws SAXException {
-			super.endElement(uri, localName, qName);
-			if (count > 0) {
-				// End of element inside bodyContent div.
-				count--;
-			}
-		}
-	}
-
 }
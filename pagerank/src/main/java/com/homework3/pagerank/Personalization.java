@@ -0,0 +1,170 @@
+package com.homework3.pagerank;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+/**
+ * Teleport vectors of batched personalized page rank. Every non-empty line of the seeds file is
+ * one seed set of white space separated page names, vector k jumps uniformly to the pages of
+ * set k and sends its dangling mass there too. All vectors share one set of iterations, so the
+ * adjacency lists are read and shuffled once, and the text pipeline writes the ranks of a page
+ * as "r1,r2,...,rK". The driver first resolves the sets against the Graph output, so that no
+ * teleport weight goes to a name that is not a page and every vector keeps a rank mass of one.
+ */
+public class Personalization {
+	// Seeds file, one seed set per line
+	public static final String SEEDS = "pagerank.personalized";
+
+	private final int width;
+	// Teleport probability of every seed page in each vector
+	private final Map<String, double[]> teleport = new HashMap<String, double[]>();
+
+	private Personalization(List<String[]> sets) {
+		width = sets.size();
+		for (int k = 0; k < width; k++) {
+			String[] set = sets.get(k);
+			for (String page : set) {
+				double[] t = teleport.get(page);
+				if (t == null) {
+					t = new double[width];
+					teleport.put(page, t);
+				}
+				t[k] += 1.0 / set.length;
+			}
+		}
+	}
+
+	// Seed sets of the job, null when personalization is off
+	public static Personalization load(Configuration conf) throws IOException {
+		String seeds = conf.get(SEEDS);
+		if (seeds == null) {
+			return null;
+		}
+		return new Personalization(read(conf, new Path(seeds)));
+	}
+
+	private static List<String[]> read(Configuration conf, Path path) throws IOException {
+		FileSystem fs = path.getFileSystem(conf);
+		List<String[]> sets = new ArrayList<String[]>();
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(fs.open(path), "UTF-8"))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				line = line.trim();
+				if (!line.isEmpty()) {
+					sets.add(line.split("\\s+"));
+				}
+			}
+		}
+		if (sets.isEmpty()) {
+			throw new IOException("No seed sets in " + path);
+		}
+		return sets;
+	}
+
+	/**
+	 * Write the seed sets of the job to resolved, keeping only the seeds that are pages of the
+	 * text Graph output. Returns the number of seeds dropped from every set. Fails if a set has
+	 * no page left, its vector would have no rank at all.
+	 */
+	public static int[] resolve(Configuration conf, Path graph, Path resolved) throws IOException {
+		List<String[]> sets = read(conf, new Path(conf.get(SEEDS)));
+		Set<String> seeds = new HashSet<String>();
+		for (String[] set : sets) {
+			for (String page : set) {
+				seeds.add(page);
+			}
+		}
+		Set<String> found = new HashSet<String>();
+		FileSystem fs = graph.getFileSystem(conf);
+		FileStatus[] files = fs.globStatus(new Path(graph, "part-*"));
+		for (FileStatus file : files == null ? new FileStatus[0] : files) {
+			try (BufferedReader reader = new BufferedReader(new InputStreamReader(fs.open(file.getPath()), "UTF-8"))) {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					int tab = line.indexOf('\t');
+					String name = tab < 0 ? line : line.substring(0, tab);
+					if (seeds.contains(name)) {
+						found.add(name);
+					}
+				}
+			}
+		}
+		int[] dropped = new int[sets.size()];
+		FileSystem out = resolved.getFileSystem(conf);
+		try (PrintWriter writer = new PrintWriter(new OutputStreamWriter(out.create(resolved, true), "UTF-8"))) {
+			for (int k = 0; k < sets.size(); k++) {
+				StringBuilder line = new StringBuilder();
+				for (String page : sets.get(k)) {
+					if (found.contains(page)) {
+						line.append(line.length() == 0 ? "" : " ").append(page);
+					}
+					else {
+						dropped[k]++;
+					}
+				}
+				if (line.length() == 0) {
+					throw new IOException("Seed set " + (k + 1) + " of " + conf.get(SEEDS) + " has no page of the graph");
+				}
+				writer.print(line + "\n");
+			}
+		}
+		return dropped;
+	}
+
+	// Number of ranks every page carries
+	public int width() {
+		return width;
+	}
+
+	// Teleport probability of a page in every vector, null for a page outside all seed sets
+	public double[] teleport(String page) {
+		return teleport.get(page);
+	}
+
+	// Parse a rank field into the first width entries of ranks, a single rank starts every vector
+	public static void parse(String field, double[] ranks, int width) {
+		int comma = field.indexOf(',');
+		if (comma < 0) {
+			double rank = Double.parseDouble(field);
+			for (int k = 0; k < width; k++) {
+				ranks[k] = rank;
+			}
+			return;
+		}
+		int start = 0;
+		for (int k = 0; k < width; k++) {
+			int end = field.indexOf(',', start);
+			ranks[k] = Double.parseDouble(end < 0 ? field.substring(start) : field.substring(start, end));
+			start = end + 1;
+		}
+	}
+
+	// Rank field of a page, like Double.toString for a single rank
+	public static String format(double[] ranks, int width) {
+		if (width == 1) {
+			return Double.toString(ranks[0]);
+		}
+		StringBuilder str = new StringBuilder();
+		for (int k = 0; k < width; k++) {
+			if (k > 0) {
+				str.append(',');
+			}
+			str.append(ranks[k]);
+		}
+		return str.toString();
+	}
+}
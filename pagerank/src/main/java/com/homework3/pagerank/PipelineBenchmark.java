@@ -0,0 +1,88 @@
+package com.homework3.pagerank;
+
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.TaskCounter;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+import com.homework3.pagerank.Generator.GeneratorCounter;
+
+/**
+ * End-to-end scaling benchmark. For every R-MAT scale in pagerank.bench.scales it generates a
+ * graph, runs the whole PageRankDriver pipeline on it in this JVM and records the wall time,
+ * shuffled bytes and records of every stage. Run it in local mode for a scaling curve of the
+ * pipeline on one machine, every other option (-D pagerank.binary=true, ...) is passed on to
+ * the generator and the driver. The rows go to scaling.csv in the work directory.
+ */
+public class PipelineBenchmark {
+
+	// Comma separated R-MAT scales, log2 of the number of page IDs
+	public static final String SCALES = "pagerank.bench.scales";
+
+	public static void main(String[] args) throws Exception {
+		Configuration conf = new Configuration();
+		conf.setDouble("alpha", 0.15);
+		// The whole pipeline by default, preprocessing included
+		conf.set(Generator.FORMAT, "wiki");
+		String[] otherArgs = new GenericOptionsParser(conf, args).getRemainingArgs();
+		if (otherArgs.length != 1) {
+			System.err.println("Usage: pipelinebenchmark <work>");
+			System.exit(2);
+		}
+		Path work = new Path(otherArgs[0]);
+		FileSystem fs = work.getFileSystem(conf);
+		String[] scales = conf.getStrings(SCALES, "10", "12", "14");
+
+		StringBuilder summary = new StringBuilder();
+		int exit = 0;
+		// Stop on a failed scale but leave the try, so the rows written so far reach scaling.csv
+		try (PrintWriter csv = new PrintWriter(new OutputStreamWriter(fs.create(new Path(work, "scaling.csv"), true), "UTF-8"))) {
+			csv.print("scale,pages,edges,stage,millis,shuffled_bytes,map_output_records,spilled_records\n");
+			for (String s : scales) {
+				int scale = Integer.parseInt(s.trim());
+				Configuration run = new Configuration(conf);
+				run.setInt(Generator.SCALE, scale);
+				Path dir = new Path(work, "s" + scale);
+				fs.delete(dir, true);
+
+				long start = System.currentTimeMillis();
+				Job generator = Generator.generate(run, new Path(dir, "input"));
+				if (generator == null) {
+					System.err.println("Generating scale " + scale + " failed");
+					exit = 1;
+					break;
+				}
+				long pages = generator.getCounters().findCounter(GeneratorCounter.Pages).getValue();
+				long edges = generator.getCounters().findCounter(GeneratorCounter.Edges).getValue();
+				System.out.println("Scale " + scale + ": " + pages + " pages, " + edges + " edges generated in " + (System.currentTimeMillis() - start) + " ms");
+
+				Metrics metrics = new Metrics();
+				start = System.currentTimeMillis();
+				exit = PageRankDriver.run(run, new String[] { new Path(dir, "input").toString(), new Path(dir, "out").toString() }, metrics);
+				long total = System.currentTimeMillis() - start;
+				if (exit != 0) {
+					System.err.println("Pipeline at scale " + scale + " exited with " + exit);
+					break;
+				}
+
+				for (Metrics.Stage stage : metrics.getStages()) {
+					csv.print(scale + "," + pages + "," + edges + "," + stage.getName() + "," + stage.getMillis() + ","
+							+ stage.get(TaskCounter.MAP_OUTPUT_MATERIALIZED_BYTES) + "," + stage.get(TaskCounter.MAP_OUTPUT_RECORDS) + ","
+							+ stage.get(TaskCounter.SPILLED_RECORDS) + "\n");
+				}
+				csv.print(scale + "," + pages + "," + edges + ",total," + total + "," + metrics.shuffledBytes() + ","
+						+ metrics.total(TaskCounter.MAP_OUTPUT_RECORDS) + "," + metrics.total(TaskCounter.SPILLED_RECORDS) + "\n");
+				csv.flush();
+				summary.append("Scale " + scale + ": " + pages + " pages, " + edges + " edges, " + total + " ms, "
+						+ metrics.iterations() + " iterations, " + metrics.shuffledBytes() + " bytes shuffled\n");
+			}
+		}
+		System.out.print(summary);
+		System.exit(exit);
+	}
+}
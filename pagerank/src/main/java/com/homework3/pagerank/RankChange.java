@@ -0,0 +1,59 @@
+package com.homework3.pagerank;
+
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.CounterGroup;
+import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
+
+/**
+ * Tracks the L1 and the largest per-page rank change seen by one reducer. The L1 sum is kept
+ * with Kahan summation and only scaled to a long counter once per task, so the driver gets
+ * the change to about 1e-15 however many pages there are.
+ */
+public class RankChange {
+	// Fixed-point scale of the change counters
+	public static final double SCALE = 1e15;
+	// Counter group with one counter per reducer holding its largest change
+	public static final String MAX_CHANGE = "MaxRankChange";
+
+	public enum ChangeCounter {
+		L1
+	}
+
+	private double sum;
+	private double compensation;
+	private double max;
+
+	public void add(double oldRank, double newRank) {
+		double change = Math.abs(newRank - oldRank);
+		double y = change - compensation;
+		double t = sum + y;
+		compensation = (t - sum) - y;
+		sum = t;
+		if (change > max) {
+			max = change;
+		}
+	}
+
+	// Publish the change of this task, call from cleanup()
+	public void report(TaskInputOutputContext<?, ?, ?, ?> context) {
+		context.getCounter(ChangeCounter.L1).increment(Math.round(sum * SCALE));
+		String task = Integer.toString(context.getTaskAttemptID().getTaskID().getId());
+		context.getCounter(MAX_CHANGE, task).increment(Math.round(max * SCALE));
+	}
+
+	// Sum of the absolute rank changes of all pages in a finished iteration
+	public static double l1(Counters counters) {
+		return counters.findCounter(ChangeCounter.L1).getValue() / SCALE;
+	}
+
+	// Largest rank change of a single page in a finished iteration
+	public static double max(Counters counters) {
+		long max = 0;
+		CounterGroup group = counters.getGroup(MAX_CHANGE);
+		for (Counter c : group) {
+			max = Math.max(max, c.getValue());
+		}
+		return max / SCALE;
+	}
+}
@@ -0,0 +1,296 @@
+package com.homework3.pagerank;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+/**
+ * Read-only rank index over a final output, answered from a memory-mapped file instead of the
+ * heap. The file holds a header, the offsets of the page names, the ranks as fixed-width doubles
+ * in name order, the name order positions of the pages by descending rank and the UTF-8 names
+ * sorted by their bytes. A rank lookup is a binary search over the mapped names, top K reads
+ * the rank order and a percentile is a binary search over it. Lookups only read the mapped
+ * buffers at absolute positions, so one open index serves any number of threads.
+ */
+public class RankIndex implements Closeable {
+
+	// Build the index once the run is complete
+	public static final String ENABLED = "pagerank.index";
+	// Index file in the output directory
+	public static final String FILE = "RankIndex";
+
+	private static final int MAGIC = 0x50524958;
+	private static final int VERSION = 1;
+	// Magic, version, page count and name bytes
+	private static final int HEADER = 4 + 4 + 4 + 8;
+
+	private final RandomAccessFile file;
+	private final int size;
+	private final LongBuffer offsets;
+	private final DoubleBuffer ranks;
+	private final IntBuffer order;
+	private final ByteBuffer names;
+
+	private RankIndex(RandomAccessFile file) throws IOException {
+		this.file = file;
+		FileChannel channel = file.getChannel();
+		ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER);
+		if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+			throw new IOException("Not a rank index");
+		}
+		size = header.getInt();
+		long nameBytes = header.getLong();
+		long position = HEADER;
+		offsets = map(channel, position, 8L * (size + 1)).asLongBuffer();
+		position += 8L * (size + 1);
+		ranks = map(channel, position, 8L * size).asDoubleBuffer();
+		position += 8L * size;
+		order = map(channel, position, 4L * size).asIntBuffer();
+		position += 4L * size;
+		names = map(channel, position, nameBytes);
+	}
+
+	private static MappedByteBuffer map(FileChannel channel, long position, long length) throws IOException {
+		if (length > Integer.MAX_VALUE) {
+			throw new IOException("Rank index section of " + length + " bytes is too large to map");
+		}
+		return channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+	}
+
+	// Open an index file on the local file system
+	public static RankIndex open(File path) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(path, "r");
+		try {
+			return new RankIndex(file);
+		}
+		catch (IOException e) {
+			file.close();
+			throw e;
+		}
+	}
+
+	// Number of pages
+	public int size() {
+		return size;
+	}
+
+	// Rank of a page, NaN if the page is not in the index
+	public double rank(String name) {
+		int i = find(name.getBytes(StandardCharsets.UTF_8));
+		return i < 0 ? Double.NaN : ranks.get(i);
+	}
+
+	// Name of the page at position i by descending rank, 0 is the highest ranked page
+	public String topName(int i) {
+		return name(order.get(i));
+	}
+
+	// Rank of the page at position i by descending rank
+	public double topRank(int i) {
+		return ranks.get(order.get(i));
+	}
+
+	// Percentage of the pages ranked below the page, NaN if the page is not in the index
+	public double percentile(String name) {
+		double rank = rank(name);
+		if (Double.isNaN(rank)) {
+			return Double.NaN;
+		}
+		// First position by descending rank with a lower rank
+		int low = 0;
+		int high = size;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (topRank(mid) < rank) {
+				high = mid;
+			}
+			else {
+				low = mid + 1;
+			}
+		}
+		return 100.0 * (size - low) / size;
+	}
+
+	// Position of a name in name order, -1 if absent
+	private int find(byte[] key) {
+		int low = 0;
+		int high = size - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int c = compare(mid, key);
+			if (c < 0) {
+				low = mid + 1;
+			}
+			else if (c > 0) {
+				high = mid - 1;
+			}
+			else {
+				return mid;
+			}
+		}
+		return -1;
+	}
+
+	// Compare the name at position i with key, as unsigned bytes
+	private int compare(int i, byte[] key) {
+		int start = (int) offsets.get(i);
+		int length = (int) offsets.get(i + 1) - start;
+		int n = Math.min(length, key.length);
+		for (int j = 0; j < n; j++) {
+			int c = (names.get(start + j) & 0xff) - (key[j] & 0xff);
+			if (c != 0) {
+				return c;
+			}
+		}
+		return length - key.length;
+	}
+
+	private String name(int i) {
+		int start = (int) offsets.get(i);
+		byte[] bytes = new byte[(int) offsets.get(i + 1) - start];
+		for (int j = 0; j < bytes.length; j++) {
+			bytes[j] = names.get(start + j);
+		}
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	@Override
+	public void close() throws IOException {
+		file.close();
+	}
+
+	// Build the index file from the "name<TAB>rank" lines of a final output directory
+	public static void build(Configuration conf, Path input, Path output) throws IOException {
+		FileSystem fs = input.getFileSystem(conf);
+		List<byte[]> names = new ArrayList<byte[]>();
+		double[] values = new double[1024];
+		FileStatus[] files = fs.globStatus(new Path(input, "part-*"));
+		for (FileStatus status : files == null ? new FileStatus[0] : files) {
+			try (BufferedReader reader = new BufferedReader(new InputStreamReader(fs.open(status.getPath()), "UTF-8"))) {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					int tab = line.indexOf('\t');
+					if (tab < 0) {
+						continue;
+					}
+					int end = line.indexOf(' ', tab + 1);
+					if (names.size() == values.length) {
+						values = Arrays.copyOf(values, values.length * 2);
+					}
+					values[names.size()] = Double.parseDouble(end < 0 ? line.substring(tab + 1) : line.substring(tab + 1, end));
+					names.add(line.substring(0, tab).getBytes(StandardCharsets.UTF_8));
+				}
+			}
+		}
+		final int n = names.size();
+		final byte[][] bytes = names.toArray(new byte[n][]);
+		final double[] pageRanks = values;
+
+		// Name order by unsigned bytes, the order lookups compare in
+		Integer[] byName = new Integer[n];
+		for (int i = 0; i < n; i++) {
+			byName[i] = i;
+		}
+		Arrays.sort(byName, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return WritableComparator.compareBytes(bytes[a], 0, bytes[a].length, bytes[b], 0, bytes[b].length);
+			}
+		});
+		final double[] sorted = new double[n];
+		for (int i = 0; i < n; i++) {
+			sorted[i] = pageRanks[byName[i]];
+		}
+		// Descending rank, equal ranks in name order like the top K
+		Integer[] byRank = new Integer[n];
+		for (int i = 0; i < n; i++) {
+			byRank[i] = i;
+		}
+		Arrays.sort(byRank, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				int c = Double.compare(sorted[b], sorted[a]);
+				return c != 0 ? c : Integer.compare(a, b);
+			}
+		});
+
+		long nameBytes = 0;
+		for (byte[] name : bytes) {
+			nameBytes += name.length;
+		}
+		FileSystem out = output.getFileSystem(conf);
+		try (DataOutputStream writer = new DataOutputStream(new BufferedOutputStream(out.create(output, true), 1 << 16))) {
+			writer.writeInt(MAGIC);
+			writer.writeInt(VERSION);
+			writer.writeInt(n);
+			writer.writeLong(nameBytes);
+			long offset = 0;
+			for (int i = 0; i < n; i++) {
+				writer.writeLong(offset);
+				offset += bytes[byName[i]].length;
+			}
+			writer.writeLong(offset);
+			for (int i = 0; i < n; i++) {
+				writer.writeDouble(sorted[i]);
+			}
+			for (int i = 0; i < n; i++) {
+				writer.writeInt(byRank[i]);
+			}
+			for (int i = 0; i < n; i++) {
+				writer.write(bytes[byName[i]]);
+			}
+		}
+	}
+
+	// Build an index or query a local one
+	public static void main(String[] args) throws Exception {
+		Configuration conf = new Configuration();
+		String[] otherArgs = new GenericOptionsParser(conf, args).getRemainingArgs();
+		if (otherArgs.length == 3 && otherArgs[0].equals("build")) {
+			build(conf, new Path(otherArgs[1]), new Path(otherArgs[2]));
+			return;
+		}
+		if (otherArgs.length != 3 || !Arrays.asList("rank", "top", "percentile").contains(otherArgs[1])) {
+			System.err.println("Usage: rankindex build <OutputFinal> <index> | rankindex <index> rank|percentile <name> | rankindex <index> top <k>");
+			System.exit(2);
+		}
+		try (RankIndex index = open(new File(otherArgs[0]))) {
+			if (otherArgs[1].equals("top")) {
+				int k = Math.min(Integer.parseInt(otherArgs[2]), index.size());
+				for (int i = 0; i < k; i++) {
+					System.out.println(index.topName(i) + "\t" + index.topRank(i));
+				}
+			}
+			else {
+				String name = otherArgs[2];
+				double value = otherArgs[1].equals("rank") ? index.rank(name) : index.percentile(name);
+				if (Double.isNaN(value)) {
+					System.err.println(name + " is not in the index");
+					System.exit(1);
+				}
+				System.out.println(name + "\t" + value);
+			}
+		}
+	}
+}
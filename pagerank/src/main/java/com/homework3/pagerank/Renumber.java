@@ -0,0 +1,225 @@
+package com.homework3.pagerank;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.GenericWritable;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
+
+import com.homework3.pagerank.TopK.Candidates;
+
+/**
+ * Gives every page of the binary graph a dense integer ID and rewrites the adjacency lists
+ * with those IDs. Each Graph partition is sorted by name, so the i-th page of part p gets
+ * ID offset(p) + i where the offsets are prefix sums of the per-partition page counts.
+ */
+public class Renumber {
+
+	// Counter group holding the number of pages written by each preprocess reducer
+	public static final String PARTITION_PAGES = "PartitionPages";
+	// Named output for the ID -> page name dictionary
+	public static final String DICTIONARY = "dict";
+
+	public enum RenumberCounter {
+		// Ranks of the final join whose ID has no dictionary entry, dropped
+		Unnamed
+	}
+
+	// Partition number of a part-r-NNNNN file
+	public static int partitionOf(Path file) {
+		String name = file.getName();
+		return Integer.parseInt(name.substring(name.lastIndexOf('-') + 1));
+	}
+
+	// Reads each Graph partition with a single mapper so that IDs follow the file order
+	public static class PartitionInputFormat<K, V> extends SequenceFileInputFormat<K, V> {
+		@Override
+		protected boolean isSplitable(JobContext context, Path filename) {
+			return false;
+		}
+	}
+
+	// Mapper that assigns IDs, writes the dictionary and emits every edge keyed by its target name
+	public static class DictionaryMapper extends Mapper<Text, Vertex, Text, IntWritable> {
+		private MultipleOutputs<Text, IntWritable> out;
+		private IntWritable id = new IntWritable();
+		private IntWritable self = new IntWritable();
+		private int next;
+
+		protected void setup(Context context) throws IOException,InterruptedException  {
+			out = new MultipleOutputs<Text, IntWritable>(context);
+			int partition = partitionOf(((FileSplit) context.getInputSplit()).getPath());
+			String[] offsets = context.getConfiguration().getStrings("pagerank.id.offsets");
+			next = Integer.parseInt(offsets[partition]);
+		}
+
+		public void map(Text key, Vertex value, Context context) throws IOException, InterruptedException {
+			id.set(next++);
+			out.write(DICTIONARY, id, key);
+			// The page's own ID travels as -(id+1) so the reducer can tell it from the sources
+			self.set(-id.get() - 1);
+			context.write(key, self);
+			for (int i = 0; i < value.getDegree(); i++) {
+				context.write(value.getNeighbour(i), id);
+			}
+		}
+
+		protected void cleanup(Context context) throws IOException, InterruptedException {
+			out.close();
+		}
+	}
+
+	// Reducer that resolves the target name of every edge to its ID, emits (source, target)
+	public static class EdgeReducer extends Reducer<Text, IntWritable, IntWritable, IntWritable> {
+		private int[] sources = new int[16];
+		private IntWritable source = new IntWritable();
+		private IntWritable target = new IntWritable();
+
+		public void reduce(Text key, Iterable<IntWritable> values, Context context) throws IOException, InterruptedException {
+			int self = -1;
+			int count = 0;
+			for (IntWritable value : values) {
+				if (value.get() < 0) {
+					self = -value.get() - 1;
+				}
+				else {
+					if (count == sources.length) {
+						sources = Arrays.copyOf(sources, count * 2);
+					}
+					sources[count++] = value.get();
+				}
+			}
+			if (self < 0) {
+				// Link to a page missing from the graph
+				return;
+			}
+			target.set(self);
+			for (int i = 0; i < count; i++) {
+				source.set(sources[i]);
+				context.write(source, target);
+			}
+			// Make sure pages without out-links still show up in the ID graph
+			source.set(self);
+			target.set(-1);
+			context.write(source, target);
+		}
+	}
+
+	// Reducer that builds the ID adjacency list of each page and sets the initial page rank
+	public static class IdGraphReducer extends Reducer<IntWritable, IntWritable, IntWritable, IdVertex> {
+		private int[] targets = new int[16];
+		private IdVertex vertex = new IdVertex();
+		private double initialPg;
+
+		protected void setup(Context context) throws IOException,InterruptedException  {
+			Configuration conf = context.getConfiguration();
+			initialPg = 1.0 / conf.getDouble("Pages", 0.0);
+		}
+
+		public void reduce(IntWritable key, Iterable<IntWritable> values, Context context) throws IOException, InterruptedException {
+			int count = 0;
+			for (IntWritable value : values) {
+				if (value.get() < 0) {
+					continue;
+				}
+				if (count == targets.length) {
+					targets = Arrays.copyOf(targets, count * 2);
+				}
+				targets[count++] = value.get();
+			}
+			vertex.setRank(initialPg);
+			vertex.setAdjList(targets, count);
+			context.write(key, vertex);
+		}
+	}
+
+	// Value of the final join, either a page name from the dictionary or a corrected rank
+	public static class NameOrRank extends GenericWritable {
+		@SuppressWarnings("unchecked")
+		private static Class<? extends Writable>[] TYPES = (Class<? extends Writable>[]) new Class<?>[] { Text.class, DoubleWritable.class };
+
+		@Override
+		protected Class<? extends Writable>[] getTypes() {
+			return TYPES;
+		}
+	}
+
+	// Mapper over the dictionary for the final join
+	public static class DictionaryJoinMapper extends Mapper<IntWritable, Text, IntWritable, NameOrRank> {
+		private NameOrRank value = new NameOrRank();
+
+		public void map(IntWritable key, Text name, Context context) throws IOException, InterruptedException {
+			value.set(name);
+			context.write(key, value);
+		}
+	}
+
+	// Mapper over the ranks of the last iteration for the final join, scaled to sum to one after a blocked round
+	public static class IdRankMapper extends Mapper<IntWritable, IdVertex, IntWritable, NameOrRank> {
+		private NameOrRank value = new NameOrRank();
+		private DoubleWritable rank = new DoubleWritable();
+		private double scale;
+
+		protected void setup(Context context) throws IOException,InterruptedException  {
+			scale = context.getConfiguration().getDouble(Blocked.SCALE, 1.0);
+		}
+
+		public void map(IntWritable key, IdVertex vertex, Context context) throws IOException, InterruptedException {
+			rank.set(vertex.getRank() * scale);
+			value.set(rank);
+			context.write(key, value);
+		}
+	}
+
+	// Reducer that joins page names back onto the final ranks, writes the text result and its local top K pages
+	public static class NameJoinReducer extends Reducer<IntWritable, NameOrRank, Text, Text> {
+		private Text name = new Text();
+		private MultipleOutputs<Text, Text> out;
+		private Candidates candidates;
+
+		protected void setup(Context context) throws IOException,InterruptedException  {
+			out = new MultipleOutputs<Text, Text>(context);
+			candidates = new Candidates(context.getConfiguration());
+		}
+
+		public void reduce(IntWritable key, Iterable<NameOrRank> values, Context context) throws IOException, InterruptedException {
+			double rank = -1;
+			boolean named = false;
+			for (NameOrRank value : values) {
+				Writable w = value.get();
+				if (w instanceof Text) {
+					name.set((Text) w);
+					named = true;
+				}
+				else {
+					rank = ((DoubleWritable) w).get();
+				}
+			}
+			if (rank >= 0 && !named) {
+				// The name field still holds the previous key's name
+				context.getCounter(RenumberCounter.Unnamed).increment(1);
+				return;
+			}
+			if (rank >= 0) {
+				context.write(name, new Text(Double.toString(rank)));
+				candidates.add(name, rank);
+			}
+		}
+
+		protected void cleanup(Context context) throws IOException, InterruptedException {
+			candidates.write(out);
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,187 @@
+package com.homework3.pagerank;
+
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+
+/**
+ * Schimmy iterations over the ID graph. The structure is written once (InitialGraph), split into
+ * partitions that match the reducers of the iteration jobs and sorted by ID. Mappers merge each
+ * structure partition with the ranks of the previous iteration and shuffle only contributions,
+ * reducers merge the contributions with their own partition to emit every page.
+ * Each OutputN holds rank-only IdVertex records partitioned the same way.
+ */
+public class Schimmy {
+
+	// Directory of the partitioned ID graph structure
+	public static final String GRAPH = "pagerank.schimmy.graph";
+	// Directory with the ranks of the previous iteration, unset for the first iteration
+	public static final String RANKS = "pagerank.schimmy.ranks";
+
+	// File of the given partition inside a job output directory
+	public static Path partitionFile(String dir, int partition) {
+		return new Path(dir, String.format("part-r-%05d", partition));
+	}
+
+	// Mapper over one structure partition, emits only the rank contributions
+	public static class ContributionMapper extends Mapper<IntWritable, IdVertex, IntWritable, DoubleWritable> {
+		private SequenceFile.Reader ranks;
+		private IntWritable rankId = new IntWritable();
+		private IdVertex rankValue = new IdVertex();
+		private IntWritable target = new IntWritable();
+		private DoubleWritable contribution = new DoubleWritable();
+		// Contributions summed per target page when in-mapper combining is on
+		private ContributionBuffer buffer;
+		private DanglingMass dangling = new DanglingMass();
+
+		protected void setup(Context context) throws IOException,InterruptedException  {
+			Configuration conf = context.getConfiguration();
+			if (conf.getBoolean("pagerank.inmapper", false)) {
+				buffer = new ContributionBuffer(conf.getInt("pagerank.inmapper.capacity", 100000));
+			}
+			String previous = conf.get(RANKS);
+			if (previous != null) {
+				int partition = Renumber.partitionOf(((FileSplit) context.getInputSplit()).getPath());
+				ranks = new SequenceFile.Reader(conf, SequenceFile.Reader.file(partitionFile(previous, partition)));
+			}
+		}
+
+		public void map(IntWritable key, IdVertex value, Context context) throws IOException, InterruptedException {
+			double rank = value.getRank();
+			if (ranks != null) {
+				// Both files are sorted by ID and hold the same pages
+				while (ranks.next(rankId, rankValue) && rankId.get() < key.get()) {
+				}
+				if (rankId.get() != key.get()) {
+					throw new IOException("No previous rank for page " + key.get());
+				}
+				rank = rankValue.getRank();
+			}
+			double newPgr = rank;
+
+			int count = value.getDegree();
+			if (count > 0) {
+				double c = newPgr/(double) count;
+				contribution.set(c);
+				IdVertex.Neighbours neighbours = value.neighbours();
+				while (neighbours.hasNext()) {
+					int neighbour = neighbours.next();
+					if (buffer != null) {
+						if (buffer.add(neighbour, c)) {
+							flush(context);
+						}
+						continue;
+					}
+					target.set(neighbour);
+					context.write(target, contribution);
+				}
+			}
+			else {
+				dangling.add(newPgr);
+			}
+		}
+
+		protected void cleanup(Context context) throws IOException, InterruptedException {
+			if (buffer != null) {
+				flush(context);
+			}
+			dangling.emitId(context, new DoubleWritable(dangling.get()));
+			if (ranks != null) {
+				ranks.close();
+			}
+		}
+
+		// Emit one summed contribution per buffered target page
+		private void flush(Context context) throws IOException, InterruptedException {
+			for (int i = 0; i < buffer.slots(); i++) {
+				if (buffer.keyAt(i) >= 0) {
+					target.set(buffer.keyAt(i));
+					contribution.set(buffer.sumAt(i));
+					context.write(target, contribution);
+				}
+			}
+			buffer.clear();
+		}
+	}
+
+	// Combiner that sums the contributions to a page
+	public static class SumCombiner extends Reducer<IntWritable, DoubleWritable, IntWritable, DoubleWritable> {
+		private DoubleWritable sum = new DoubleWritable();
+
+		public void reduce(IntWritable key, Iterable<DoubleWritable> values, Context context) throws IOException, InterruptedException {
+			double S=0.0;
+			for (DoubleWritable value : values) {
+				S+= value.get();
+			}
+			sum.set(S);
+			context.write(key, sum);
+		}
+	}
+
+	// Reducer that merge-joins the contributions with its structure partition read from HDFS.
+	// After the first iteration it walks the previous ranks of the partition instead, which list
+	// the same pages and give the rank change of every page.
+	public static class MergeReducer extends Reducer<IntWritable, DoubleWritable, IntWritable, IdVertex> {
+		private SequenceFile.Reader graph;
+		private RankChange change = new RankChange();
+		private IntWritable pageId = new IntWritable();
+		private IdVertex page = new IdVertex();
+		private IdVertex n = new IdVertex();
+		private boolean more;
+		private double alpha;
+		private double numPages;
+		// Dangling mass of this iteration, received before the first page
+		private double dangling;
+
+		protected void setup(Context context) throws IOException,InterruptedException  {
+			Configuration conf = context.getConfiguration();
+			alpha = conf.getDouble("alpha",0.0);
+			numPages = conf.getDouble("Pages", 0.0);
+			int partition = context.getTaskAttemptID().getTaskID().getId();
+			String pages = conf.get(RANKS, conf.get(GRAPH));
+			graph = new SequenceFile.Reader(conf, SequenceFile.Reader.file(partitionFile(pages, partition)));
+			more = graph.next(pageId, page);
+		}
+
+		public void reduce(IntWritable key, Iterable<DoubleWritable> values, Context context) throws IOException, InterruptedException {
+			double S=0.0;
+			for (DoubleWritable value : values) {
+				S+= value.get();
+			}
+			if (DanglingMass.isMarker(key)) {
+				dangling += S;
+				return;
+			}
+			// Pages without any in-link only get the random jump and the dangling mass
+			emitUntil(key.get(), context);
+			if (more && pageId.get() == key.get()) {
+				n.setContribution((alpha/numPages) + ((1-alpha)*(S + dangling/numPages)));
+				change.add(page.getRank(), n.getRank());
+				context.write(key, n);
+				more = graph.next(pageId, page);
+			}
+		}
+
+		protected void cleanup(Context context) throws IOException, InterruptedException {
+			emitUntil(Integer.MAX_VALUE, context);
+			graph.close();
+			change.report(context);
+		}
+
+		private void emitUntil(int id, Context context) throws IOException, InterruptedException {
+			while (more && pageId.get() < id) {
+				n.setContribution((alpha/numPages) + ((1-alpha)*dangling/numPages));
+				change.add(page.getRank(), n.getRank());
+				context.write(pageId, n);
+				more = graph.next(pageId, page);
+			}
+		}
+	}
+}
@@ -1,65 +1,354 @@
 package com.homework3.pagerank;
 
+import java.io.BufferedReader;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
-import java.util.List;
-import java.util.TreeMap;
 
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.DoubleWritable;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.Mapper;
 import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
+import org.apache.hadoop.util.GenericOptionsParser;
 
 public class TopK {
 
-	
-	// Mapper class to retrieve Top 100 pages with highest pagerank (As per Professor slides to compute Top K)
+	// Number of top pages to keep
+	public static final String K = "pagerank.topk";
+
+	public static int k(Configuration conf) {
+		return conf.getInt(K, 100);
+	}
+
+	// Output directory of the merged top pages, Top100 by default
+	public static Path output(Configuration conf, String out) {
+		return new Path(out+"/Top"+k(conf));
+	}
+
+	// Standalone job over any "name<TAB>rank" text output, such as OutputFinal
+	public static void main(String[] args) throws Exception {
+		Configuration conf = new Configuration();
+		String[] otherArgs = new GenericOptionsParser(conf, args).getRemainingArgs();
+		if (otherArgs.length != 2) {
+			System.err.println("Usage: topk <in> <out>");
+			System.exit(2);
+		}
+		Job job = Job.getInstance(conf, "topk");
+		job.setJarByClass(TopK.class);
+		job.setMapperClass(TopKMapper.class);
+		job.setCombinerClass(TopKCombiner.class);
+		job.setReducerClass(TopKReducer.class);
+		job.setNumReduceTasks(1);
+		job.setMapOutputKeyClass(DoubleWritable.class);
+		job.setMapOutputValueClass(Text.class);
+		job.setOutputKeyClass(Text.class);
+		job.setOutputValueClass(DoubleWritable.class);
+		FileInputFormat.addInputPath(job, new Path(otherArgs[0]+"/part-*"));
+		FileOutputFormat.setOutputPath(job, new Path(otherArgs[1]));
+		System.exit(job.waitForCompletion(true) ? 0 : 1);
+	}
+
+	// Mapper class to retrieve Top K pages with highest pagerank (As per Professor slides to compute Top K)
 	public static class TopKMapper extends Mapper<Object, Text, DoubleWritable, Text>{
-	
-		private TreeMap<Double, String> repToRecordMap = new TreeMap<Double, String>();
-		
+
+		private Heap heap;
+
+		protected void setup(Context context) throws IOException,InterruptedException  {
+			heap = new Heap(k(context.getConfiguration()));
+		}
+
 		public void map(Object key, Text value, Context context) throws IOException, InterruptedException {
-			List<String> tokens = new ArrayList<String>();
-			tokens = Arrays.asList(value.toString().split("\\s+"));
-			
-			if (tokens.get(0) == null || tokens.get(1) == null) {
+			// The name runs up to the first tab, the rank up to the next white space
+			byte[] bytes = value.getBytes();
+			int length = value.getLength();
+			int tab = 0;
+			while (tab < length && bytes[tab] != '\t') {
+				tab++;
+			}
+			int end = tab + 1;
+			while (end < length && bytes[end] != ' ' && bytes[end] != '\t') {
+				end++;
+			}
+			if (end <= tab + 1) {
 				return;
 			}
-			repToRecordMap.put(Double.parseDouble(tokens.get(1)),tokens.get(0));
-
-			if (repToRecordMap.size() > 100) {
-				repToRecordMap.remove(repToRecordMap.firstKey());
+			double rank = Double.parseDouble(new String(bytes, tab + 1, end - tab - 1, StandardCharsets.US_ASCII));
+			if (heap.accepts(rank)) {
+				heap.add(Text.decode(bytes, 0, tab), rank);
 			}
 		}
-	
+
 		protected void cleanup(Context context) throws IOException, InterruptedException {
-			for (Double t : repToRecordMap.keySet()) {
-				context.write(new DoubleWritable(t),new Text(repToRecordMap.get(t)));
+			heap.emit(context);
+		}
+	}
+
+	// Combiner that keeps the top K pages of a map output, the values are reused so names are copied on insert only
+	public static class TopKCombiner extends Reducer<DoubleWritable,Text,DoubleWritable,Text> {
+
+		private Heap heap;
+
+		protected void setup(Context context) throws IOException,InterruptedException  {
+			heap = new Heap(k(context.getConfiguration()));
+		}
+
+		public void reduce(DoubleWritable key, Iterable<Text> values,Context context) throws IOException, InterruptedException {
+			for (Text value : values) {
+				if (!heap.accepts(key.get())) {
+					return;
+				}
+				heap.add(value.toString(), key.get());
 			}
-		  }
 		}
-	
-	
-	// Reducer class to retrieve Top 100 pages (As per Professor slide to compute Top K)
+
+		protected void cleanup(Context context) throws IOException, InterruptedException {
+			heap.emit(context);
+		}
+	}
+
+	// Reducer class to retrieve Top K pages (As per Professor slide to compute Top K)
 	public static class TopKReducer extends Reducer<DoubleWritable,Text,Text,DoubleWritable> {
-		
-		private TreeMap<Double, Text> repToRecordMap = new TreeMap<Double, Text>();
-		
+
+		private Heap heap;
+
+		protected void setup(Context context) throws IOException,InterruptedException  {
+			heap = new Heap(k(context.getConfiguration()));
+		}
+
 		public void reduce(DoubleWritable key, Iterable<Text> values,Context context) throws IOException, InterruptedException {
 			for (Text value : values) {
-				repToRecordMap.put(new Double(key.get()),new Text(value));
-				if (repToRecordMap.size() > 100) {
-					repToRecordMap.remove(repToRecordMap.firstKey());
+				if (!heap.accepts(key.get())) {
+					return;
 				}
-			}	
+				heap.add(value.toString(), key.get());
+			}
 		}
-		
+
 		protected void cleanup(Context context)throws IOException, InterruptedException{
-			for (Double t : repToRecordMap.descendingMap().keySet()) {
-				context.write(new Text(repToRecordMap.get(t)),new DoubleWritable(t));
+			heap.sort();
+			Text name = new Text();
+			DoubleWritable rank = new DoubleWritable();
+			for (int i = 0; i < heap.size(); i++) {
+				name.set(heap.name(i));
+				rank.set(heap.rank(i));
+				context.write(name, rank);
+			}
+		}
+
+	}
+
+	// Local top K pages of a final pass, written as a side output so the global top K is a small merge
+	public static class Candidates {
+		// Named output holding the candidates
+		public static final String OUTPUT = "topk";
+
+		private Heap heap;
+
+		public Candidates(Configuration conf) {
+			heap = new Heap(k(conf));
+		}
+
+		public void add(String name, double rank) {
+			if (heap.accepts(rank)) {
+				heap.add(name, rank);
+			}
+		}
+
+		// Only decodes the name of a page that makes it into the candidates
+		public void add(Text name, double rank) {
+			if (heap.accepts(rank)) {
+				heap.add(name.toString(), rank);
 			}
 		}
 
+		public void write(MultipleOutputs<?, ?> out) throws IOException, InterruptedException {
+			heap.sort();
+			Text name = new Text();
+			DoubleWritable rank = new DoubleWritable();
+			for (int i = 0; i < heap.size(); i++) {
+				name.set(heap.name(i));
+				rank.set(heap.rank(i));
+				out.write(OUTPUT, name, rank);
+			}
+		}
+
+		// Write the candidates of one personalized vector to the files OUTPUT followed by the vector
+		public void write(MultipleOutputs<?, ?> out, int vector) throws IOException, InterruptedException {
+			heap.sort();
+			Text name = new Text();
+			DoubleWritable rank = new DoubleWritable();
+			for (int i = 0; i < heap.size(); i++) {
+				name.set(heap.name(i));
+				rank.set(heap.rank(i));
+				out.write(OUTPUT, name, rank, OUTPUT + vector);
+			}
+		}
+		
+		// Write the candidates as text lines, for passes that run outside a task
+		public void write(PrintWriter writer) {
+			heap.sort();
+			for (int i = 0; i < heap.size(); i++) {
+				writer.print(heap.name(i) + "\t" + heap.rank(i) + "\n");
+			}
+		}
+	}
+
+	// Merge the candidates of all tasks into the global top K, written like TopKReducer's output
+	public static void merge(Configuration conf, Path candidates, Path output) throws IOException {
+		FileSystem fs = output.getFileSystem(conf);
+		Heap heap = new Heap(k(conf));
+		FileStatus[] files = fs.globStatus(candidates);
+		for (FileStatus file : files == null ? new FileStatus[0] : files) {
+			try (BufferedReader reader = new BufferedReader(new InputStreamReader(fs.open(file.getPath()), "UTF-8"))) {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					int tab = line.indexOf('\t');
+					if (tab < 0) {
+						continue;
+					}
+					int end = tab + 1;
+					while (end < line.length() && !Character.isWhitespace(line.charAt(end))) {
+						end++;
+					}
+					double rank = Double.parseDouble(line.substring(tab + 1, end));
+					if (heap.accepts(rank)) {
+						heap.add(line.substring(0, tab), rank);
+					}
+				}
+			}
+		}
+		heap.sort();
+		try (PrintWriter writer = new PrintWriter(new OutputStreamWriter(fs.create(new Path(output, "part-r-00000")), "UTF-8"))) {
+			for (int i = 0; i < heap.size(); i++) {
+				writer.print(heap.name(i) + "\t" + heap.rank(i) + "\n");
+			}
+		}
+	}
+
+	/**
+	 * Bounded min-heap of the k highest ranked pages over primitive rank and name arrays. Pages
+	 * with equal rank are all kept and ordered by name, so the result does not depend on the
+	 * order the pages arrive in.
+	 */
+	public static class Heap {
+		private final int k;
+		private double[] ranks;
+		private String[] names;
+		private int size;
+
+		public Heap(int k) {
+			this.k = k;
+			int capacity = Math.min(k, 1024);
+			ranks = new double[capacity];
+			names = new String[capacity];
+		}
+
+		// False if a page with this rank cannot make it into the heap, so its name need not be built
+		public boolean accepts(double rank) {
+			return size < k || (size > 0 && rank >= ranks[0]);
+		}
+
+		public void add(String name, double rank) {
+			if (size < k) {
+				if (size == ranks.length) {
+					int capacity = Math.min(k, size * 2);
+					ranks = Arrays.copyOf(ranks, capacity);
+					names = Arrays.copyOf(names, capacity);
+				}
+				ranks[size] = rank;
+				names[size] = name;
+				up(size++);
+			}
+			else if (size > 0 && worse(ranks[0], names[0], rank, name)) {
+				ranks[0] = rank;
+				names[0] = name;
+				down(0, size);
+			}
+		}
+
+		public int size() {
+			return size;
+		}
+
+		// Sort the pages by descending rank, then by name. The heap takes no more pages afterwards.
+		public void sort() {
+			for (int n = size - 1; n > 0; n--) {
+				swap(0, n);
+				down(0, n);
+			}
+		}
+
+		public String name(int i) {
+			return names[i];
+		}
+
+		public double rank(int i) {
+			return ranks[i];
+		}
+
+		// Write the pages as (rank, name) pairs, from the mapper or the combiner
+		void emit(TaskInputOutputContext<?, ?, DoubleWritable, Text> context) throws IOException, InterruptedException {
+			DoubleWritable rank = new DoubleWritable();
+			Text name = new Text();
+			for (int i = 0; i < size; i++) {
+				rank.set(ranks[i]);
+				name.set(names[i]);
+				context.write(rank, name);
+			}
+		}
+
+		// Whether page a ranks below page b
+		private static boolean worse(double rankA, String nameA, double rankB, String nameB) {
+			return rankA < rankB || (rankA == rankB && nameA.compareTo(nameB) > 0);
+		}
+
+		private void up(int i) {
+			while (i > 0) {
+				int parent = (i - 1) >>> 1;
+				if (!worse(ranks[i], names[i], ranks[parent], names[parent])) {
+					break;
+				}
+				swap(i, parent);
+				i = parent;
+			}
+		}
+
+		private void down(int i, int n) {
+			while (true) {
+				int child = 2 * i + 1;
+				if (child >= n) {
+					break;
+				}
+				if (child + 1 < n && worse(ranks[child + 1], names[child + 1], ranks[child], names[child])) {
+					child++;
+				}
+				if (!worse(ranks[child], names[child], ranks[i], names[i])) {
+					break;
+				}
+				swap(i, child);
+				i = child;
+			}
+		}
+
+		private void swap(int i, int j) {
+			double r = ranks[i];
+			ranks[i] = ranks[j];
+			ranks[j] = r;
+			String s = names[i];
+			names[i] = names[j];
+			names[j] = s;
+		}
 	}
 }
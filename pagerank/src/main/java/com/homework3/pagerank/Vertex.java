@@ -0,0 +1,118 @@
+package com.homework3.pagerank;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * Binary vertex record used between iterations: the rank as a double followed by
+ * a length-prefixed adjacency list. A negative length marks a bare rank contribution.
+ */
+public class Vertex implements Writable {
+	private static final Text[] EMPTY = new Text[0];
+
+	private double rank;
+	private int size;
+	private Text[] adj = EMPTY;
+
+	public Vertex() {
+	}
+
+	public double getRank() {
+		return rank;
+	}
+
+	public void setRank(double r) {
+		rank = r;
+	}
+
+	public boolean isContribution() {
+		return size < 0;
+	}
+
+	public int getDegree() {
+		return Math.max(size, 0);
+	}
+
+	public Text getNeighbour(int i) {
+		return adj[i];
+	}
+
+	// Turn this record into a bare contribution
+	public Vertex setContribution(double r) {
+		rank = r;
+		size = -1;
+		return this;
+	}
+
+	// Fill the adjacency list from a ~ separated list of page names
+	public void setAdjList(String links) {
+		if (links.isEmpty()) {
+			size = 0;
+			return;
+		}
+		String[] list = links.split("~");
+		ensureCapacity(list.length);
+		for (int i = 0; i < list.length; i++) {
+			adj[i].set(list[i]);
+		}
+		size = list.length;
+	}
+
+	// Copy another vertex into this one, reusing the Text objects already held
+	public void set(Vertex other) {
+		rank = other.rank;
+		size = other.size;
+		ensureCapacity(other.getDegree());
+		for (int i = 0; i < other.getDegree(); i++) {
+			adj[i].set(other.adj[i]);
+		}
+	}
+
+	// Adjacency list as written by the text pipeline ("a~b~c")
+	public String adjToString() {
+		StringBuilder str = new StringBuilder();
+		for (int i = 0; i < getDegree(); i++) {
+			if (i > 0) {
+				str.append('~');
+			}
+			str.append(adj[i].toString());
+		}
+		return str.toString();
+	}
+
+	private void ensureCapacity(int n) {
+		if (adj.length >= n) {
+			return;
+		}
+		Text[] grown = new Text[Math.max(n, adj.length * 2)];
+		System.arraycopy(adj, 0, grown, 0, adj.length);
+		for (int i = adj.length; i < grown.length; i++) {
+			grown[i] = new Text();
+		}
+		adj = grown;
+	}
+
+	@Override
+	public void write(DataOutput out) throws IOException {
+		out.writeDouble(rank);
+		WritableUtils.writeVInt(out, size);
+		for (int i = 0; i < size; i++) {
+			adj[i].write(out);
+		}
+	}
+
+	@Override
+	public void readFields(DataInput in) throws IOException {
+		rank = in.readDouble();
+		size = WritableUtils.readVInt(in);
+		ensureCapacity(size);
+		for (int i = 0; i < size; i++) {
+			adj[i].readFields(in);
+		}
+	}
+}
@@ -0,0 +1,279 @@
+package com.homework3.pagerank;
+
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.GenericWritable;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Reducer;
+
+/**
+ * Starts the iterations from the ranks of a previous run instead of 1/N. The previous OutputFinal
+ * is joined with the new graph by page name: pages still in the graph keep their old rank, new
+ * pages get 1/N and deleted pages are dropped. The join writes WarmStart and counts the rank mass
+ * it kept, a second pass scales every rank by the inverse of that mass into WarmGraph, so the
+ * iterations start from a vector summing to one.
+ */
+public class WarmStart {
+
+	// OutputFinal directory of the previous run
+	public static final String PREVIOUS = "pagerank.warmstart";
+	// Factor applied to the joined ranks, set by the driver from the join counters
+	public static final String SCALE = "pagerank.warmstart.scale";
+
+	public enum WarmStartCounter {
+		Retained, New, Removed, Mass
+	}
+
+	// Rank mass of all pages written by the join
+	public static double mass(Counters counters) {
+		return counters.findCounter(WarmStartCounter.Mass).getValue() / RankChange.SCALE;
+	}
+
+	// Value of the joins, a page of the new graph, its ID or its previous rank
+	public static class PageOrRank extends GenericWritable {
+		@SuppressWarnings("unchecked")
+		private static Class<? extends Writable>[] TYPES = (Class<? extends Writable>[]) new Class<?>[] { Vertex.class, IdVertex.class, IntWritable.class, DoubleWritable.class };
+
+		@Override
+		protected Class<? extends Writable>[] getTypes() {
+			return TYPES;
+		}
+	}
+
+	// Mapper over the previous OutputFinal, "name<TAB>rank" lines optionally followed by the adjacency list
+	public static class PreviousRankMapper extends Mapper<Object, Text, Text, PageOrRank> {
+		private Text name = new Text();
+		private DoubleWritable rank = new DoubleWritable();
+		private PageOrRank value = new PageOrRank();
+
+		public void map(Object key, Text line, Context context) throws IOException, InterruptedException {
+			byte[] bytes = line.getBytes();
+			int length = line.getLength();
+			int tab = 0;
+			while (tab < length && bytes[tab] != '\t') {
+				tab++;
+			}
+			int end = tab + 1;
+			while (end < length && bytes[end] != ' ') {
+				end++;
+			}
+			if (end <= tab + 1) {
+				return;
+			}
+			name.set(bytes, 0, tab);
+			rank.set(Double.parseDouble(Text.decode(bytes, tab + 1, end - tab - 1)));
+			value.set(rank);
+			context.write(name, value);
+		}
+	}
+
+	// Mapper over the text Graph, "name<TAB>links" lines
+	public static class TextGraphMapper extends Mapper<Object, Text, Text, PageOrRank> {
+		private Text name = new Text();
+		private Vertex vertex = new Vertex();
+		private PageOrRank value = new PageOrRank();
+
+		public void map(Object key, Text line, Context context) throws IOException, InterruptedException {
+			String page = line.toString();
+			int tab = page.indexOf('\t');
+			name.set(tab < 0 ? page : page.substring(0, tab));
+			vertex.setAdjList(tab < 0 ? "" : page.substring(tab + 1));
+			value.set(vertex);
+			context.write(name, value);
+		}
+	}
+
+	// Mapper over the binary Graph
+	public static class BinaryGraphMapper extends Mapper<Text, Vertex, Text, PageOrRank> {
+		private PageOrRank value = new PageOrRank();
+
+		public void map(Text key, Vertex vertex, Context context) throws IOException, InterruptedException {
+			value.set(vertex);
+			context.write(key, value);
+		}
+	}
+
+	// Reducer that gives every page of the new graph its previous rank, or 1/N for new pages
+	public static class JoinReducer extends Reducer<Text, PageOrRank, Text, Vertex> {
+		private Vertex vertex = new Vertex();
+		private double initialPg;
+		private double mass;
+
+		protected void setup(Context context) throws IOException,InterruptedException  {
+			initialPg = 1.0 / context.getConfiguration().getDouble("Pages", 0.0);
+		}
+
+		public void reduce(Text key, Iterable<PageOrRank> values, Context context) throws IOException, InterruptedException {
+			boolean page = false;
+			double previous = -1;
+			for (PageOrRank value : values) {
+				Writable w = value.get();
+				if (w instanceof Vertex) {
+					// Values are reused by the framework
+					vertex.set((Vertex) w);
+					page = true;
+				}
+				else {
+					previous = ((DoubleWritable) w).get();
+				}
+			}
+			if (!page) {
+				context.getCounter(WarmStartCounter.Removed).increment(1);
+				return;
+			}
+			if (previous < 0) {
+				context.getCounter(WarmStartCounter.New).increment(1);
+				previous = initialPg;
+			}
+			else {
+				context.getCounter(WarmStartCounter.Retained).increment(1);
+			}
+			mass += previous;
+			vertex.setRank(previous);
+			context.write(key, vertex);
+		}
+
+		protected void cleanup(Context context) throws IOException, InterruptedException {
+			context.getCounter(WarmStartCounter.Mass).increment(Math.round(mass * RankChange.SCALE));
+		}
+	}
+
+	// Map-only pass that scales the joined ranks and writes the text graph of the first iteration
+	public static class TextScaleMapper extends Mapper<Text, Vertex, Text, Text> {
+		private Text value = new Text();
+		private double scale;
+
+		protected void setup(Context context) throws IOException,InterruptedException  {
+			scale = context.getConfiguration().getDouble(SCALE, 1.0);
+		}
+
+		public void map(Text key, Vertex vertex, Context context) throws IOException, InterruptedException {
+			String rank = Double.toString(vertex.getRank() * scale);
+			value.set(vertex.getDegree() == 0 ? rank : rank + " " + vertex.adjToString());
+			context.write(key, value);
+		}
+	}
+
+	// Map-only pass that scales the joined ranks of the binary graph
+	public static class BinaryScaleMapper extends Mapper<Text, Vertex, Text, Vertex> {
+		private double scale;
+
+		protected void setup(Context context) throws IOException,InterruptedException  {
+			scale = context.getConfiguration().getDouble(SCALE, 1.0);
+		}
+
+		public void map(Text key, Vertex vertex, Context context) throws IOException, InterruptedException {
+			vertex.setRank(vertex.getRank() * scale);
+			context.write(key, vertex);
+		}
+	}
+
+	// Mapper over the ID dictionary for the name join of the ID modes
+	public static class DictionaryMapper extends Mapper<IntWritable, Text, Text, PageOrRank> {
+		private PageOrRank value = new PageOrRank();
+
+		public void map(IntWritable key, Text name, Context context) throws IOException, InterruptedException {
+			value.set(key);
+			context.write(name, value);
+		}
+	}
+
+	// Reducer that resolves the previous rank of every page to its ID, new pages get 1/N in the scale join
+	public static class IdJoinReducer extends Reducer<Text, PageOrRank, IntWritable, DoubleWritable> {
+		private IntWritable id = new IntWritable();
+		private DoubleWritable rank = new DoubleWritable();
+		private double initialPg;
+		private double mass;
+
+		protected void setup(Context context) throws IOException,InterruptedException  {
+			initialPg = 1.0 / context.getConfiguration().getDouble("Pages", 0.0);
+		}
+
+		public void reduce(Text key, Iterable<PageOrRank> values, Context context) throws IOException, InterruptedException {
+			boolean page = false;
+			double previous = -1;
+			for (PageOrRank value : values) {
+				Writable w = value.get();
+				if (w instanceof IntWritable) {
+					id.set(((IntWritable) w).get());
+					page = true;
+				}
+				else {
+					previous = ((DoubleWritable) w).get();
+				}
+			}
+			if (!page) {
+				context.getCounter(WarmStartCounter.Removed).increment(1);
+			}
+			else if (previous < 0) {
+				context.getCounter(WarmStartCounter.New).increment(1);
+				mass += initialPg;
+			}
+			else {
+				context.getCounter(WarmStartCounter.Retained).increment(1);
+				mass += previous;
+				rank.set(previous);
+				context.write(id, rank);
+			}
+		}
+
+		protected void cleanup(Context context) throws IOException, InterruptedException {
+			context.getCounter(WarmStartCounter.Mass).increment(Math.round(mass * RankChange.SCALE));
+		}
+	}
+
+	// Mapper over the initial ID graph for the scale join
+	public static class IdGraphMapper extends Mapper<IntWritable, IdVertex, IntWritable, PageOrRank> {
+		private PageOrRank value = new PageOrRank();
+
+		public void map(IntWritable key, IdVertex vertex, Context context) throws IOException, InterruptedException {
+			value.set(vertex);
+			context.write(key, value);
+		}
+	}
+
+	// Mapper over the joined ID ranks for the scale join
+	public static class IdRankMapper extends Mapper<IntWritable, DoubleWritable, IntWritable, PageOrRank> {
+		private PageOrRank value = new PageOrRank();
+
+		public void map(IntWritable key, DoubleWritable rank, Context context) throws IOException, InterruptedException {
+			value.set(rank);
+			context.write(key, value);
+		}
+	}
+
+	// Reducer that sets the scaled start rank of every page of the ID graph. Partitioned and sorted
+	// like the iteration reducers, so the output can stand in for InitialGraph in every ID mode.
+	public static class IdScaleReducer extends Reducer<IntWritable, PageOrRank, IntWritable, IdVertex> {
+		private IdVertex vertex = new IdVertex();
+		private double initialPg;
+		private double scale;
+
+		protected void setup(Context context) throws IOException,InterruptedException  {
+			Configuration conf = context.getConfiguration();
+			initialPg = 1.0 / conf.getDouble("Pages", 0.0);
+			scale = conf.getDouble(SCALE, 1.0);
+		}
+
+		public void reduce(IntWritable key, Iterable<PageOrRank> values, Context context) throws IOException, InterruptedException {
+			double previous = initialPg;
+			for (PageOrRank value : values) {
+				Writable w = value.get();
+				if (w instanceof IdVertex) {
+					vertex.set((IdVertex) w);
+				}
+				else {
+					previous = ((DoubleWritable) w).get();
+				}
+			}
+			vertex.setRank(previous * scale);
+			context.write(key, vertex);
+		}
+	}
+}
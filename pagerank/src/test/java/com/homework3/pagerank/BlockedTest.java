@@ -0,0 +1,57 @@
+package com.homework3.pagerank;
+
+import java.io.File;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+
+import junit.framework.TestCase;
+
+/**
+ * Blocked iterations against plain ID iterations on a small graph.
+ */
+public class BlockedTest extends TestCase {
+	private File dir;
+	private File input;
+
+	protected void setUp() throws Exception {
+		dir = TestGraphs.tempDir("blocked");
+		input = TestGraphs.wiki(dir, 40, 11);
+	}
+
+	protected void tearDown() throws Exception {
+		TestGraphs.delete(dir);
+	}
+
+	// Iterations of the last run
+	private int rounds;
+
+	private Map<String, Double> run(String name, boolean blocked, int iterations) throws Exception {
+		Configuration conf = TestGraphs.local();
+		conf.setBoolean("pagerank.ids", true);
+		conf.setBoolean("pagerank.blocked", blocked);
+		conf.setInt(Blocked.SIZE, 8);
+		conf.setInt("pagerank.iterations.max", iterations);
+		conf.setDouble("pagerank.tolerance", 1e-12);
+		File out = new File(dir, name);
+		rounds = TestGraphs.run(conf, input, out).iterations();
+		return TestGraphs.ranks(new File(out, "OutputFinal"));
+	}
+
+	// Converged blocked ranks reach the fixed point of the ID iterations, in fewer rounds
+	public void testSameFixedPointAsIds() throws Exception {
+		Map<String, Double> ids = run("ids", false, 60);
+		int idRounds = rounds;
+		Map<String, Double> blocked = run("blocked", true, 60);
+		assertTrue(rounds + " blocked rounds, " + idRounds + " ID iterations", rounds < idRounds);
+		assertEquals(1.0, TestGraphs.sum(ids), 1e-9);
+		assertEquals(1.0, TestGraphs.sum(blocked), 1e-9);
+		assertTrue("max difference " + TestGraphs.maxDifference(ids, blocked), TestGraphs.maxDifference(ids, blocked) < 1e-9);
+	}
+
+	// A run cut short by the iteration limit still writes ranks that sum to one
+	public void testCutShortSumsToOne() throws Exception {
+		Map<String, Double> blocked = run("short", true, 2);
+		assertEquals(1.0, TestGraphs.sum(blocked), 1e-9);
+	}
+}
@@ -0,0 +1,131 @@
+package com.homework3.pagerank;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+
+import junit.framework.TestCase;
+
+/**
+ * Resumed runs against one that ran through. Every case starts from a copy of the complete run
+ * with the manifest a run that stopped after a stage would have left, and the later outputs
+ * still in place.
+ */
+public class CheckpointTest extends TestCase {
+	private static final int ITERATIONS = 5;
+
+	private File dir;
+	private File input;
+	private File complete;
+	private Map<String, Double> expected;
+
+	protected void setUp() throws Exception {
+		dir = TestGraphs.tempDir("checkpoint");
+		input = TestGraphs.wiki(dir, 40, 5);
+		complete = new File(dir, "complete");
+		TestGraphs.run(conf(false), input, complete);
+		expected = TestGraphs.ranks(new File(complete, "OutputFinal"));
+	}
+
+	protected void tearDown() throws Exception {
+		TestGraphs.delete(dir);
+	}
+
+	private static Configuration conf(boolean resume) {
+		Configuration conf = TestGraphs.local();
+		conf.setInt("pagerank.iterations.max", ITERATIONS);
+		conf.setBoolean(Checkpoint.RESUME, resume);
+		return conf;
+	}
+
+	// Copy of the complete run whose manifest records the stages up to stage, and iterations up to iteration
+	private File stopped(String name, Checkpoint.Stage stage, int iteration) throws IOException {
+		File out = new File(dir, name);
+		TestGraphs.copy(complete, out);
+		Checkpoint done = Checkpoint.open(conf(true), new Path(out.getPath()), "text");
+		assertEquals(Checkpoint.Stage.FINAL, done.stage());
+		new File(out, Checkpoint.MANIFEST).delete();
+		Checkpoint checkpoint = Checkpoint.open(conf(false), new Path(out.getPath()), "text");
+		checkpoint.preprocessed(done.pages(), done.partitionPages());
+		if (stage.compareTo(Checkpoint.Stage.INITIAL) >= 0) {
+			checkpoint.initialized(out.getPath() + "/InitialGraph", null);
+		}
+		for (int i = 1; i <= iteration; i++) {
+			checkpoint.iterated(i, out.getPath() + "/Output" + i, 1.0, 1.0);
+		}
+		if (stage == Checkpoint.Stage.FINAL) {
+			checkpoint.finished(out.getPath() + "/OutputFinal");
+		}
+		return out;
+	}
+
+	// Resume the run in out, check its ranks and return the stages it ran
+	private List<String> resume(File out) throws Exception {
+		Metrics metrics = TestGraphs.run(conf(true), input, out);
+		Map<String, Double> ranks = TestGraphs.ranks(new File(out, "OutputFinal"));
+		assertEquals("max difference", 0.0, TestGraphs.maxDifference(expected, ranks), 1e-15);
+		List<String> stages = new ArrayList<String>();
+		for (Metrics.Stage stage : metrics.getStages()) {
+			stages.add(stage.getName());
+		}
+		return stages;
+	}
+
+	public void testAfterPreprocess() throws Exception {
+		List<String> stages = resume(stopped("preprocess", Checkpoint.Stage.PREPROCESS, 0));
+		assertEquals(stages.toString(), "initial", stages.get(0));
+		assertTrue(stages.toString(), stages.contains("iteration 1"));
+	}
+
+	public void testAfterInitial() throws Exception {
+		List<String> stages = resume(stopped("initial", Checkpoint.Stage.INITIAL, 0));
+		assertEquals(stages.toString(), "iteration 1", stages.get(0));
+	}
+
+	public void testAfterIteration() throws Exception {
+		List<String> stages = resume(stopped("iteration", Checkpoint.Stage.ITERATION, 2));
+		assertEquals(stages.toString(), "iteration 3", stages.get(0));
+		assertTrue(stages.toString(), stages.contains("iteration " + ITERATIONS));
+	}
+
+	// The last iteration was renamed to OutputFinal, the manifest not saved yet
+	public void testAfterLastIteration() throws Exception {
+		List<String> stages = resume(stopped("last", Checkpoint.Stage.ITERATION, ITERATIONS));
+		assertFalse(stages.toString(), stages.toString().contains("iteration"));
+	}
+
+	public void testAfterFinal() throws Exception {
+		List<String> stages = resume(stopped("final", Checkpoint.Stage.FINAL, ITERATIONS));
+		assertEquals(stages.toString(), 1, stages.size());
+		assertEquals("topk", stages.get(0));
+	}
+
+	// Stopped in the middle of saving iteration 3: _manifest moved aside, _manifest.tmp not moved in yet
+	public void testWhileSaving() throws Exception {
+		File out = stopped("saving", Checkpoint.Stage.ITERATION, 3);
+		assertTrue(new File(out, Checkpoint.MANIFEST + ".prev").exists());
+		assertTrue(new File(out, Checkpoint.MANIFEST).renameTo(new File(out, Checkpoint.MANIFEST + ".tmp")));
+		List<String> stages = resume(out);
+		assertEquals(stages.toString(), "iteration 4", stages.get(0));
+	}
+
+	// Stopped while writing the first manifest: the cut short _manifest.tmp is not read
+	public void testWhileSavingFirst() throws Exception {
+		File out = new File(dir, "first");
+		TestGraphs.copy(complete, out);
+		new File(out, Checkpoint.MANIFEST).delete();
+		new File(out, Checkpoint.MANIFEST + ".prev").delete();
+		try (OutputStream tmp = Files.newOutputStream(new File(out, Checkpoint.MANIFEST + ".tmp").toPath())) {
+			tmp.write("mode=text\nstage=ITER".getBytes("UTF-8"));
+		}
+		List<String> stages = resume(out);
+		assertEquals(stages.toString(), "preprocess", stages.get(0));
+	}
+}
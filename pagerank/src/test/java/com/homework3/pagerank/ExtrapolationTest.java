@@ -0,0 +1,144 @@
+package com.homework3.pagerank;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.Random;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+
+import junit.framework.TestCase;
+
+/**
+ * The least-squares fit on iterates of a known form, and the schedule of the iterations.
+ */
+public class ExtrapolationTest extends TestCase {
+	private static final int PAGES = 50;
+	private static final double LAMBDA2 = 0.6;
+	private static final double LAMBDA3 = -0.3;
+
+	private File dir;
+	private double[] u1;
+	private double[] u2;
+	private double[] u3;
+
+	protected void setUp() throws Exception {
+		dir = TestGraphs.tempDir("extrapolation");
+		// Page rank u1 sums to one, the other eigenvectors to zero
+		Random random = new Random(3);
+		u1 = new double[PAGES];
+		u2 = new double[PAGES];
+		u3 = new double[PAGES];
+		double sum1 = 0.0, sum2 = 0.0, sum3 = 0.0;
+		for (int p = 0; p < PAGES; p++) {
+			u1[p] = random.nextDouble();
+			u2[p] = random.nextDouble();
+			u3[p] = random.nextDouble();
+			sum1 += u1[p];
+			sum2 += u2[p];
+			sum3 += u3[p];
+		}
+		for (int p = 0; p < PAGES; p++) {
+			u1[p] /= sum1;
+			u2[p] -= sum2 / PAGES;
+			u3[p] -= sum3 / PAGES;
+		}
+	}
+
+	protected void tearDown() throws Exception {
+		TestGraphs.delete(dir);
+	}
+
+	// Rank of page p after t iterations that shrink the second and third eigenvectors
+	private double x(int t, int p) {
+		return u1[p] + Math.pow(LAMBDA2, t) * u2[p] + Math.pow(LAMBDA3, t) * u3[p];
+	}
+
+	// Sums of iteration k = 4 over pages [from, to), one reducer each
+	private Extrapolation.Sums sums(int from, int to) {
+		Extrapolation.Sums sums = new Extrapolation.Sums();
+		IdVertex previous = new IdVertex();
+		for (int p = from; p < to; p++) {
+			previous.setAdjList(new int[0], 0);
+			previous.clearHistory();
+			previous.setRank(x(1, p));
+			previous.pushHistory();
+			previous.setRank(x(2, p));
+			previous.pushHistory();
+			previous.setRank(x(3, p));
+			sums.add(x(4, p), previous);
+		}
+		return sums;
+	}
+
+	private void write(String name, Extrapolation.Sums... reducers) throws IOException {
+		try (PrintWriter writer = new PrintWriter(new OutputStreamWriter(Files.newOutputStream(new File(dir, name).toPath()), "UTF-8"))) {
+			for (Extrapolation.Sums sums : reducers) {
+				writer.print(sums + "\n");
+			}
+		}
+	}
+
+	// The combination of x(2), x(3) and x(4) removes both eigenvectors and leaves the page rank
+	public void testSolveRemovesEigenvectors() throws IOException {
+		write(Extrapolation.OUTPUT + "-r-00000", sums(0, 20));
+		write(Extrapolation.OUTPUT + "-r-00001", sums(20, 35), sums(35, PAGES));
+		double[] beta = Extrapolation.solve(TestGraphs.local(), new Path(dir.getPath()), PAGES);
+		assertNotNull(beta);
+
+		// x(4) - (l2 + l3) x(3) + l2 l3 x(2) is (1 - l2)(1 - l3) u1
+		double q = (1 - LAMBDA2) * (1 - LAMBDA3);
+		assertEquals(LAMBDA2 * LAMBDA3 / q, beta[0], 1e-9);
+		assertEquals(-(LAMBDA2 + LAMBDA3) / q, beta[1], 1e-9);
+		assertEquals(1 / q, beta[2], 1e-9);
+		for (int p = 0; p < PAGES; p++) {
+			assertEquals(u1[p], beta[0] * x(2, p) + beta[1] * x(3, p) + beta[2] * x(4, p), 1e-12);
+		}
+	}
+
+	// No fit when pages miss their history or no reducer wrote sums
+	public void testSolveIncomplete() throws IOException {
+		Configuration conf = TestGraphs.local();
+		Path path = new Path(dir.getPath());
+		assertNull(Extrapolation.solve(conf, path, PAGES));
+		write(Extrapolation.OUTPUT + "-r-00000", sums(0, PAGES - 1));
+		assertNull(Extrapolation.solve(conf, path, PAGES));
+		assertNotNull(Extrapolation.solve(conf, path, PAGES - 1));
+	}
+
+	// Iterations 1 .. 8 keep history in the last three iterations of every period and write sums in the last
+	private static void assertSchedule(int period, boolean[] history, boolean[] sums) {
+		Configuration conf = new Configuration(false);
+		for (int i = 1; i <= history.length; i++) {
+			Extrapolation.configure(conf, i, period, null);
+			assertEquals("history of iteration " + i, history[i - 1], conf.getBoolean(Extrapolation.HISTORY, false));
+			assertEquals("sums of iteration " + i, sums[i - 1], conf.getBoolean(Extrapolation.SUMS, false));
+		}
+	}
+
+	public void testConfigurePeriodThree() {
+		assertSchedule(3,
+				new boolean[] { true, true, true, true, true, true, true, true },
+				new boolean[] { false, false, true, false, false, true, false, false });
+	}
+
+	public void testConfigurePeriodFour() {
+		assertSchedule(4,
+				new boolean[] { false, true, true, true, false, true, true, true },
+				new boolean[] { false, false, false, true, false, false, false, true });
+	}
+
+	public void testConfigureCoefficients() {
+		Configuration conf = new Configuration(false);
+		Extrapolation.configure(conf, 5, 4, new double[] { 0.25, -0.5, 1.25 });
+		double[] coefficients = Extrapolation.coefficients(conf);
+		assertEquals(0.25, coefficients[0], 0.0);
+		assertEquals(-0.5, coefficients[1], 0.0);
+		assertEquals(1.25, coefficients[2], 0.0);
+		Extrapolation.configure(conf, 6, 4, null);
+		assertNull(Extrapolation.coefficients(conf));
+	}
+}
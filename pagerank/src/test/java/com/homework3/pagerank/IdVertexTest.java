@@ -0,0 +1,118 @@
+package com.homework3.pagerank;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+/**
+ * IdVertex records through write and readFields, read back with the Neighbours cursor.
+ */
+public class IdVertexTest extends TestCase {
+
+	// Write the vertex and read it into a record that held something else before
+	private static IdVertex roundTrip(IdVertex vertex) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		vertex.write(new DataOutputStream(bytes));
+		IdVertex read = new IdVertex();
+		read.setRank(-1);
+		read.setAdjList(new int[] { 1, 2, 3, 4, 5, 6, 7, 8 }, 8);
+		read.pushHistory();
+		read.readFields(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+		return read;
+	}
+
+	private static int[] neighbours(IdVertex vertex) {
+		int[] ids = new int[vertex.getDegree()];
+		IdVertex.Neighbours it = vertex.neighbours();
+		for (int i = 0; i < ids.length; i++) {
+			assertTrue(it.hasNext());
+			ids[i] = it.next();
+		}
+		assertFalse(it.hasNext());
+		return ids;
+	}
+
+	public void testEmpty() throws IOException {
+		IdVertex vertex = new IdVertex();
+		vertex.setRank(0.25);
+		vertex.setAdjList(new int[0], 0);
+		IdVertex read = roundTrip(vertex);
+		assertEquals(0.25, read.getRank(), 0.0);
+		assertFalse(read.isContribution());
+		assertEquals(0, read.getDegree());
+		assertEquals(0, read.getEncodedLength());
+		assertEquals(0, read.getHistoryLength());
+		assertFalse(read.neighbours().hasNext());
+	}
+
+	public void testContribution() throws IOException {
+		IdVertex vertex = new IdVertex();
+		vertex.setAdjList(new int[] { 3, 9 }, 2);
+		vertex.pushHistory();
+		vertex.setContribution(0.125);
+		IdVertex read = roundTrip(vertex);
+		assertTrue(read.isContribution());
+		assertEquals(0.125, read.getRank(), 0.0);
+		assertEquals(0, read.getDegree());
+		assertEquals(0, read.getHistoryLength());
+		assertFalse(read.neighbours().hasNext());
+	}
+
+	public void testUnsortedAndDuplicateIds() throws IOException {
+		int[] ids = { 7, 2, 7, 0, 2, 7 };
+		int[] given = ids.clone();
+		IdVertex vertex = new IdVertex();
+		vertex.setRank(0.5);
+		// Only the first five IDs are the list
+		vertex.setAdjList(ids, 5);
+		assertTrue("the caller's array was changed", Arrays.equals(given, ids));
+		IdVertex read = roundTrip(vertex);
+		assertEquals(5, read.getDegree());
+		assertTrue(Arrays.toString(neighbours(read)), Arrays.equals(new int[] { 0, 2, 2, 7, 7 }, neighbours(read)));
+	}
+
+	public void testLargeGaps() throws IOException {
+		int[] ids = { Integer.MAX_VALUE, 0, 127, 128, 16384, 1 << 21, 1 << 28, Integer.MAX_VALUE - 1 };
+		IdVertex vertex = new IdVertex();
+		vertex.setAdjList(ids, ids.length);
+		IdVertex read = roundTrip(vertex);
+		int[] sorted = ids.clone();
+		Arrays.sort(sorted);
+		assertTrue(Arrays.toString(neighbours(read)), Arrays.equals(sorted, neighbours(read)));
+		assertEquals(vertex.getEncodedLength(), read.getEncodedLength());
+	}
+
+	public void testHistoryTail() throws IOException {
+		IdVertex vertex = new IdVertex();
+		vertex.setAdjList(new int[] { 4, 1 }, 2);
+		vertex.setRank(0.1);
+		vertex.pushHistory();
+		IdVertex read = roundTrip(vertex);
+		assertEquals(1, read.getHistoryLength());
+		assertEquals(0.1, read.getHistory(0), 0.0);
+
+		// Past HISTORY ranks the oldest are dropped, most recent first
+		vertex.setRank(0.2);
+		vertex.pushHistory();
+		vertex.setRank(0.3);
+		vertex.pushHistory();
+		vertex.setRank(0.4);
+		read = roundTrip(vertex);
+		assertEquals(0.4, read.getRank(), 0.0);
+		assertEquals(IdVertex.HISTORY, read.getHistoryLength());
+		assertEquals(0.3, read.getHistory(0), 0.0);
+		assertEquals(0.2, read.getHistory(1), 0.0);
+		assertTrue(Arrays.equals(new int[] { 1, 4 }, neighbours(read)));
+
+		// The next record of a reused vertex does not keep the tail
+		vertex.clearHistory();
+		read = roundTrip(vertex);
+		assertEquals(0, read.getHistoryLength());
+		assertTrue(Arrays.equals(new int[] { 1, 4 }, neighbours(read)));
+	}
+}
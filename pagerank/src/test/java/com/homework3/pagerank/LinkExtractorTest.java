@@ -0,0 +1,124 @@
+package com.homework3.pagerank;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * The byte scanner against a full SAX parse with WikiParser: the same links, in the same order,
+ * and the same pages rejected as ill-formatted.
+ */
+public class LinkExtractorTest extends TestCase {
+	private static final String HEAD = "<html><head><title>T</title></head><body>";
+	private static final String TAIL = "</body></html>";
+
+	// Pages the scanner handles itself
+	private static final String[] MODELLED = {
+		// Links inside bodyContent only
+		HEAD + "<a href=\"../x/Outside.html\">o</a><div id=\"bodyContent\"><p><a href=\"../x/A.html\">a</a> <a href=\"../x/B.html\">b</a></p></div>"
+				+ "<a href=\"../x/After.html\">x</a>" + TAIL,
+		// Nested divs, a second bodyContent inside the first, links after the inner divs close
+		HEAD + "<div id=\"bodyContent\"><div class=\"a\"><div><a href=\"../x/Deep.html\">d</a></div></div>"
+				+ "<div id=\"bodyContent\"><a href=\"../x/Inner.html\">i</a></div><a href=\"../x/Late.html\">l</a></div>" + TAIL,
+		// Nested anchors and empty elements
+		HEAD + "<div id=\"bodyContent\"><a href=\"../x/Outer.html\"><a href=\"../x/Nested.html\">n</a></a><a href=\"../x/Empty.html\"/><br/></div>" + TAIL,
+		// Relative, absolute, fragment, tilde, query, missing and non-html hrefs
+		HEAD + "<div id=\"bodyContent\"><a href=\"../../a/b/Rel.html\">r</a><a href=\"http://en.wikipedia.org/wiki/Abs.html\">a</a>"
+				+ "<a href=\"#section\">s</a><a href=\"../x/Talk~Page.html\">t</a><a href=\"../x/Q.html?x=1\">q</a><a name=\"n\">m</a>"
+				+ "<a href=\"../x/Image.png\">i</a><a href=\"./Dot.html\">d</a><a href=\"../x/.html\">e</a><a href='../x/Single.html'>s</a></div>" + TAIL,
+		// Escaped and non-ASCII hrefs
+		HEAD + "<div id=\"bodyContent\"><a href=\"../x/Caf%C3%A9.html\">c</a><a href=\"../x/A+B.html\">p</a><a href=\"../x/%7ETilde.html\">t</a>"
+				+ "<a href=\"../x/Z\u00fcrich.html\">z</a><a href=\"../x/Bad%ZZ.html\">b</a></div>" + TAIL,
+		// Case of the div and the id value, attribute spacing
+		HEAD + "<DIV ID=\"x\" id = \"BodyContent\" ><A HREF=\"../x/Upper.html\">u</A><a  href=\"../x/Spaced.html\" >s</a></DIV>" + TAIL,
+		// Comments, CDATA, a DOCTYPE and non-ASCII text
+		"<!DOCTYPE html PUBLIC \"-//W3C//DTD XHTML 1.0 Strict//EN\" \"x.dtd\">\n<!-- c -->" + HEAD
+				+ "<div id=\"bodyContent\"><!-- <a href=\"../x/Commented.html\"> --><![CDATA[<a href=\"../x/Cdata.html\">]]>"
+				+ "Gr\u00f6\u00dfe \u2265 1 <a href=\"../x/Text.html\">t</a></div>" + TAIL + "\n",
+		// No bodyContent at all
+		HEAD + "<div id=\"content\"><a href=\"../x/None.html\">n</a></div>" + TAIL,
+	};
+
+	// Pages with entities, which the scanner only takes as plain text with literal ampersands
+	private static final String[] ENTITIES = {
+		HEAD + "<div id=\"bodyContent\">Tom &amp; Jerry &lt;3 &#39;<a href=\"../x/Amp&amp;Co.html\">a</a><a href=\"../x/R&D.html\">r</a></div>" + TAIL,
+		HEAD + "<div id=\"bodyContent\">&nbsp;<a href=\"../x/Nbsp.html\">n</a></div>" + TAIL,
+	};
+
+	// Pages that are not well-formed or use XML the scanner leaves to SAX
+	private static final String[] MALFORMED = {
+		"",
+		"just text",
+		HEAD + "<div id=\"bodyContent\"><a href=\"../x/A.html\">a</div>" + TAIL,
+		HEAD + "<div id=\"bodyContent\"><br><a href=\"../x/A.html\">a</a></div>" + TAIL,
+		HEAD + "<div id=\"bodyContent\"><a href=../x/A.html>a</a></div>" + TAIL,
+		HEAD + "<div id=\"bodyContent\" id=\"x\"><a href=\"../x/A.html\">a</a></div>" + TAIL,
+		HEAD + "<div id=\"bodyContent\"><a href=\"../x/<A>.html\">a</a></div>" + TAIL,
+		HEAD + "<div id=\"bodyContent\"><a href=\"../x/A.html\">a</a></div>" + TAIL + "trailing",
+		HEAD + "<div id=\"bodyContent\"><a href=\"../x/A.html\">a</a></div>" + TAIL + "<html></html>",
+		HEAD + "<div id=\"bodyContent\"><a href=\"../x/A.html\">a</a></div>",
+		HEAD + "<div id=\"bodyContent\"><!-- a -- b --><a href=\"../x/A.html\">a</a></div>" + TAIL,
+		"<?xml version=\"1.0\"?>" + HEAD + "<div id=\"bodyContent\"><a href=\"../x/Pi.html\">a</a></div>" + TAIL,
+		"<!DOCTYPE html [<!ENTITY e \"x\">]>" + HEAD + "<div id=\"bodyContent\">&e;<a href=\"../x/Subset.html\">a</a></div>" + TAIL,
+		HEAD + "<div id=\"bodyContent\"><a href=\"../x/A.html\">a</a>\u0001</div>" + TAIL,
+	};
+
+	// Both extractors on the page inside a larger buffer, as the parsers pass it, and whether the scanner handled it
+	private static boolean compare(String page, boolean literalAmpersands) {
+		byte[] bytes = ("Name:" + page + "\n").getBytes(StandardCharsets.UTF_8);
+		int start = 5;
+		int end = bytes.length - 1;
+		List<String> expected = new ArrayList<String>();
+		expected.add("kept");
+		boolean parsed = new LinkExtractor(literalAmpersands).parse(bytes, start, end, expected);
+		List<String> actual = new ArrayList<String>();
+		actual.add("kept");
+		LinkExtractor extractor = new LinkExtractor(literalAmpersands);
+		boolean extracted = extractor.extract(bytes, start, end, actual);
+		assertEquals("rejected " + page, parsed, extracted);
+		assertEquals(page, expected, actual);
+		return new LinkExtractor(literalAmpersands).scan(bytes, start, end, new ArrayList<String>());
+	}
+
+	public void testModelledPages() {
+		for (String page : MODELLED) {
+			for (boolean literal : new boolean[] { true, false }) {
+				assertTrue("left to SAX: " + page, compare(page, literal));
+			}
+		}
+	}
+
+	public void testLinksFound() {
+		List<String> links = new ArrayList<String>();
+		byte[] bytes = MODELLED[0].getBytes(StandardCharsets.UTF_8);
+		assertTrue(new LinkExtractor(true).extract(bytes, 0, bytes.length, links));
+		assertEquals("[A, B]", links.toString());
+		links.clear();
+		bytes = MODELLED[4].getBytes(StandardCharsets.UTF_8);
+		assertTrue(new LinkExtractor(true).extract(bytes, 0, bytes.length, links));
+		assertTrue(links.toString(), links.contains("Caf\u00e9") && links.contains("A B") && links.contains("Z\u00fcrich"));
+	}
+
+	public void testEntities() {
+		for (String page : ENTITIES) {
+			// Literal ampersands are text to both, otherwise the scanner leaves entities to SAX
+			compare(page, true);
+			assertFalse(compare(page, false));
+		}
+	}
+
+	public void testMalformedPages() {
+		for (String page : MALFORMED) {
+			for (boolean literal : new boolean[] { true, false }) {
+				assertFalse("scanned: " + page, compare(page, literal));
+			}
+		}
+		// Ill-formatted pages are rejected by both and add no links
+		List<String> links = new ArrayList<String>();
+		byte[] bytes = MALFORMED[2].getBytes(StandardCharsets.UTF_8);
+		assertFalse(new LinkExtractor(true).extract(bytes, 0, bytes.length, links));
+		assertTrue(links.isEmpty());
+	}
+}
@@ -0,0 +1,194 @@
+package com.homework3.pagerank;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+
+import junit.framework.TestCase;
+
+/**
+ * Ranks kept up to date by OnlineRank against power iteration on the changed graph.
+ */
+public class OnlineRankTest extends TestCase {
+	private static final int PAGES = 30;
+	private static final double ALPHA = 0.15;
+
+	private File dir;
+	// Out-links of every page, Page<i> is index i
+	private List<TreeSet<Integer>> links;
+
+	protected void setUp() throws Exception {
+		dir = TestGraphs.tempDir("online");
+		Random random = new Random(7);
+		links = new ArrayList<TreeSet<Integer>>();
+		for (int p = 0; p < PAGES; p++) {
+			TreeSet<Integer> out = new TreeSet<Integer>();
+			int d = p % 6 == 0 ? 0 : 1 + random.nextInt(4);
+			while (out.size() < d) {
+				int v = random.nextInt(PAGES);
+				if (v != p) {
+					out.add(v);
+				}
+			}
+			links.add(out);
+		}
+	}
+
+	protected void tearDown() throws Exception {
+		TestGraphs.delete(dir);
+	}
+
+	private static Configuration conf() {
+		Configuration conf = new Configuration(false);
+		conf.set("fs.defaultFS", "file:///");
+		conf.setDouble("alpha", ALPHA);
+		conf.setDouble(OnlineRank.TOLERANCE, 1e-13);
+		return conf;
+	}
+
+	// Text Graph output of the current links, each out-link written repeat times
+	private Path graph(String name, int repeat) throws IOException {
+		File graph = new File(dir, name);
+		graph.mkdirs();
+		try (PrintWriter writer = new PrintWriter(new OutputStreamWriter(Files.newOutputStream(new File(graph, "part-r-00000").toPath()), "UTF-8"))) {
+			for (int p = 0; p < links.size(); p++) {
+				StringBuilder adj = new StringBuilder();
+				for (int v : links.get(p)) {
+					for (int r = 0; r < repeat; r++) {
+						adj.append(adj.length() == 0 ? "" : "~").append("Page").append(v);
+					}
+				}
+				writer.print("Page" + p + "\t" + adj + "\n");
+			}
+		}
+		return new Path(graph.getPath());
+	}
+
+	// Page rank of the current links by power iteration, dangling pages spread their rank evenly
+	private double[] powerIteration() {
+		int n = links.size();
+		double[] rank = new double[n];
+		Arrays.fill(rank, 1.0 / n);
+		for (int i = 0; i < 500; i++) {
+			double dangling = 0.0;
+			double[] next = new double[n];
+			for (int p = 0; p < n; p++) {
+				if (links.get(p).isEmpty()) {
+					dangling += rank[p];
+				}
+				for (int v : links.get(p)) {
+					next[v] += (1 - ALPHA) * rank[p] / links.get(p).size();
+				}
+			}
+			for (int p = 0; p < n; p++) {
+				next[p] += ALPHA / n + (1 - ALPHA) * dangling / n;
+			}
+			rank = next;
+		}
+		return rank;
+	}
+
+	private void assertRanks(OnlineRank online) {
+		double[] expected = powerIteration();
+		assertEquals(links.size(), online.getPageCount());
+		for (int p = 0; p < links.size(); p++) {
+			assertEquals("Page" + p, expected[p], online.rank("Page" + p), 1e-10);
+		}
+	}
+
+	// Loading pushes from 1/N to the ranks of the graph, repeated links count once
+	public void testLoad() throws IOException {
+		assertRanks(new OnlineRank(conf()).load(graph("Graph", 1), new Path(dir.getPath(), "none")));
+		assertRanks(new OnlineRank(conf()).load(graph("Repeated", 3), new Path(dir.getPath(), "none")));
+	}
+
+	// Inserts and deletes followed by pushes give the ranks of the changed graph computed from scratch
+	public void testChangesMatchRecompute() throws IOException {
+		OnlineRank online = new OnlineRank(conf()).load(graph("Graph", 1), new Path(dir.getPath(), "none"));
+		Random random = new Random(13);
+		for (int c = 0; c < 200; c++) {
+			int u = random.nextInt(PAGES);
+			int v = random.nextInt(PAGES);
+			if (u == v) {
+				continue;
+			}
+			if (random.nextBoolean()) {
+				assertEquals(links.get(u).add(v), online.insert("Page" + u, "Page" + v));
+			}
+			else {
+				assertEquals(links.get(u).remove(v), online.delete("Page" + u, "Page" + v));
+			}
+			if (c % 20 == 0) {
+				online.push();
+			}
+		}
+		online.push();
+		assertTrue("error bound " + online.error(), online.error() < 1e-9);
+		assertRanks(online);
+		// Reloading the changed graph gives the same ranks
+		assertRanks(new OnlineRank(conf()).load(graph("Changed", 1), new Path(dir.getPath(), "none")));
+	}
+
+	// Links from and to pages the loaded graph does not have add those pages with their teleport share
+	public void testNewPages() throws IOException {
+		OnlineRank online = new OnlineRank(conf()).load(graph("Graph", 1), new Path(dir.getPath(), "none"));
+		for (int p = PAGES; p < PAGES + 4; p++) {
+			links.add(new TreeSet<Integer>());
+		}
+		// A new page that only links out, one that is only linked to, and a new page linking to a new page
+		assertTrue(online.insert("Page" + PAGES, "Page3"));
+		links.get(PAGES).add(3);
+		assertTrue(online.insert("Page5", "Page" + (PAGES + 1)));
+		links.get(5).add(PAGES + 1);
+		assertTrue(online.insert("Page" + (PAGES + 2), "Page" + (PAGES + 3)));
+		links.get(PAGES + 2).add(PAGES + 3);
+		online.push();
+		assertTrue("error bound " + online.error(), online.error() < 1e-9);
+		assertRanks(online);
+		assertRanks(new OnlineRank(conf()).load(graph("Grown", 1), new Path(dir.getPath(), "none")));
+	}
+
+	// Updates after each batch, and a snapshot of every page at the end of the stream
+	public void testStream() throws IOException {
+		Configuration conf = conf();
+		conf.setInt(OnlineRank.BATCH, 1);
+		conf.setDouble(OnlineRank.DRIFT, 1.0);
+		OnlineRank online = new OnlineRank(conf).load(graph("Graph", 1), new Path(dir.getPath(), "none"));
+		int u = links.get(1).first();
+		File out = new File(dir, "out");
+		online.stream(new BufferedReader(new StringReader("- Page1 Page" + u + "\n+ Page0 Page1\n")), out.getPath());
+		links.get(1).remove(u);
+		links.get(0).add(1);
+		assertTrue(new File(out, "Update1").isDirectory());
+		assertTrue(new File(out, "Update2").isDirectory());
+		Map<String, Double> snapshot = TestGraphs.ranks(new File(out, "Snapshot2"));
+		assertEquals(PAGES, snapshot.size());
+		double[] expected = powerIteration();
+		for (int p = 0; p < PAGES; p++) {
+			assertEquals("Page" + p, expected[p], snapshot.get("Page" + p), 1e-10);
+		}
+	}
+
+	// Without any change the stream still ends with a snapshot
+	public void testEmptyStream() throws IOException {
+		OnlineRank online = new OnlineRank(conf()).load(graph("Graph", 1), new Path(dir.getPath(), "none"));
+		File out = new File(dir, "out");
+		online.stream(new BufferedReader(new StringReader("")), out.getPath());
+		Map<String, Double> snapshot = TestGraphs.ranks(new File(out, "Snapshot0"));
+		assertEquals(PAGES, snapshot.size());
+		assertEquals(1.0, TestGraphs.sum(snapshot), 1e-12);
+	}
+}
@@ -0,0 +1,128 @@
+package com.homework3.pagerank;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * Small wiki inputs and helpers for the tests that run the driver in local mode.
+ */
+final class TestGraphs {
+
+	private TestGraphs() {
+	}
+
+	// Local job runner on the local file system, with a large alpha so the iterations converge in few rounds
+	static Configuration local() {
+		Configuration conf = new Configuration();
+		conf.set("mapreduce.framework.name", "local");
+		conf.set("fs.defaultFS", "file:///");
+		conf.setDouble("alpha", 0.5);
+		return conf;
+	}
+
+	static File tempDir(String prefix) throws IOException {
+		return Files.createTempDirectory(prefix).toFile();
+	}
+
+	static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+
+	// Copy a directory file by file, checksum files included, as a run left it
+	static void copy(File from, File to) throws IOException {
+		File[] children = from.listFiles();
+		if (children == null) {
+			Files.copy(from.toPath(), to.toPath());
+			return;
+		}
+		to.mkdirs();
+		for (File child : children) {
+			copy(child, new File(to, child.getName()));
+		}
+	}
+
+	// Write "name:html" page lines of a random graph with pages Page0 .. Page<n-1>, every fifth page without links
+	static File wiki(File dir, int n, long seed) throws IOException {
+		Random random = new Random(seed);
+		File input = new File(dir, "in.txt");
+		try (PrintWriter writer = new PrintWriter(new OutputStreamWriter(Files.newOutputStream(input.toPath()), "UTF-8"))) {
+			for (int p = 0; p < n; p++) {
+				StringBuilder line = new StringBuilder("Page" + p + ":<html><head></head><body><div id=\"bodyContent\"><p>");
+				int links = p % 5 == 0 ? 0 : 1 + random.nextInt(6);
+				for (int l = 0; l < links; l++) {
+					line.append("<a href=\"../x/Page").append(random.nextInt(n)).append(".html\">l</a>");
+				}
+				line.append("</p></div></body></html>");
+				writer.print(line + "\n");
+			}
+		}
+		return input;
+	}
+
+	// Ranks of the "name<TAB>rank ..." lines of an output directory
+	static Map<String, Double> ranks(File output) throws IOException {
+		Map<String, Double> ranks = new HashMap<String, Double>();
+		File[] files = output.listFiles();
+		for (File file : files == null ? new File[0] : files) {
+			if (!file.getName().startsWith("part-")) {
+				continue;
+			}
+			try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"))) {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					int tab = line.indexOf('\t');
+					int end = line.indexOf(' ', tab + 1);
+					ranks.put(line.substring(0, tab), Double.parseDouble(end < 0 ? line.substring(tab + 1) : line.substring(tab + 1, end)));
+				}
+			}
+		}
+		return ranks;
+	}
+
+	static double sum(Map<String, Double> ranks) {
+		double sum = 0.0;
+		for (double rank : ranks.values()) {
+			sum += rank;
+		}
+		return sum;
+	}
+
+	// Largest difference between the ranks of the same pages, both maps must hold the same pages
+	static double maxDifference(Map<String, Double> expected, Map<String, Double> actual) {
+		if (!expected.keySet().equals(actual.keySet())) {
+			throw new AssertionError("Different pages: " + expected.keySet() + " and " + actual.keySet());
+		}
+		double max = 0.0;
+		for (Map.Entry<String, Double> e : expected.entrySet()) {
+			max = Math.max(max, Math.abs(e.getValue() - actual.get(e.getKey())));
+		}
+		return max;
+	}
+
+	// Run the whole pipeline and fail on a non-zero exit code
+	static Metrics run(Configuration conf, File input, File out) throws Exception {
+		Metrics metrics = new Metrics();
+		int exit = PageRankDriver.run(conf, new String[] { input.getPath(), out.getPath() }, metrics);
+		if (exit != 0) {
+			throw new AssertionError("Driver exited with " + exit);
+		}
+		return metrics;
+	}
+}